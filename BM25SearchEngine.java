@@ -10,15 +10,37 @@
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.stream.IntStream;
 
 public class BM25SearchEngine {
 
+    // number of docIDs scored together by maxScoreRetrieval
+    public static final int MAXSCORE_WINDOW = 4096;
+
+    // most terms a prefix* query word expands to
+    public static final int MAX_EXPANSIONS = 32;
+
+    // queries kept in the result cache, and the most postings and smallest doc frequency of lists kept scored in the posting cache
+    public static final int RESULT_CACHE_SIZE = 1024;
+    public static final long POSTING_CACHE_POSTINGS = 8 * 1024 * 1024;
+    public static final int POSTING_CACHE_MIN_DOC_FREQUENCY = 4096;
+
+    // estimated heap bytes of parsed docs kept in the document cache
+    public static final long DOCUMENT_CACHE_BYTES = 64L * 1024 * 1024;
+
     public static void main(String[] args) {
 
         //checking for command line arguments
-        if (args.length != 1) {
-            System.out.println("Please provide a path to your latimes-index directory.");
+        if (args.length < 1 || args.length > 3) {
+            System.out.println("Please provide a path to your latimes-index directory, and optionally the number of results to show (default 10) and the retrieval mode, exhaustive (default), maxscore, impact or boolean.");
         } else {
             // location of saved file information and mappings
             String indexPath = args[0];
@@ -28,349 +50,756 @@ public class BM25SearchEngine {
                 System.out.println("Please provide the proper path to the latimes-index file. This directory does not exist.");
             } else {
 
+                // the increments are read once so everything below is opened from the same generation of the index
+                IndexManifest manifest = readManifest(indexPath);
+
                 // building lexicon and inverted index for tokenization of the query and searching
-                HashMap<String, Integer> lexicon = buildLexicon(indexPath);
-                HashMap<Integer, ArrayList<Integer>> invertedIndex = buildInvertedIndex(indexPath);
+                TermDictionary lexicon = buildLexicon(indexPath, manifest);
+                InvertedIndex invertedIndex = buildInvertedIndex(indexPath, manifest);
+                if (lexicon == null || invertedIndex == null) {
+                    System.out.println("Could not open the inverted index. Please re-run IndexEngine to build lexicon.bin and inverted-index.bin.");
+                    return;
+                }
+
+                // opening the packed doc store for raw docs and metadata of the results
+                DocumentStore documents = buildDocumentStore(indexPath, manifest);
+                if (documents == null) {
+                    System.out.println("Could not open the document store. Please re-run IndexEngine to build documents.bin.");
+                    return;
+                }
+
+                // opening the sentence index for the headline, date and snippet sentences of the results
+                SentenceIndex sentences = buildSentenceIndex(indexPath, manifest);
+                if (sentences == null) {
+                    System.out.println("Could not open the sentence index. Please re-run IndexEngine to build sentences.bin.");
+                    return;
+                }
 
                 // building arraylist of docnos for exporting docno in results
-                ArrayList<String> docnos = buildDocnos(indexPath);
+                ArrayList<String> docnos = buildDocnos(indexPath, manifest);
 
-                // building arraylist of doc lengths for calculating scores
-                ArrayList<Integer> docLengths = buildDocLengths(indexPath);
+                // building array of doc lengths for calculating scores
+                int[] docLengths = buildDocLengths(indexPath, manifest);
 
-                // Calculating average doc length
-                int sum = 0;
-                for(int length : docLengths) {
-                    sum += length;
-                }
-                double avgLength = (double) sum / docLengths.size();
+                // length normalization of every doc, computed once so scoring a posting does not redo it
+                double[] docNorms = buildDocNorms(manifest, docLengths);
 
                 // total number of docs in collection
                 int numDocs = docnos.size();
 
+                // score accumulator and top k heap reused by every query
+                ScoreAccumulator accum = new ScoreAccumulator(numDocs);
+                int numResults = (args.length >= 2) ? Integer.parseInt(args[1]) : 10;
+                TopK topK = new TopK(numResults);
+
+                // repeated queries are answered from the result cache, and frequent terms are kept scored in the posting cache
+                ResultCache resultCache = new ResultCache(RESULT_CACHE_SIZE);
+                PostingCache postingCache = new PostingCache(POSTING_CACHE_POSTINGS, POSTING_CACHE_MIN_DOC_FREQUENCY);
+
+                // docs that keep showing up in results are parsed once and kept in the document cache
+                DocumentCache documentCache = new DocumentCache(DOCUMENT_CACHE_BYTES);
+
+                // maxscore prunes postings that cannot reach the top k, exhaustive scores every posting, both rank the same. impact
+                // adds up precomputed quantized scores, ranking close to but not exactly the same. boolean only ranks the docs matching
+                // a query of AND, OR and NOT, see BooleanQuery
+                String mode = (args.length == 3) ? args[2] : "exhaustive";
+                if (!mode.equals("maxscore") && !mode.equals("exhaustive") && !mode.equals("impact") && !mode.equals("boolean")) {
+                    System.out.println("Unknown retrieval mode " + mode + ", please use maxscore, exhaustive, impact or boolean.");
+                    return;
+                }
+
+                // queries with a date range are ranked over the date segments of its months, if SegmentIndexer has written them
+                SegmentedIndex segments = buildSegments(indexPath, manifest, invertedIndex, numDocs);
+
+                // impact mode ranks with the quantized scores written by ImpactIndexer instead of the counts
+                if (mode.equals("impact")) {
+                    invertedIndex = buildImpactIndex(indexPath, manifest);
+                    if (invertedIndex == null) {
+                        System.out.println("Could not open the impact index. Please run ImpactIndexer to build impact-index.bin.");
+                        return;
+                    }
+                }
+
+                // time spent in each stage of every query, shown with the M command
+                SearchMetrics metrics = new SearchMetrics();
+
                 // now ready to perform retrieval and take in queries
                 
                 // get search topic and query, tokenize query
                 Scanner scanner = new Scanner(System.in);
 
-                performSearch(scanner, indexPath, numDocs, avgLength, lexicon, invertedIndex, docnos, docLengths);
+                performSearch(scanner, documents, sentences, numDocs, lexicon, invertedIndex, segments, docnos, docNorms, accum, topK, mode, resultCache, postingCache, documentCache, metrics);
 
-                // after all is complete close scanner
+                // after all is complete close scanner, the doc store and the sentence index
                 scanner.close();
+                try {
+                    documents.close();
+                    sentences.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
         }
     }
     
-    // method to read in lexicon from file saved at indexPath
-    public static HashMap<String, Integer> buildLexicon(String indexPath) {
-        HashMap<String, Integer> lexicon = new HashMap<>();
+    // every build method below also opens the increments added to indexPath since IndexEngine built it (see IndexManifest), so the
+    // index and its increments are searched as one collection. they take the manifest (null if no increments were added) rather
+    // than reading it, so a caller reads it once and opens every structure from the same generation, even if a merge commits in
+    // between (see readManifest)
 
+    // the manifest of indexPath for the build methods, null if no increments were added or it cannot be read (then printed)
+    public static IndexManifest readManifest(String indexPath) {
         try {
-            File terms = new File(indexPath + "/lexicon.txt");
-            Scanner scanner = new Scanner(terms);
+            return IndexManifest.read(indexPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
 
-            int id = 0;
-            while (scanner.hasNextLine()) {
-                String term = scanner.nextLine();
-                lexicon.put(term, id);
-                id++;
+    // method to open the lexicon saved at indexPath, the front coded term dictionary is memory mapped rather than read into a hash table
+    public static TermDictionary buildLexicon(String indexPath, IndexManifest manifest) {
+        try {
+            TermDictionary lexicon = TermDictionary.open(indexPath);
+            if (manifest == null || manifest.size() == 0) {
+                return lexicon;
             }
-            scanner.close();
-        } catch (FileNotFoundException e) {
+            TermDictionary[] deltas = new TermDictionary[manifest.size()];
+            for (int i = 0; i < deltas.length; i++) {
+                deltas[i] = TermDictionary.open(manifest.path(indexPath, i));
+            }
+            return lexicon.withDeltas(deltas);
+        } catch (IOException e) {
             e.printStackTrace();
+            return null;
         }
+    }
 
-        return lexicon;
+    // method to open the binary inverted index saved at indexPath, postings are memory mapped instead of read into the heap
+    public static InvertedIndex buildInvertedIndex(String indexPath, IndexManifest manifest) {
+        try {
+            InvertedIndex invertedIndex = InvertedIndex.open(indexPath);
+            if (manifest == null || manifest.size() == 0) {
+                return invertedIndex;
+            }
+            InvertedIndex[] parts = new InvertedIndex[manifest.size() + 1];
+            parts[0] = invertedIndex;
+            for (int i = 0; i < manifest.size(); i++) {
+                parts[i + 1] = InvertedIndex.openSegment(manifest.path(indexPath, i), null);
+            }
+            return InvertedIndex.combine(parts, firstDocs(manifest), manifest.totalTerms(), invertedIndex.generation() * 31 + manifest.generation);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
     }
 
-    // method to read in inverted index from file saved at indexPath
-    public static HashMap<Integer, ArrayList<Integer>> buildInvertedIndex(String indexPath) {
-        HashMap<Integer, ArrayList<Integer>> invertedIndex = new HashMap<>();
+    // method to open the impact index written by ImpactIndexer at indexPath, mapped the same way as the inverted index
+    public static InvertedIndex buildImpactIndex(String indexPath, IndexManifest manifest) {
+        try {
+            InvertedIndex impactIndex = InvertedIndex.openImpacts(indexPath);
+            if (manifest == null || manifest.size() == 0) {
+                return impactIndex;
+            }
+            InvertedIndex[] parts = new InvertedIndex[manifest.size() + 1];
+            parts[0] = impactIndex;
+            for (int i = 0; i < manifest.size(); i++) {
+                parts[i + 1] = InvertedIndex.openImpactSegment(manifest.path(indexPath, i), impactIndex.impactStep(), impactIndex.impactBias());
+            }
+            return InvertedIndex.combine(parts, firstDocs(manifest), manifest.totalTerms(), impactIndex.generation() * 31 + manifest.generation);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
 
+    // method to open the date segments written by SegmentIndexer at indexPath, null if there are none. collection is the count
+    // index they were split from
+    public static SegmentedIndex buildSegments(String indexPath, IndexManifest manifest, InvertedIndex collection, int numDocs) {
         try {
-            File indexData = new File(indexPath + "/inverted-index.txt");
-            Scanner scanner = new Scanner(indexData);
+            return SegmentedIndex.open(indexPath, manifest, collection, numDocs);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
 
-            while (scanner.hasNextLine()) {
-                // parse term id and save as int
-                String line1 = scanner.nextLine();
-                int termID = Integer.parseInt(line1);
-                
-                // parse doc id and count from posting list and add to arraylist
-                String line2 = scanner.nextLine();
-                String[] values = line2.split("\\s");
-                ArrayList<Integer> postings = new ArrayList<>();
-                for(String s : values) {
-                    postings.add(Integer.parseInt(s));
-                }
-                
-                // add term id and posting list to index
-                invertedIndex.put(termID, postings);
+    // method to open the packed doc store saved at indexPath, only its offset table is read into the heap
+    public static DocumentStore buildDocumentStore(String indexPath, IndexManifest manifest) {
+        try {
+            DocumentStore documents = DocumentStore.open(indexPath);
+            if (manifest == null || manifest.size() == 0) {
+                return documents;
             }
-            scanner.close();
-        } catch (FileNotFoundException e) {
+            DocumentStore[] parts = new DocumentStore[manifest.size() + 1];
+            parts[0] = documents;
+            for (int i = 0; i < manifest.size(); i++) {
+                parts[i + 1] = DocumentStore.open(manifest.path(indexPath, i));
+            }
+            return DocumentStore.combine(parts, firstDocs(manifest));
+        } catch (IOException e) {
             e.printStackTrace();
+            return null;
         }
+    }
 
-        return invertedIndex;
+    // method to open the sentence index saved at indexPath, only its offset and word tables are read into the heap
+    public static SentenceIndex buildSentenceIndex(String indexPath, IndexManifest manifest) {
+        try {
+            SentenceIndex sentences = SentenceIndex.open(indexPath);
+            if (manifest == null || manifest.size() == 0) {
+                return sentences;
+            }
+            SentenceIndex[] parts = new SentenceIndex[manifest.size() + 1];
+            parts[0] = sentences;
+            for (int i = 0; i < manifest.size(); i++) {
+                parts[i + 1] = SentenceIndex.open(manifest.path(indexPath, i));
+            }
+            return SentenceIndex.combine(parts, firstDocs(manifest));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
     }
 
     // reads in arraylist of docnos corresponding to doc id at that index from stored mapping in files
-    public static ArrayList<String> buildDocnos(String indexPath) {
+    // the whole file is read in one go and split on newlines instead of going line by line through a Scanner
+    public static ArrayList<String> buildDocnos(String indexPath, IndexManifest manifest) {
         ArrayList<String> docnos = new ArrayList<>();
         try {
-            File inputFile = new File(indexPath + "/DOCNOs.txt");
-            Scanner input = new Scanner(inputFile);
-
-            while (input.hasNextLine()) {
-                String line = input.nextLine().trim();
-                docnos.add(line);
+            readDocnos(indexPath, docnos);
+            for (int i = 0; manifest != null && i < manifest.size(); i++) {
+                readDocnos(manifest.path(indexPath, i), docnos);
             }
-            input.close();
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             e.printStackTrace();
         }
         
         return docnos;
     }
 
-    // reads in arraylist of doc lengths corresponding to doc id at that index from stored mapping in files
-    public static ArrayList<Integer> buildDocLengths(String indexPath) {
-        ArrayList<Integer> docLengths = new ArrayList<>();
-        try {
-            File inputFile = new File(indexPath + "/doc-lengths.txt");
-            Scanner input = new Scanner(inputFile);
+    // appends the DOCNOs of the index or increment in path
+    private static void readDocnos(String path, ArrayList<String> docnos) throws IOException {
+        String mapping = new String(Files.readAllBytes(Paths.get(path, "DOCNOs.txt")), StandardCharsets.UTF_8);
+        int start = 0;
+        int end = mapping.indexOf('\n');
+        while (end >= 0) {
+            docnos.add(mapping.substring(start, end).trim());
+            start = end + 1;
+            end = mapping.indexOf('\n', start);
+        }
+    }
 
-            while (input.hasNextLine()) {
-                String line = input.nextLine().trim();
-                int length = Integer.parseInt(line);
-                docLengths.add(length);
+    // reads in array of doc lengths corresponding to doc id at that index from doc-lengths.bin, one big endian int per doc
+    // the file is read with a single bulk read straight into the array
+    public static int[] buildDocLengths(String indexPath, IndexManifest manifest) {
+        int[] docLengths = new int[0];
+        try {
+            docLengths = readDocLengths(indexPath);
+            for (int i = 0; manifest != null && i < manifest.size(); i++) {
+                int[] lengths = readDocLengths(manifest.path(indexPath, i));
+                int numDocs = docLengths.length;
+                docLengths = Arrays.copyOf(docLengths, numDocs + lengths.length);
+                System.arraycopy(lengths, 0, docLengths, numDocs, lengths.length);
             }
-            input.close();
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             e.printStackTrace();
         }
         
         return docLengths;
     }
 
-    // tokenizer method, input String search query, arraylist of string tokens output
-    public static ArrayList<String> tokenizer (String allText) {
-        ArrayList<String> tokens = new ArrayList<>();
+    // reads doc-lengths.bin of the index or increment in path
+    private static int[] readDocLengths(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path, "doc-lengths.bin"), StandardOpenOption.READ)) {
+            ByteBuffer bytes = ByteBuffer.allocate((int) channel.size());
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+            }
+            bytes.flip();
+            int[] docLengths = new int[bytes.remaining() / Integer.BYTES];
+            bytes.asIntBuffer().get(docLengths);
+            return docLengths;
+        }
+    }
 
-        // first text to lowercase
-        allText = allText.toLowerCase();
-        int start = 0;
-        int i = 0;
-
-        // for each character, checking if that character is non-alphanumeric, if so, return string preceding it if it exists
-        for (i = 0; i < allText.length(); i++) {
-            char c = allText.charAt(i);
-            if (!Character.isLetterOrDigit(c)) {
-                if (start != i) {
-                    String token = allText.substring(start, i);
-                    tokens.add(token);
-                }
+    // first docID of the index (0) and of each increment
+    private static int[] firstDocs(IndexManifest manifest) {
+        int[] firstDocs = new int[manifest.size() + 1];
+        for (int i = 0; i < manifest.size(); i++) {
+            firstDocs[i + 1] = manifest.firstDoc(i);
+        }
+        return firstDocs;
+    }
 
-                //update start for start of next token
-                start = i + 1;
-            }
+    // length normalization of the docs of docLengths. once increments were added the average length stays the one of the index
+    // IndexEngine built, kept in the manifest, so the score bounds stored with the index and every increment stay exact bounds.
+    // rebuilding the index picks up the average of the whole collection
+    public static double[] buildDocNorms(IndexManifest manifest, int[] docLengths) {
+        if (manifest != null) {
+            return buildDocNorms(docLengths, manifest.avgLength);
+        }
+        return buildDocNorms(docLengths, averageLength(docLengths));
+    }
+
+    // average doc length of a collection
+    public static double averageLength(int[] docLengths) {
+        long sum = 0;
+        for (int length : docLengths) {
+            sum += length;
         }
+        return (double) sum / docLengths.length;
+    }
 
-        // last digit(s) are alphanumeric so we need last token
-        if (start != i) {
-            tokens.add(allText.substring(start, i));
+    // BM25 length normalization k = 1.2 * (0.25 + 0.75 * length / avgLength) of every doc, computed once when the index is loaded
+    // so scoring a posting is one add and one divide instead of redoing the doc's normalization for every term of every query
+    public static double[] buildDocNorms(int[] docLengths, double avgLength) {
+        double[] docNorms = new double[docLengths.length];
+        for (int docID = 0; docID < docLengths.length; docID++) {
+            double lengthRatio = (double) docLengths[docID] / avgLength;
+            docNorms[docID] = 1.2 * (0.25 + 0.75 * lengthRatio);
         }
+        return docNorms;
+    }
 
-        return tokens;
+    // tokenizes text and returns the ids of its tokens, tokens not in the lexicon are dropped
+    // the tokenizer looks tokens up by their chars so no String is made per token, and is reused across calls
+    public static ArrayList<Integer> tokenizeToIDs (String text, TermDictionary lexicon, Tokenizer tokenizer) {
+        tokenizer.reset();
+        tokenizer.tokenize(text, lexicon);
+        ArrayList<Integer> tokenIDs = new ArrayList<>(tokenizer.size());
+        for (int i = 0; i < tokenizer.size(); i++) {
+            tokenIDs.add(tokenizer.id(i));
+        }
+        return tokenIDs;
     }
 
-    // tokens to ids method, reads in token list of strings and lexicon and returns list of integers which it gets from lexicon
-    public static ArrayList<Integer> convertTokensToIDs (ArrayList<String> tokens, HashMap<String, Integer> lexicon) {
+    // turns a query into term ids, a word ending in * is expanded to the MAX_EXPANSIONS terms starting with it that occur in the
+    // most docs, every other word is tokenized as usual. the words of quoted phrases are query words too, see PhraseQuery
+    public static ArrayList<Integer> queryToIDs (String query, TermDictionary lexicon, InvertedIndex invertedIndex, Tokenizer tokenizer) {
         ArrayList<Integer> tokenIDs = new ArrayList<>();
-        for (String token : tokens) {
-            if(lexicon.containsKey(token)) {
-                tokenIDs.add(lexicon.get(token));
+        for (String word : query.trim().split("\\s+")) {
+            // the ~N after a quoted phrase is its window, not a word
+            word = word.replaceFirst("\"~\\d+$", "");
+            String prefix = word.substring(0, Math.max(word.length() - 1, 0)).toLowerCase();
+            if (word.endsWith("*") && !prefix.isEmpty() && prefix.chars().allMatch(Character::isLetterOrDigit)) {
+                ArrayList<Integer> expanded = lexicon.expandPrefix(prefix);
+                expanded.sort((a, b) -> invertedIndex.docFrequency(b) != invertedIndex.docFrequency(a) ? Integer.compare(invertedIndex.docFrequency(b), invertedIndex.docFrequency(a)) : Integer.compare(a, b));
+                tokenIDs.addAll(expanded.subList(0, Math.min(expanded.size(), MAX_EXPANSIONS)));
+            } else {
+                tokenIDs.addAll(tokenizeToIDs(word, lexicon, tokenizer));
             }
         }
         return tokenIDs;
     }
 
-    // runs BM25 retrieval with inputted query and returns accumulator map with unordered scores for each relevant doc
-    public static HashMap<Integer, Double> bm25Retrieval (ArrayList<Integer> tokenIDs, HashMap<Integer, ArrayList<Integer>> invertedIndex, int numDocs, double avgLength, ArrayList<Integer> docLengths ) {
+    // runs BM25 retrieval with inputted query and fills the accumulator with unordered scores for each relevant doc
+    // the loop over postings only touches primitives: decoded ints from the cursor, the double[] doc norms and the dense accumulator
+    // scored lists of frequent terms are read from the posting cache when one is given (null to always decode)
+    // returns the number of postings decoded
+    public static long bm25Retrieval (ArrayList<Integer> tokenIDs, InvertedIndex invertedIndex, int numDocs, double[] docNorms, ScoreAccumulator accum, PostingCache postingCache) {
         
-        // creating accumulator for this query to store scores
-        HashMap<Integer, Double> accum = new HashMap<>();
+        // clearing scores left over from the previous query
+        accum.reset();
+        long decoded = 0;
 
         // iterate through each query term at a time
         for(int i = 0; i < tokenIDs.size(); i++) {
-            ArrayList<Integer> posting = invertedIndex.get(tokenIDs.get(i));
-            int termDocs = posting.size() / 2;
+            PostingsCursor posting = invertedIndex.getPosting(tokenIDs.get(i));
+            int termDocs = posting.docFrequency();
 
-            double insideLog = ((double) numDocs - termDocs + 0.5) / (termDocs + 0.5);
+            // idf is over the whole collection, a date segment only has some of the term's docs
+            int collectionDocs = invertedIndex.collectionDocFrequency(tokenIDs.get(i));
+            double insideLog = ((double) numDocs - collectionDocs + 0.5) / (collectionDocs + 0.5);
             double idf = Math.log(insideLog);
 
-            for (int j = 0; j < posting.size() - 1; j += 2) {
-                int docID = posting.get(j);
-                int freq = posting.get(j + 1);
-                int docLength = docLengths.get(docID);
-
-                double lengthRatio = (double) docLength / avgLength;
-                double k = 1.2 * (0.25 + 0.75 * lengthRatio);
-                double tf = (double) freq / (k + freq);
-                double score = tf * idf;
-
-                if(accum.containsKey(docID)) {
-                    double prevScore = accum.get(docID);
-                    double newScore = prevScore + score;
-                    accum.put(docID, newScore);
-                } else {
-                    accum.put(docID, score);
+            // frequent terms are scored once and then read from the posting cache
+            boolean cacheable = postingCache != null && postingCache.caches(termDocs);
+            if (cacheable && postingCache.addTo(tokenIDs.get(i), invertedIndex.generation(), accum)) {
+                continue;
+            }
+            int[] docs = cacheable ? new int[termDocs] : null;
+            double[] scores = cacheable ? new double[termDocs] : null;
+
+            int docID;
+            int p = 0;
+            while ((docID = posting.nextDoc()) != PostingsCursor.NO_MORE_DOCS) {
+                double score = termScore(posting.freq(), docNorms[docID], idf);
+                accum.add(docID, score);
+                if (cacheable) {
+                    docs[p] = docID;
+                    scores[p++] = score;
                 }
             }
+            decoded += posting.decoded();
+            if (cacheable) {
+                postingCache.put(tokenIDs.get(i), invertedIndex.generation(), docs, scores);
+            }
         }
-        return accum;
+        return decoded;
     }
 
-    // takes path and docno and returns string array of date and headline
-    public static String[] getMetadata(String docno, String indexPath) {
-        // take DOCNO, extract date
-        String MM = docno.substring(2, 4);
-        String DD = docno.substring(4, 6);
-        String YY = docno.substring(6, 8);
-
-        // use the date to get metadata and read in each line to its respective variable
-        File metadata = new File(indexPath + "/" + YY + "/" + MM + "/" + DD + "/METADATA/" + docno + ".txt");
-        String date = "";
-        String headline = "";
-        if (!metadata.canRead()) {
-            System.out.println("Cannot read metadata file.");
-        } else {
-            try {
-                Scanner inputMeta = new Scanner(metadata);
-                String readDocno = inputMeta.nextLine().trim();
-                String readInternalID = inputMeta.nextLine().trim();
-                readDocno = readDocno + readInternalID;
-                date = inputMeta.nextLine().trim();
-                if(inputMeta.hasNextLine()) {
-                    headline = inputMeta.nextLine().trim();
-                } else {
-                    headline = ""; 
-                }
-                
-                inputMeta.close();
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
+    // BM25 retrieval over an impact index (see ImpactIndexer), fills the accumulator with the sum of the quantized scores of each
+    // doc. every posting is one integer subtraction and add, sums stay exact integers in the double accumulator. returns the number
+    // of postings decoded
+    public static long impactRetrieval (ArrayList<Integer> tokenIDs, InvertedIndex impactIndex, ScoreAccumulator accum) {
+        accum.reset();
+        long decoded = 0;
+        int bias = impactIndex.impactBias();
+        for (int i = 0; i < tokenIDs.size(); i++) {
+            PostingsCursor posting = impactIndex.getPosting(tokenIDs.get(i));
+            int docID;
+            while ((docID = posting.nextDoc()) != PostingsCursor.NO_MORE_DOCS) {
+                accum.add(docID, posting.freq() - bias);
             }
+            decoded += posting.decoded();
         }
-        String[] metadataArray = {date, headline};
-        return metadataArray;
+        return decoded;
     }
 
-    // takes docno and path and returns raw document
-    public static String getRawDoc(String indexPath, String docno) {
-        // take DOCNO, extract date
-        String MM = docno.substring(2, 4);
-        String DD = docno.substring(4, 6);
-        String YY = docno.substring(6, 8);
+    // BM25 retrieval with MaxScore pruning, offers scored docs straight to topK and gives the same top k as bm25Retrieval
+    // each query term has an upper bound (idf times its max term weight stored by IndexEngine). terms are ordered by bound, and once
+    // the heap is full the low bound terms whose bounds sum to less than the kth best score become non-essential: a doc that only
+    // contains those terms cannot make the top k. docs are processed in windows of docIDs: the essential lists are scored term at a
+    // time into a small window accumulator, then each doc in the window is looked up in the non-essential lists only while its
+    // score so far plus the bounds left can still beat the threshold, and the survivors get their exact score
+    // returns the number of postings decoded, the postings of the blocks the non-essential lists skip are never decoded
+    public static long maxScoreRetrieval (ArrayList<Integer> tokenIDs, InvertedIndex invertedIndex, int numDocs, double[] docNorms, TopK topK) {
+        int numTerms = tokenIDs.size();
+        PostingsCursor[] cursors = new PostingsCursor[numTerms];
+        double[] idfs = new double[numTerms];
+        double[] bounds = new double[numTerms];
+        Integer[] byBound = new Integer[numTerms];
+
+        for (int i = 0; i < numTerms; i++) {
+            int termID = tokenIDs.get(i);
+            cursors[i] = invertedIndex.getPosting(termID);
+            idfs[i] = idf(invertedIndex.collectionDocFrequency(termID), numDocs);
+
+            // a term with negative idf can only lower a score, so leaving it out is its best case
+            bounds[i] = Math.max(0, idfs[i] * invertedIndex.maxTermWeight(termID));
+            byBound[i] = i;
+            cursors[i].nextDoc();
+        }
 
-        // use YY, MM, DD and DOCNO and return raw document
-        File doc = new File(indexPath + "/" + YY + "/" + MM + "/" + DD + "/DOCUMENT/" + docno + ".txt");
-        String rawDoc = "";
-        if (!doc.canRead()) {
-            System.out.println("Cannot read raw document file.");
-        } else {
-            try {
-                Scanner inputDoc = new Scanner(doc);
-                rawDoc += inputDoc.nextLine();
-                while (inputDoc.hasNextLine()) {
-                    String line = inputDoc.nextLine();
-                    rawDoc += "\n" + line;
+        // sort terms by bound ascending and sum the bounds so cumulative[j] bounds a doc containing only the first j + 1 terms
+        Arrays.sort(byBound, (a, b) -> Double.compare(bounds[a], bounds[b]));
+        int[] order = new int[numTerms];
+        int[] rank = new int[numTerms];
+        double[] cumulative = new double[numTerms];
+        double running = 0;
+        for (int j = 0; j < numTerms; j++) {
+            order[j] = byBound[j];
+            rank[order[j]] = j;
+            running += bounds[order[j]];
+            cumulative[j] = running;
+        }
+
+        // terms ranked below firstEssential are non-essential
+        int firstEssential = 0;
+
+        // window accumulator: partial score from the essential terms and the freq of each query term for every doc in the window
+        int windowSize = MAXSCORE_WINDOW;
+        double[] windowScores = new double[windowSize];
+        int[] windowFreqs = new int[windowSize * numTerms];
+        boolean[] windowHit = new boolean[windowSize];
+        int[] hits = new int[windowSize];
+
+        int base = PostingsCursor.NO_MORE_DOCS;
+        for (int i = 0; i < numTerms; i++) {
+            base = Math.min(base, cursors[i].docID());
+        }
+
+        while (base != PostingsCursor.NO_MORE_DOCS) {
+            int end = (int) Math.min((long) base + windowSize, PostingsCursor.NO_MORE_DOCS);
+
+            // score the essential lists over the window
+            int numHits = 0;
+            for (int j = firstEssential; j < numTerms; j++) {
+                int i = order[j];
+                PostingsCursor cursor = cursors[i];
+                int docID = cursor.docID();
+                while (docID < end) {
+                    int offset = docID - base;
+                    if (!windowHit[offset]) {
+                        windowHit[offset] = true;
+                        hits[numHits++] = offset;
+                    }
+                    windowScores[offset] += termScore(cursor.freq(), docNorms[docID], idfs[i]);
+                    windowFreqs[offset * numTerms + i] = cursor.freq();
+                    docID = cursor.nextDoc();
                 }
-                inputDoc.close();
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
             }
-        }
-        return rawDoc;
-    }
 
-    // removes all XML tags from a doc, but does not remove spaces or empty lines
-    public static String removeTags(String rawDoc) {
-        int index = 0;
-        String doc = "";
-        if (rawDoc.indexOf("<") >= 0) {
-            // takes substrings between > and < characters to remove XML tags
-            while (index < rawDoc.length()) {
-                doc += rawDoc.substring(index, rawDoc.indexOf("<", index));
-                index = rawDoc.indexOf(">", index) + 1;
+            // the non-essential lists can only move forward, so the hit docs are visited in docID order, by sorting the few hits
+            // of a sparse window or by reading the hit flags of a dense one
+            if (numHits < windowSize / 8) {
+                Arrays.sort(hits, 0, numHits);
+            } else {
+                numHits = 0;
+                for (int offset = 0; offset < end - base; offset++) {
+                    if (windowHit[offset]) {
+                        hits[numHits++] = offset;
+                    }
+                }
+            }
+            for (int h = 0; h < numHits; h++) {
+                int offset = hits[h];
+                int candidate = base + offset;
+                double docNorm = docNorms[candidate];
+
+                // look the candidate up in the non-essential lists from the highest bound down, giving up as soon as the score
+                // so far plus the bounds left (the block the candidate falls in for the next list, whole lists after it) can no
+                // longer beat the kth best score
+                double partialScore = windowScores[offset];
+                boolean competitive = true;
+                for (int j = firstEssential - 1; j >= 0 && competitive; j--) {
+                    int i = order[j];
+                    double rest = (j == 0) ? 0 : cumulative[j - 1];
+                    double blockBound = Math.max(0, idfs[i] * cursors[i].blockMaxWeight(candidate));
+                    if (cannotBeat(partialScore + blockBound + rest, topK.threshold())) {
+                        competitive = false;
+                    } else if (cursors[i].advance(candidate) == candidate) {
+                        partialScore += termScore(cursors[i].freq(), docNorm, idfs[i]);
+                    }
+                }
+
+                if (competitive) {
+                    // sum over every matching term in query order so the score is exactly the one bm25Retrieval gives
+                    double score = 0;
+                    for (int i = 0; i < numTerms; i++) {
+                        int freq = (rank[i] >= firstEssential) ? windowFreqs[offset * numTerms + i]
+                                : (cursors[i].docID() == candidate ? cursors[i].freq() : 0);
+                        if (freq > 0) {
+                            score += termScore(freq, docNorm, idfs[i]);
+                        }
+                    }
+                    topK.offer(candidate, score);
+                }
+
+                // clearing the window slot for the next window
+                windowHit[offset] = false;
+                windowScores[offset] = 0;
+                for (int i = 0; i < numTerms; i++) {
+                    windowFreqs[offset * numTerms + i] = 0;
+                }
+            }
+
+            // a higher threshold may turn more low bound terms non-essential
+            if (topK.isFull()) {
+                while (firstEssential < numTerms && cannotBeat(cumulative[firstEssential], topK.threshold())) {
+                    firstEssential++;
+                }
+            }
+
+            // next window starts at the smallest docID left in an essential list
+            base = PostingsCursor.NO_MORE_DOCS;
+            for (int j = firstEssential; j < numTerms; j++) {
+                base = Math.min(base, cursors[order[j]].docID());
             }
         }
-        return doc;
+        return decoded(cursors);
     }
 
-    // takes doc as input and splits into sentences, yet to be fleshed out
-    public static ArrayList<String> toSentences(String rawDoc, boolean noHeadline) {
-        String outputDoc = "";
-
-        if(noHeadline) {
-            // remove tags
-            outputDoc = removeTags(rawDoc);
+    // BM25 retrieval for a query with quoted phrases (see PhraseQuery), offers every doc that matches all of them straight to topK
+    // candidates are found document at a time by leapfrogging the positional lists of the phrase words, rarest first, so the work
+    // follows the rarest word rather than every posting of the common ones. the phrases are then checked on the positions of the
+    // candidate, and a doc matching all of them is scored as bm25Retrieval would score it plus, for each phrase, a term score with
+    // the number of matches as its count and the sum of its words' idfs as its idf. returns the number of postings decoded
+    public static long phraseRetrieval (ArrayList<Integer> tokenIDs, ArrayList<PhraseQuery> phrases, InvertedIndex invertedIndex, int numDocs, double[] docNorms, TopK topK) {
+        // the distinct phrase words, each phrase word pointing at its slot
+        ArrayList<Integer> phraseTerms = new ArrayList<>();
+        int[][] slots = new int[phrases.size()][];
+        double[] phraseIdfs = new double[phrases.size()];
+        for (int p = 0; p < phrases.size(); p++) {
+            PhraseQuery phrase = phrases.get(p);
+            if (phrase.matchesNothing) {
+                return 0;
+            }
+            slots[p] = new int[phrase.termIDs.length];
+            for (int i = 0; i < phrase.termIDs.length; i++) {
+                int slot = phraseTerms.indexOf(phrase.termIDs[i]);
+                if (slot < 0) {
+                    slot = phraseTerms.size();
+                    phraseTerms.add(phrase.termIDs[i]);
+                }
+                slots[p][i] = slot;
+                phraseIdfs[p] += idf(invertedIndex.collectionDocFrequency(phrase.termIDs[i]), numDocs);
+            }
+        }
 
-            //remove newlines
-            outputDoc = outputDoc.replaceAll("\\s+", " ");
-            outputDoc = outputDoc.trim();
+        int numSlots = phraseTerms.size();
+        PostingsCursor[] positional = new PostingsCursor[numSlots];
+        Integer[] byDocFrequency = new Integer[numSlots];
+        int[][] positions = new int[numSlots][16];
+        int[] counts = new int[numSlots];
+        for (int s = 0; s < numSlots; s++) {
+            positional[s] = invertedIndex.getPositions(phraseTerms.get(s));
+            byDocFrequency[s] = s;
+        }
+        Arrays.sort(byDocFrequency, (a, b) -> Integer.compare(positional[a].docFrequency(), positional[b].docFrequency()));
+
+        // plain cursors for scoring the query terms in the docs that match
+        PostingsCursor[] cursors = new PostingsCursor[tokenIDs.size()];
+        double[] idfs = new double[tokenIDs.size()];
+        for (int i = 0; i < tokenIDs.size(); i++) {
+            cursors[i] = invertedIndex.getPosting(tokenIDs.get(i));
+            idfs[i] = idf(invertedIndex.collectionDocFrequency(tokenIDs.get(i)), numDocs);
+        }
 
-            // remove first 50 characters as they are in headline now
-            outputDoc = outputDoc.substring(50);
-        } else {
-            // removing docno, date, length, and headline (if headline exists)
-            if(rawDoc.indexOf("</HEADLINE>") != -1) {
-                rawDoc = rawDoc.substring(rawDoc.indexOf("</HEADLINE>") + 11);
+        PostingsCursor rarest = positional[byDocFrequency[0]];
+        int candidate = rarest.nextDoc();
+        while (candidate != PostingsCursor.NO_MORE_DOCS) {
+            // move the other lists up to the candidate, a list that skips past it gives the next candidate
+            boolean agreed = true;
+            for (int j = 1; j < numSlots && agreed; j++) {
+                int docID = positional[byDocFrequency[j]].advance(candidate);
+                if (docID != candidate) {
+                    candidate = rarest.advance(docID);
+                    agreed = false;
+                }
+            }
+            if (!agreed) {
+                continue;
+            }
 
-            } else if(rawDoc.indexOf("</LENGTH>") != -1) {
-                rawDoc = rawDoc.substring(rawDoc.indexOf("</LENGTH>") + 9);
+            for (int s = 0; s < numSlots; s++) {
+                positions[s] = positional[s].positions(positions[s]);
+                counts[s] = positional[s].freq();
+            }
+            double docNorm = docNorms[candidate];
+            double phraseScore = 0;
+            boolean matched = true;
+            for (int p = 0; p < phrases.size() && matched; p++) {
+                int matches = phrases.get(p).matches(positions, counts, slots[p]);
+                matched = matches > 0;
+                phraseScore += termScore(matches, docNorm, phraseIdfs[p]);
             }
 
-            // remove tags from doc
-            outputDoc = removeTags(rawDoc);
+            if (matched) {
+                double score = 0;
+                for (int i = 0; i < cursors.length; i++) {
+                    if (cursors[i].advance(candidate) == candidate) {
+                        score += termScore(cursors[i].freq(), docNorm, idfs[i]);
+                    }
+                }
+                topK.offer(candidate, score + phraseScore);
+            }
+            candidate = rarest.nextDoc();
+        }
+        return decoded(positional) + decoded(cursors);
+    }
 
-            //remove newlines
-            outputDoc = outputDoc.replaceAll("\\s+", " ");
+    // BM25 retrieval restricted to the docs matching a boolean query, offers them straight to topK with the BM25 score of the
+    // query's scored terms (its words that are not negated). matching docs come from a BooleanCursor, so an AND only walks about
+    // as many postings as its rarest list has, and the lists of scored terms a match may lack are only advanced to the matches
+    // returns the number of postings decoded
+    public static long booleanRetrieval (ArrayList<Integer> tokenIDs, BooleanQuery booleanQuery, InvertedIndex invertedIndex, int numDocs, double[] docNorms, TopK topK) {
+        BooleanCursor matches = new BooleanCursor(booleanQuery, invertedIndex);
+
+        // terms every match has are read from the matching cursors, which already sit on the doc, the others get their own
+        PostingsCursor[] cursors = new PostingsCursor[tokenIDs.size()];
+        PostingsCursor[] own = new PostingsCursor[tokenIDs.size()];
+        double[] idfs = new double[tokenIDs.size()];
+        for (int i = 0; i < tokenIDs.size(); i++) {
+            cursors[i] = matches.requiredTerm(tokenIDs.get(i));
+            if (cursors[i] == null) {
+                cursors[i] = invertedIndex.getPosting(tokenIDs.get(i));
+                own[i] = cursors[i];
+            }
+            idfs[i] = idf(invertedIndex.collectionDocFrequency(tokenIDs.get(i)), numDocs);
         }
 
-        outputDoc = outputDoc.replaceAll("[.!?]", "$0|||");
-        String[] sentences = outputDoc.split("\\|\\|\\|");
-        ArrayList<String> sentenceList = new ArrayList<>();
+        int docID;
+        while ((docID = matches.nextDoc()) != PostingsCursor.NO_MORE_DOCS) {
+            double score = 0;
+            for (int i = 0; i < cursors.length; i++) {
+                if (cursors[i].advance(docID) == docID) {
+                    score += termScore(cursors[i].freq(), docNorms[docID], idfs[i]);
+                }
+            }
+            topK.offer(docID, score);
+        }
+        return matches.decoded() + decoded(own);
+    }
 
-        // iterate through each sentence string and tokenize into arraylist of word strings
-        for(String s : sentences) {
-            s = s.trim();
-            if(!s.equals("")) {
-                sentenceList.add(s);
+    // BM25 retrieval over the date segments of a range, each ranked on its own in parallel into a top k of its own, which are
+    // merged into topK. docs of the other months are never looked at. segments share docIDs and idfs with the whole index, so the
+    // merged top k is exactly the whole index's top k of the docs in the range. segments only hold counts, so the impact mode ranks
+    // them exhaustively and quoted phrases count as ordinary words. returns the number of postings decoded in every segment
+    public static long segmentRetrieval (ArrayList<Integer> tokenIDs, BooleanQuery booleanQuery, ArrayList<InvertedIndex> selected, SegmentedIndex segments, int numDocs, double[] docNorms, String mode, TopK topK) {
+        String segmentMode = mode.equals("impact") ? "exhaustive" : mode;
+        int depth = topK.capacity();
+        int[][] segmentDocs = new int[selected.size()][depth];
+        double[][] segmentScores = new double[selected.size()][depth];
+        int[] numRanked = new int[selected.size()];
+        long[][] decoded = new long[selected.size()][1];
+        // on a single core the segments are ranked one after the other, splitting the work would only add hand offs
+        IntStream range = IntStream.range(0, selected.size());
+        if (selected.size() > 1 && Runtime.getRuntime().availableProcessors() > 1) {
+            range = range.parallel();
+        }
+        range.forEach(s -> {
+            numRanked[s] = rank(tokenIDs, null, booleanQuery, null, selected.get(s), null, numDocs, docNorms, segments.accumulator(), new TopK(depth), segmentMode, null, null, null, segmentDocs[s], segmentScores[s], decoded[s]);
+        });
+        long total = 0;
+        for (int s = 0; s < selected.size(); s++) {
+            for (int r = 0; r < numRanked[s]; r++) {
+                topK.offer(segmentDocs[s][r], segmentScores[s][r]);
             }
+            total += decoded[s][0];
         }
-        return sentenceList;
-    } 
+        return total;
+    }
 
-    // takes doc and query and returns query based snippet
-    public static String snippetEngine(String rawDoc, ArrayList<Integer> queryIDs, HashMap<String, Integer> lexicon, boolean noHeadline) {
+    // BM25 idf of a term in termDocs of the numDocs docs
+    public static double idf (int termDocs, int numDocs) {
+        double insideLog = ((double) numDocs - termDocs + 0.5) / (termDocs + 0.5);
+        return Math.log(insideLog);
+    }
 
-        // take doc and split into sentences
-        ArrayList<String> sentences = toSentences(rawDoc, noHeadline);
+    // true if a doc whose score is at most bound cannot enter the top k. bounds are summed in a different order than real scores,
+    // so they are compared with a small margin to make sure rounding never prunes a doc bm25Retrieval would rank
+    public static boolean cannotBeat (double bound, double threshold) {
+        return bound < threshold - 1e-9 * (1 + Math.abs(threshold));
+    }
 
-        // take these sentences and tokenize, then use lexicon to go from token to id
-        ArrayList<ArrayList<Integer>> sentenceTokenID = new ArrayList<>();
-        for (String s : sentences) {
-            ArrayList<String> sentenceTokens = tokenizer(s);
-            ArrayList<Integer> sentenceIDs = convertTokensToIDs(sentenceTokens, lexicon);
-            sentenceTokenID.add(sentenceIDs);
+    // BM25 score of one term in one doc given the doc's length normalization from buildDocNorms, shared by every retrieval mode
+    public static double termScore (int freq, double docNorm, double idf) {
+        double tf = (double) freq / (docNorm + freq);
+        return tf * idf;
+    }
+
+    // takes the doc store and a docID and returns string array of date and headline
+    public static String[] getMetadata(int docID, DocumentStore documents) {
+        try {
+            return documents.getMetadata(docID);
+        } catch (IOException e) {
+            e.printStackTrace();
+            String[] metadataArray = {"", ""};
+            return metadataArray;
         }
+    }
+
+    // takes the doc store and a docID and returns raw document
+    public static String getRawDoc(DocumentStore documents, int docID) {
+        try {
+            return documents.getRawDoc(docID);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return "";
+        }
+    }
+
+    // takes a parsed doc and query and returns query based snippet, the doc's sentences are split and tokenized by IndexEngine
+    // so scoring is one pass over each sentence's term ids with a hashed lookup of each in the query terms
+    public static String snippetEngine(ParsedDocument document, ArrayList<Integer> queryIDs) {
+        String[] sentences = document.sentences;
+        QueryTermSet queryTerms = new QueryTermSet(queryIDs);
 
         // score sentences based on query
         ArrayList<Integer> sentenceScores = new ArrayList<>();
-        for(int i = 0; i < sentenceTokenID.size(); i++) {
-            ArrayList<Integer> sentenceID = sentenceTokenID.get(i);
+        for(int i = 0; i < document.sentenceIDs.length; i++) {
+            int[] sentenceID = document.sentenceIDs[i];
             
             // score for first or second sentence
             int l = 0;
@@ -384,51 +813,34 @@ public class BM25SearchEngine {
             int c = 0;
             // score for longest continuous string of query terms
             int s = 0;
+            // score for distinct query terms in sentence, a term the query repeats counts once per repeat
+            int d = 0;
 
-            for(int j = 0; j < sentenceID.size(); j++) {
-                int sToken = sentenceID.get(j);
-                if(queryIDs.contains(sToken)) {
-                    c += 1;
-
-                    if(s == 0) {
-                        s = 1;
-                    }
-
-                    // is next term a query term
-                    int m = j + 1;
-                    int n = 1;
-                    while(m < sentenceID.size()) {
-                        if(!queryIDs.contains(sentenceID.get(m))) {
-                            break;
-                        }
-                        n += 1;
-                        if (n > s) {
-                            s = n;
-                        }
-                        m += 1;
-                    }
+            int run = 0;
+            for(int j = 0; j < sentenceID.length; j++) {
+                int slot = queryTerms.slot(sentenceID[j]);
+                if(slot < 0) {
+                    run = 0;
+                    continue;
                 }
-            }
-
-            // score for distinct query terms in sentence
-            int d = 0;
-            for(int q : queryIDs) {
-                if(sentenceID.contains(q)) {
-                    d += 1;
+                c += 1;
+                run += 1;
+                if (run > s) {
+                    s = run;
+                }
+                if (queryTerms.stamp(slot, i + 1)) {
+                    d += queryTerms.count(slot);
                 }
             }
 
             // sum all scores and store in sentenceScores
             sentenceScores.add(l + c + s + d);
-
-            // testing
-            //System.out.println("Sentence " + i + ": l = " + l + ", c = " + c + ", s = " + s + ", d = " + d + ", Total Score = " + l + c + s + d);
         }
 
         // if just one sentence, return it
-        if(sentences.size() == 1) {
+        if(sentences.length == 1) {
             //System.out.println("Only one sentence, returning it");
-            return sentences.get(0);
+            return sentences[0];
         } else {
             int highest = 0;
             int second = 1;
@@ -445,81 +857,59 @@ public class BM25SearchEngine {
             }
             if(highest == second) {
                 //System.out.println("Highest = Second, sentence: " + highest);
-                return sentences.get(highest);
+                return sentences[highest];
             } else {
                 //System.out.println("Two sentences returned: " + highest + " and " + second);
-                return sentences.get(highest) + " ... " + sentences.get(second);
+                return sentences[highest] + " ... " + sentences[second];
             }
             
         }
     }
 
-    public static void performSearch(Scanner scanner, String indexPath, int numDocs, double avgLength, HashMap<String, Integer> lexicon, HashMap<Integer, ArrayList<Integer>> invertedIndex, ArrayList<String> docnos, ArrayList<Integer> docLengths) {
+    public static void performSearch(Scanner scanner, DocumentStore documents, SentenceIndex sentences, int numDocs, TermDictionary lexicon, InvertedIndex invertedIndex, SegmentedIndex segments, ArrayList<String> docnos, double[] docNorms, ScoreAccumulator accum, TopK topK, String mode, ResultCache resultCache, PostingCache postingCache, DocumentCache documentCache, SearchMetrics metrics) {
         System.out.println("Please enter a query. When you have finished typing, hit enter to search! :)");
         String query = scanner.nextLine();
         System.out.println();
         
-        long start = System.currentTimeMillis();
-        ArrayList<String> tokens = tokenizer(query);
-        ArrayList<Integer> tokenIDs = convertTokensToIDs(tokens, lexicon);
-
-        // run BM25 retrieval and returned un-ordered map of all relevant docs with scores
-        HashMap<Integer, Double> accum = bm25Retrieval(tokenIDs, invertedIndex, numDocs, avgLength, docLengths);
-
-        // creating a map ordered by score descending for output (https://howtodoinjava.com/java/sort/java-sort-map-by-values/)
-        List<Map.Entry<Integer, Double>> sorted = new ArrayList<>(accum.entrySet());
+        QueryEvent event = new QueryEvent();
+        event.begin();
+        long start = System.nanoTime();
+        Tokenizer tokenizer = new Tokenizer();
+        DateRange dates = DateRange.parse(query);
+        String words = DateRange.strip(query);
+        BooleanQuery booleanQuery = mode.equals("boolean") ? BooleanQuery.parse(words, lexicon, invertedIndex, tokenizer) : null;
+        ArrayList<Integer> tokenIDs = (booleanQuery != null) ? booleanQuery.scoredTerms() : queryToIDs(words, lexicon, invertedIndex, tokenizer);
+        ArrayList<PhraseQuery> phrases = PhraseQuery.parse(words, lexicon, tokenizer);
+        metrics.record(SearchMetrics.PARSE, System.nanoTime() - start);
+
+        int[] rankedDocs = new int[topK.capacity()];
+        double[] rankedScores = new double[topK.capacity()];
+        if (dates == null && DateRange.hasFilter(query)) {
+            System.out.println("The date range is not valid, months go from 01 to 12 and a range cannot end before it starts. Searching every date instead.");
+            System.out.println();
+        } else if (dates != null && segments == null) {
+            System.out.println("Date ranges need the date segments, please run SegmentIndexer. Searching every date instead.");
+            System.out.println();
+        }
+        long[] postings = new long[1];
+        int numRanked = rank(tokenIDs, phrases, booleanQuery, dates, invertedIndex, segments, numDocs, docNorms, accum, topK, mode, resultCache, postingCache, metrics, rankedDocs, rankedScores, postings);
 
-        sorted.sort(Map.Entry.comparingByValue(Comparator.reverseOrder()));
+        ArrayList<Integer> top10DocIDs = new ArrayList<>();
 
-        ArrayList<String> top10Docno = new ArrayList<>();
+        // the top k docs are parsed in parallel, or taken from the document cache, before printing
+        String[][] summaries = resultSummaries(sentences, rankedDocs, numRanked, tokenIDs, documentCache, invertedIndex.generation(), true, metrics);
 
-        // iterating through top 10 results and ouputting to result file 
+        // iterating through top k results and ouputting to result file 
         int rank = 1;
-        for (Map.Entry<Integer, Double> result : sorted) {
-            int docID = result.getKey();
+        for (int r = 0; r < numRanked; r++) {
+            int docID = rankedDocs[r];
             String docno = docnos.get(docID);
-            top10Docno.add(docno);
-
-            // get raw document
-            String rawDoc = getRawDoc(indexPath, docno);
-
-            // removing tags from rawDoc for output purposes (not necessary)
-            // String outputDoc = removeTags(rawDoc);
-
-            // get metadata
-            String[] metadata = getMetadata(docno, indexPath);
-            String date = metadata[0];
-            String headline = metadata[1];
-            String snippet = "";
-
-            // if headline is empty string make it first 50 char of doc from text or graphic
-            if(headline.equals("")) {
-                // remove first sections if they exist
-                if(rawDoc.indexOf("</LENGTH>") != -1) {
-                    rawDoc = rawDoc.substring(rawDoc.indexOf("</LENGTH>") + 9);
-                } else if(rawDoc.indexOf("</SECTION>") != -1) {
-                    rawDoc = rawDoc.substring(rawDoc.indexOf("</SECTION>") + 10);
-                } else if(rawDoc.indexOf("</DATE>") != -1) {
-                    rawDoc = rawDoc.substring(rawDoc.indexOf("</DATE>") + 7);
-                } else if(rawDoc.indexOf("</DOCID>") != -1) {
-                    rawDoc = rawDoc.substring(rawDoc.indexOf("</DOCID>") + 9);
-                }
-
-                // remove tags
-                String outputDoc = removeTags(rawDoc);
-
-                //remove newlines
-                outputDoc = outputDoc.replaceAll("\\s+", " ");
-                outputDoc = outputDoc.trim();
-
-                // output first 50 characters, these won't be included in snippet engine
-                headline = outputDoc.substring(0, 50);
-                snippet = snippetEngine(rawDoc, tokenIDs, lexicon, true);
-                
-            } else {
-                snippet = snippetEngine(rawDoc, tokenIDs, lexicon, false);
-            }
+            top10DocIDs.add(docID);
 
+            String[] summary = summaries[r];
+            String headline = summary[0];
+            String date = summary[1];
+            String snippet = summary[2];
 
             // output doc details to console
             System.out.println(rank + ". " + headline + " (" + date + ")");
@@ -527,41 +917,192 @@ public class BM25SearchEngine {
             System.out.println();
             
             rank++;
-            if(rank == 11) {
-                break;
-            }
         }
-        long end = System.currentTimeMillis();
-        double time = (double) (end - start) / 1000;
+        long end = System.nanoTime();
+        metrics.record(SearchMetrics.TOTAL, end - start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.query = query;
+            event.mode = mode;
+            event.terms = tokenIDs.size();
+            event.postings = postings[0];
+            event.results = numRanked;
+            event.commit();
+        }
+        double time = (double) ((end - start) / 1000000) / 1000;
         System.out.println("Retrieval took " + time + " seconds.");
 
         // take in command of what to do next
-        System.out.println("If you would like to see any of the documents, enter its result number. You can also type N for a new query or Q for quit.");
-        takeCommand(scanner, indexPath, numDocs, avgLength, lexicon, invertedIndex, docnos, docLengths, top10Docno);
+        System.out.println("If you would like to see any of the documents, enter its result number. You can also type N for a new query, M for query metrics or Q for quit.");
+        takeCommand(scanner, documents, sentences, numDocs, lexicon, invertedIndex, segments, docnos, docNorms, accum, topK, mode, resultCache, postingCache, documentCache, metrics, top10DocIDs);
+    }
+
+    // runs BM25 retrieval for the query term ids and fills rankedDocs and rankedScores best first, returning the number of results
+    // either pruned document at a time straight into the top k heap, or exhaustively into the accumulator and then selecting the
+    // top k docs with the bounded heap instead of sorting every scored doc. the impact mode needs invertedIndex to be the impact
+    // index and ranks by quantized scores
+    // term ids are sorted first so the score sums, and so the ranking, only depend on which terms a query has, which lets the
+    // result cache (null to skip it) share entries between reorderings of a query
+    // retrieval and top k times go to metrics (null to skip them), for maxscore the heap is filled during retrieval so only the
+    // final drain counts as top k
+    // quoted phrases (null or empty for none) are only enforced when the index has positions, see phraseRetrieval, otherwise
+    // their words count as ordinary query words. the boolean mode needs the parsed booleanQuery (null in every other mode) and
+    // ranks only the docs matching it, see booleanRetrieval, tokenIDs are then its scored terms
+    // a date range (null for none) restricts ranking to the date segments of its months, see segmentRetrieval, it is ignored when
+    // segments is null
+    // the number of postings decoded goes to metrics and to postings[0] (null to skip it), none are for a query answered from the
+    // result cache or for the scored lists read from the posting cache
+    // accum and topK are the only state written, so queries can run at once as long as each thread has its own pair
+    public static int rank(ArrayList<Integer> tokenIDs, ArrayList<PhraseQuery> phrases, BooleanQuery booleanQuery, DateRange dates, InvertedIndex invertedIndex, SegmentedIndex segments, int numDocs, double[] docNorms, ScoreAccumulator accum, TopK topK, String mode, ResultCache resultCache, PostingCache postingCache, SearchMetrics metrics, int[] rankedDocs, double[] rankedScores, long[] postings) {
+        ArrayList<Integer> sortedIDs = new ArrayList<>(tokenIDs);
+        Collections.sort(sortedIDs);
+        boolean ranged = dates != null && segments != null;
+        boolean phrased = phrases != null && !phrases.isEmpty() && invertedIndex.hasPositions() && !mode.equals("boolean") && !ranged;
+
+        String key = null;
+        if (resultCache != null) {
+            String variant = phrased ? mode + PhraseQuery.key(phrases) : mode.equals("boolean") ? mode + booleanQuery.key() : mode;
+            key = ResultCache.key(sortedIDs, ranged ? variant + " " + dates.key() : variant, topK.capacity());
+            int cached = resultCache.get(key, invertedIndex.generation(), rankedDocs, rankedScores);
+            if (cached >= 0) {
+                if (metrics != null) {
+                    metrics.countCachedQuery();
+                }
+                if (postings != null) {
+                    postings[0] = 0;
+                }
+                return cached;
+            }
+        }
+
+        long start = System.nanoTime();
+        topK.clear();
+        long decoded;
+        if (ranged) {
+            decoded = segmentRetrieval(sortedIDs, booleanQuery, segments.select(dates), segments, numDocs, docNorms, mode, topK);
+        } else if (phrased) {
+            decoded = phraseRetrieval(sortedIDs, phrases, invertedIndex, numDocs, docNorms, topK);
+        } else if (mode.equals("boolean")) {
+            decoded = booleanRetrieval(sortedIDs, booleanQuery, invertedIndex, numDocs, docNorms, topK);
+        } else if (mode.equals("impact")) {
+            decoded = impactRetrieval(sortedIDs, invertedIndex, accum);
+        } else if (mode.equals("maxscore")) {
+            decoded = maxScoreRetrieval(sortedIDs, invertedIndex, numDocs, docNorms, topK);
+        } else {
+            decoded = bm25Retrieval(sortedIDs, invertedIndex, numDocs, docNorms, accum, postingCache);
+        }
+        long retrieved = System.nanoTime();
+
+        if (!ranged && !phrased && !mode.equals("maxscore") && !mode.equals("boolean")) {
+            topK.offerAll(accum);
+        }
+        int numRanked = topK.drain(rankedDocs, rankedScores);
+        if (!ranged && !phrased && mode.equals("impact")) {
+            // impact sums are ranked as they are and scaled to BM25 units afterwards
+            for (int r = 0; r < numRanked; r++) {
+                rankedScores[r] *= invertedIndex.impactStep();
+            }
+        }
+
+        if (metrics != null) {
+            metrics.record(SearchMetrics.RETRIEVE, retrieved - start);
+            metrics.record(SearchMetrics.TOP_K, System.nanoTime() - retrieved);
+            metrics.countPostings(decoded);
+        }
+        if (postings != null) {
+            postings[0] = decoded;
+        }
+
+        if (resultCache != null) {
+            resultCache.put(key, invertedIndex.generation(), rankedDocs, rankedScores, numRanked);
+        }
+        return numRanked;
+    }
+
+    // number of postings the cursors decoded, null cursors are skipped
+    public static long decoded(PostingsCursor[] cursors) {
+        long decoded = 0;
+        for (PostingsCursor cursor : cursors) {
+            if (cursor != null) {
+                decoded += cursor.decoded();
+            }
+        }
+        return decoded;
+    }
+
+    // returns the headline, date and query based snippet shown for a result, recording the fetch and snippet times in metrics
+    // (null to skip them)
+    public static String[] resultSummary(SentenceIndex sentences, int docID, ArrayList<Integer> tokenIDs, DocumentCache documentCache, long indexGeneration, SearchMetrics metrics) {
+        long start = System.nanoTime();
+        ParsedDocument document = parsedDocument(sentences, docID, documentCache, indexGeneration);
+        long fetched = System.nanoTime();
+        String snippet = snippetEngine(document, tokenIDs);
+        if (metrics != null) {
+            metrics.record(SearchMetrics.FETCH, fetched - start);
+            metrics.record(SearchMetrics.SNIPPET, System.nanoTime() - fetched);
+        }
+        String[] summary = {document.headline, document.date, snippet};
+        return summary;
+    }
+
+    // returns the headline, date and snippet of the first numRanked ranked docs. with prefetch the docs missing from the cache are
+    // read in parallel, so rendering waits for the slowest doc rather than the sum of them
+    public static String[][] resultSummaries(SentenceIndex sentences, int[] rankedDocs, int numRanked, ArrayList<Integer> tokenIDs, DocumentCache documentCache, long indexGeneration, boolean prefetch, SearchMetrics metrics) {
+        String[][] summaries = new String[numRanked][];
+        IntStream ranks = IntStream.range(0, numRanked);
+        if (prefetch) {
+            ranks = ranks.parallel();
+        }
+        ranks.forEach(r -> summaries[r] = resultSummary(sentences, rankedDocs[r], tokenIDs, documentCache, indexGeneration, metrics));
+        return summaries;
+    }
+
+    // returns the parsed doc from the cache (null to always read it), reading it from the sentence index on a miss
+    public static ParsedDocument parsedDocument(SentenceIndex sentences, int docID, DocumentCache documentCache, long indexGeneration) {
+        if (documentCache != null) {
+            ParsedDocument document = documentCache.get(docID, indexGeneration);
+            if (document != null) {
+                return document;
+            }
+        }
+        ParsedDocument document;
+        try {
+            document = sentences.get(docID);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new ParsedDocument("", "", new String[] {""}, new int[][] {new int[0]});
+        }
+        if (documentCache != null) {
+            documentCache.put(docID, indexGeneration, document);
+        }
+        return document;
     }
 
-    public static void takeCommand(Scanner scanner, String indexPath, int numDocs, double avgLength, HashMap<String, Integer> lexicon, HashMap<Integer, ArrayList<Integer>> invertedIndex, ArrayList<String> docnos, ArrayList<Integer> docLengths, ArrayList<String> top10Docno) {
+    public static void takeCommand(Scanner scanner, DocumentStore documents, SentenceIndex sentences, int numDocs, TermDictionary lexicon, InvertedIndex invertedIndex, SegmentedIndex segments, ArrayList<String> docnos, double[] docNorms, ScoreAccumulator accum, TopK topK, String mode, ResultCache resultCache, PostingCache postingCache, DocumentCache documentCache, SearchMetrics metrics, ArrayList<Integer> top10DocIDs) {
         String command = scanner.nextLine();
 
         if(command.matches("-?\\d+(\\.\\d+)?")) {
             int index = Integer.parseInt(command);
-            if(index > 0 && index < 11) {
-                String docno = top10Docno.get(index - 1);
-                String roughDoc = getRawDoc(indexPath, docno);
-                String cleanDoc = removeTags(roughDoc);
+            if(index > 0 && index <= top10DocIDs.size()) {
+                String roughDoc = getRawDoc(documents, top10DocIDs.get(index - 1));
+                String cleanDoc = SentenceIndex.removeTags(roughDoc);
                 System.out.println("Here is the full document:");
                 System.out.println(cleanDoc);
-                System.out.println("If you would like to see another one of the documents, enter its result number. You can also type N for a new query or Q for quit.");
-                takeCommand(scanner, indexPath, numDocs, avgLength, lexicon, invertedIndex, docnos, docLengths, top10Docno);
+                System.out.println("If you would like to see another one of the documents, enter its result number. You can also type N for a new query, M for query metrics or Q for quit.");
+                takeCommand(scanner, documents, sentences, numDocs, lexicon, invertedIndex, segments, docnos, docNorms, accum, topK, mode, resultCache, postingCache, documentCache, metrics, top10DocIDs);
             } else {
-                System.out.println("Please enter a valid document number! You can also type N for a new query or Q for quit.");
-                takeCommand(scanner, indexPath, numDocs, avgLength, lexicon, invertedIndex, docnos, docLengths, top10Docno);
+                System.out.println("Please enter a valid document number! You can also type N for a new query, M for query metrics or Q for quit.");
+                takeCommand(scanner, documents, sentences, numDocs, lexicon, invertedIndex, segments, docnos, docNorms, accum, topK, mode, resultCache, postingCache, documentCache, metrics, top10DocIDs);
             }
+        } else if(command.equals("M")) {
+            System.out.println(metrics.report());
+            System.out.println("Enter a result number to see that document, N for a new query or Q for quit.");
+            takeCommand(scanner, documents, sentences, numDocs, lexicon, invertedIndex, segments, docnos, docNorms, accum, topK, mode, resultCache, postingCache, documentCache, metrics, top10DocIDs);
         } else if(command.equals("N")) {
-            performSearch(scanner, indexPath, numDocs, avgLength, lexicon, invertedIndex, docnos, docLengths);
+            performSearch(scanner, documents, sentences, numDocs, lexicon, invertedIndex, segments, docnos, docNorms, accum, topK, mode, resultCache, postingCache, documentCache, metrics);
         } else if(!command.equals("Q")) {
             System.out.println("Please enter a valid command!");
-            takeCommand(scanner, indexPath, numDocs, avgLength, lexicon, invertedIndex, docnos, docLengths, top10Docno);
+            takeCommand(scanner, documents, sentences, numDocs, lexicon, invertedIndex, segments, docnos, docNorms, accum, topK, mode, resultCache, postingCache, documentCache, metrics, top10DocIDs);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,189 @@
+// Batch BM25 retrieval for a whole TREC topic set, writing a standard run file instead of printing snippets
+// topics are ranked in parallel on a fork join pool, each worker thread reusing its own score accumulator and top k heap, and no
+// raw docs are fetched, so only the lexicon, postings, DOCNOs and doc lengths are loaded. every topic is different, so the result
+// and posting caches are not used
+//
+// the topics file is either standard TREC topics (<top> blocks with <num> and <title>) or alternating lines of topic number and
+// query. each run file line is: topic Q0 DOCNO rank score tag
+//
+// TO RUN:
+// java BatchSearch "/path/to/latimes-index" "/path/to/topics.txt" "/path/to/results.txt"
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+public class BatchSearch {
+
+    // results per topic, the depth TREC evaluation uses
+    public static final int DEFAULT_DEPTH = 1000;
+
+    public static final String DEFAULT_TAG = "BM25";
+
+    public static void main(String[] args) {
+        if (args.length < 3 || args.length > 7) {
+            System.out.println("Please provide a path to your latimes-index directory, a topics file and the run file to write. Optionally add the run tag (default " + DEFAULT_TAG + "), the number of results per topic (default " + DEFAULT_DEPTH + "), the retrieval mode, exhaustive (default), maxscore, impact or boolean, and the number of threads (default one per core).");
+            return;
+        }
+        String indexPath = args[0];
+        if (!new File(indexPath).exists()) {
+            System.out.println("Please provide the proper path to the latimes-index file. This directory does not exist.");
+            return;
+        }
+        String tag = (args.length >= 4) ? args[3] : DEFAULT_TAG;
+        int depth = (args.length >= 5) ? Integer.parseInt(args[4]) : DEFAULT_DEPTH;
+        String mode = (args.length >= 6) ? args[5] : "exhaustive";
+        int numThreads = (args.length == 7) ? Integer.parseInt(args[6]) : Runtime.getRuntime().availableProcessors();
+        if (!mode.equals("maxscore") && !mode.equals("exhaustive") && !mode.equals("impact") && !mode.equals("boolean")) {
+            System.out.println("Unknown retrieval mode " + mode + ", please use maxscore, exhaustive, impact or boolean.");
+            return;
+        }
+
+        ArrayList<String[]> topics = readTopics(args[1]);
+        if (topics == null) {
+            return;
+        }
+
+        // only what ranking needs, the doc store is never opened, all of it from one generation of the increments
+        IndexManifest manifest = BM25SearchEngine.readManifest(indexPath);
+        TermDictionary lexicon = BM25SearchEngine.buildLexicon(indexPath, manifest);
+        InvertedIndex invertedIndex = mode.equals("impact") ? BM25SearchEngine.buildImpactIndex(indexPath, manifest) : BM25SearchEngine.buildInvertedIndex(indexPath, manifest);
+        if (lexicon == null || invertedIndex == null) {
+            System.out.println("Could not open the index. Please re-run IndexEngine.");
+            return;
+        }
+        ArrayList<String> docnos = BM25SearchEngine.buildDocnos(indexPath, manifest);
+        double[] docNorms = BM25SearchEngine.buildDocNorms(manifest, BM25SearchEngine.buildDocLengths(indexPath, manifest));
+
+        // date segments are split from the count index, which the impact mode does not open otherwise
+        InvertedIndex collection = mode.equals("impact") ? BM25SearchEngine.buildInvertedIndex(indexPath, manifest) : invertedIndex;
+        SegmentedIndex segments = (collection == null) ? null : BM25SearchEngine.buildSegments(indexPath, manifest, collection, docnos.size());
+
+        long start = System.nanoTime();
+        SearchMetrics metrics = new SearchMetrics();
+        String[] runs = runTopics(topics, lexicon, invertedIndex, segments, docnos, docNorms, depth, mode, tag, numThreads, metrics);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[2]), StandardCharsets.UTF_8), 1 << 16)) {
+            for (String run : runs) {
+                writer.write(run);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.out.printf("Ran %d topics in %.2f seconds (%.1f topics per second).%n", topics.size(), seconds, topics.size() / seconds);
+        System.out.println(metrics.report());
+    }
+
+    // ranks every topic on a fork join pool and returns the run file lines of each topic, in topic order, recording the time of
+    // each stage in metrics (null to skip it). queries with a date range are ranked over segments (null to ignore date ranges)
+    public static String[] runTopics(ArrayList<String[]> topics, TermDictionary lexicon, InvertedIndex invertedIndex, SegmentedIndex segments, ArrayList<String> docnos, double[] docNorms, int depth, String mode, String tag, int numThreads, SearchMetrics metrics) {
+        int numDocs = docnos.size();
+
+        // per worker ranking state, the index itself is read only and shared
+        ThreadLocal<ScoreAccumulator> accumulators = ThreadLocal.withInitial(() -> new ScoreAccumulator(numDocs));
+        ThreadLocal<TopK> heaps = ThreadLocal.withInitial(() -> new TopK(depth));
+
+        String[] runs = new String[topics.size()];
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            pool.submit(() -> IntStream.range(0, topics.size()).parallel().forEach(t -> {
+                String topicID = topics.get(t)[0];
+                QueryEvent event = new QueryEvent();
+                event.begin();
+                long start = System.nanoTime();
+                Tokenizer tokenizer = new Tokenizer();
+                DateRange dates = DateRange.parse(topics.get(t)[1]);
+                String words = DateRange.strip(topics.get(t)[1]);
+                BooleanQuery booleanQuery = mode.equals("boolean") ? BooleanQuery.parse(words, lexicon, invertedIndex, tokenizer) : null;
+                ArrayList<Integer> tokenIDs = (booleanQuery != null) ? booleanQuery.scoredTerms() : BM25SearchEngine.queryToIDs(words, lexicon, invertedIndex, tokenizer);
+                ArrayList<PhraseQuery> phrases = PhraseQuery.parse(words, lexicon, tokenizer);
+                long parsed = System.nanoTime();
+                int[] rankedDocs = new int[depth];
+                double[] rankedScores = new double[depth];
+                long[] postings = new long[1];
+                int numRanked = BM25SearchEngine.rank(tokenIDs, phrases, booleanQuery, dates, invertedIndex, segments, numDocs, docNorms, accumulators.get(), heaps.get(), mode, null, null, metrics, rankedDocs, rankedScores, postings);
+                if (metrics != null) {
+                    metrics.record(SearchMetrics.PARSE, parsed - start);
+                    metrics.record(SearchMetrics.TOTAL, System.nanoTime() - start);
+                }
+                event.end();
+                if (event.shouldCommit()) {
+                    event.query = topics.get(t)[1];
+                    event.mode = mode;
+                    event.terms = tokenIDs.size();
+                    event.postings = postings[0];
+                    event.results = numRanked;
+                    event.commit();
+                }
+
+                StringBuilder run = new StringBuilder(numRanked * 48);
+                for (int r = 0; r < numRanked; r++) {
+                    run.append(topicID).append(" Q0 ").append(docnos.get(rankedDocs[r])).append(' ').append(r + 1).append(' ').append(rankedScores[r]).append(' ').append(tag).append('\n');
+                }
+                runs[t] = run.toString();
+            })).get();
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            pool.shutdown();
+        }
+        return runs;
+    }
+
+    // reads topics as {topic number, query} pairs, from TREC <top> blocks if the file has them and alternating lines otherwise
+    // returns null if the file cannot be read
+    public static ArrayList<String[]> readTopics(String topicsPath) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(Paths.get(topicsPath), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        ArrayList<String[]> topics = new ArrayList<>();
+        String file = String.join("\n", lines);
+        if (file.contains("<top>")) {
+            int top = file.indexOf("<top>");
+            while (top >= 0) {
+                int end = file.indexOf("</top>", top);
+                String block = file.substring(top, end < 0 ? file.length() : end);
+                String number = field(block, "<num>").replace("Number:", "").trim();
+                topics.add(new String[] {number, field(block, "<title>").replace("Topic:", "").trim()});
+                top = file.indexOf("<top>", top + 5);
+            }
+        } else {
+            ArrayList<String> nonEmpty = new ArrayList<>();
+            for (String line : lines) {
+                if (!line.trim().isEmpty()) {
+                    nonEmpty.add(line.trim());
+                }
+            }
+            for (int i = 0; i + 1 < nonEmpty.size(); i += 2) {
+                topics.add(new String[] {nonEmpty.get(i), nonEmpty.get(i + 1)});
+            }
+        }
+        return topics;
+    }
+
+    // text after a TREC topic field tag up to the next tag, fields in topics files are not closed
+    private static String field(String block, String tag) {
+        int start = block.indexOf(tag);
+        if (start < 0) {
+            return "";
+        }
+        start += tag.length();
+        int end = block.indexOf('<', start);
+        return block.substring(start, end < 0 ? block.length() : end).replaceAll("\\s+", " ");
+    }
+}
@@ -0,0 +1,377 @@
+// Microbenchmarks of the indexing and retrieval hot paths, run on a synthetic collection (see SyntheticCorpus) so they need no
+// licensed data. each benchmark runs warmup iterations and then measured iterations of a fixed length, calling one operation as
+// many times as fits, and reports the mean time per operation with its spread across iterations, the same as an average time
+// benchmark in JMH. the result of every operation is folded into a sink that is printed at the end, so the JIT cannot drop work
+// whose result is never used
+//
+// the collection, its positional index, the impact index and the date segments are built in the work directory on the first run and reused afterwards, so runs
+// before and after a change compare the same data. pass a name filter to run only the benchmarks whose name contains it
+//
+// TO RUN:
+// java -Xmx2g Benchmarks "/path/to/work-dir"
+// java -Xmx2g Benchmarks "/path/to/work-dir" 20000 rank.
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+public class Benchmarks {
+
+    public static final int DEFAULT_DOCS = 20000;
+    public static final int WARMUP_ITERATIONS = 5;
+    public static final int MEASURED_ITERATIONS = 5;
+    public static final long ITERATION_NANOS = 1_000_000_000L;
+
+    // queries in each generated query set, cycled through by the ranking benchmarks
+    public static final int QUERIES_PER_SET = 64;
+
+    // results per query, the same as the interactive search engine shows
+    public static final int DEPTH = 10;
+
+    // phrase queries, names the synthetic collection uses, and the window of their proximity form
+    public static final String[] PHRASES = {"los angeles", "tom bradley", "city council", "board of supervisors", "magic johnson", "supreme court"};
+    public static final int PHRASE_WINDOW = 5;
+
+    // one call of the code being measured, returning something derived from its result for the sink
+    public interface Operation {
+        long run() throws IOException;
+    }
+
+    private static long sink = 0;
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 3) {
+            System.out.println("Please provide a work directory for the synthetic collection and its index, and optionally the number of docs (default " + DEFAULT_DOCS + ") and a benchmark name filter.");
+            return;
+        }
+        File workDir = new File(args[0]);
+        int numDocs = (args.length >= 2) ? Integer.parseInt(args[1]) : DEFAULT_DOCS;
+        String filter = (args.length == 3) ? args[2] : "";
+
+        try {
+            run(workDir, numDocs, filter);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // builds whatever is missing from the work directory, then runs every benchmark matching the filter
+    public static void run(File workDir, int numDocs, String filter) throws IOException {
+        workDir.mkdirs();
+        String collectionPath = new File(workDir, "synthetic-" + numDocs + ".gz").getPath();
+        String topicsPath = new File(workDir, "synthetic-" + numDocs + "-topics.txt").getPath();
+        File indexDir = new File(workDir, "synthetic-" + numDocs + "-index");
+        String indexPath = indexDir.getPath();
+
+        if (!new File(collectionPath).exists() || !new File(topicsPath).exists()) {
+            System.out.println("Generating " + numDocs + " synthetic docs.");
+            SyntheticCorpus corpus = new SyntheticCorpus(SyntheticCorpus.DEFAULT_SEED);
+            corpus.writeCollection(collectionPath, numDocs);
+            corpus.writeTopics(topicsPath, SyntheticCorpus.NUM_TOPICS);
+        }
+        if (!new File(indexDir, "inverted-index-dict.bin").exists()) {
+            System.out.println("Indexing the synthetic collection.");
+            indexDir.mkdirs();
+            String threads = String.valueOf(Runtime.getRuntime().availableProcessors());
+            String budget = String.valueOf(Runtime.getRuntime().maxMemory() / 4 / (1024 * 1024));
+            IndexEngine.main(new String[] {collectionPath, indexPath, threads, budget, "deflate", "positions"});
+        }
+        if (!new File(indexDir, "impact-index-dict.bin").exists()) {
+            System.out.println("Writing the impact index.");
+            ImpactIndexer.main(new String[] {indexPath});
+        }
+        if (!new File(indexDir, "segments").exists()) {
+            System.out.println("Writing the date segments.");
+            SegmentIndexer.main(new String[] {indexPath});
+        }
+
+        ArrayList<String> docs = readDocs(collectionPath);
+        IndexManifest manifest = BM25SearchEngine.readManifest(indexPath);
+        TermDictionary lexicon = BM25SearchEngine.buildLexicon(indexPath, manifest);
+        InvertedIndex invertedIndex = BM25SearchEngine.buildInvertedIndex(indexPath, manifest);
+        InvertedIndex impactIndex = BM25SearchEngine.buildImpactIndex(indexPath, manifest);
+        SentenceIndex sentences = BM25SearchEngine.buildSentenceIndex(indexPath, manifest);
+        SegmentedIndex segments = (invertedIndex == null) ? null : BM25SearchEngine.buildSegments(indexPath, manifest, invertedIndex, docs.size());
+        if (lexicon == null || invertedIndex == null || impactIndex == null || sentences == null || segments == null || !invertedIndex.hasPositions()) {
+            System.out.println("Could not open the synthetic index. Please delete " + indexPath + " and run again.");
+            return;
+        }
+        double[] docNorms = BM25SearchEngine.buildDocNorms(manifest, BM25SearchEngine.buildDocLengths(indexPath, manifest));
+        ArrayList<String[]> topics = BatchSearch.readTopics(topicsPath);
+
+        System.out.printf("%-36s %5s %4s %12s    %10s  %s%n", "Benchmark", "Mode", "Cnt", "Score", "Error", "Units");
+        indexingBenchmarks(collectionPath, docs, filter);
+        searchBenchmarks(indexPath, lexicon, invertedIndex, impactIndex, segments, sentences, docNorms, topics, filter);
+        System.out.println("(sink " + sink + ")");
+    }
+
+    // reading, parsing, tokenizing and posting list building, the stages of an IndexEngine worker
+    public static void indexingBenchmarks(String collectionPath, ArrayList<String> docs, String filter) throws IOException {
+        int[] next = {0};
+
+        // the reader is reopened whenever it runs out, which happens once per collection read
+        TrecReader[] reader = {openCollection(collectionPath)};
+        measure("corpus.readDoc", filter, () -> {
+            String doc = reader[0].nextDoc();
+            if (doc == null) {
+                reader[0].close();
+                reader[0] = openCollection(collectionPath);
+                doc = reader[0].nextDoc();
+            }
+            return doc.length();
+        });
+        reader[0].close();
+
+        measure("parse.document", filter, () -> {
+            TrecDocument parsed = TrecDocument.parse(docs.get(next[0]++ % docs.size()));
+            return TrecDocument.clean(parsed.headline()).length() + TrecDocument.clean(parsed.graphic()).length() + TrecDocument.clean(parsed.text()).length() + parsed.docNO().length();
+        });
+
+        // sections are cleaned up front so tokenizing is measured alone, against a lexicon that fills up during warmup
+        ArrayList<String> texts = new ArrayList<>();
+        for (String doc : docs) {
+            TrecDocument parsed = TrecDocument.parse(doc);
+            texts.add(TrecDocument.clean(parsed.headline()) + " " + TrecDocument.clean(parsed.graphic()) + " " + TrecDocument.clean(parsed.text()));
+        }
+        Lexicon lexicon = new Lexicon();
+        Tokenizer tokenizer = new Tokenizer();
+        measure("index.tokenize", filter, () -> {
+            tokenizer.reset();
+            tokenizer.tokenize(texts.get(next[0]++ % texts.size()), lexicon, true);
+            return tokenizer.size();
+        });
+
+        // word counts of every doc up front, posting lists are started over every batch as a worker does
+        ArrayList<HashMap<Integer, Integer>> wordCounts = new ArrayList<>();
+        for (String text : texts) {
+            tokenizer.reset();
+            tokenizer.tokenize(text, lexicon, true);
+            wordCounts.add(IndexEngine.countWords(tokenizer));
+        }
+        ArrayList<EncodedPostings> postings = new ArrayList<>();
+        int[] docID = {0};
+        measure("index.tokenizeAndCount", filter, () -> {
+            tokenizer.reset();
+            tokenizer.tokenize(texts.get(next[0]++ % texts.size()), lexicon, true);
+            return IndexEngine.countWords(tokenizer).size();
+        });
+        measure("index.addToPostings", filter, () -> {
+            if (docID[0] % IndexEngine.BATCH_SIZE == 0) {
+                postings.clear();
+            }
+            IndexEngine.addToPostings(wordCounts.get(docID[0] % wordCounts.size()), docID[0], postings);
+            return postings.size() + docID[0]++;
+        });
+
+        // a whole worker batch, parsing through the doc store record and the sentence index record
+        ArrayList<ArrayList<String>> batches = new ArrayList<>();
+        for (int start = 0; start + IndexEngine.BATCH_SIZE <= docs.size(); start += IndexEngine.BATCH_SIZE) {
+            batches.add(new ArrayList<>(docs.subList(start, start + IndexEngine.BATCH_SIZE)));
+        }
+        measure("index.batch", filter, () -> {
+            int b = next[0]++ % batches.size();
+            return IndexEngine.indexBatch(batches.get(b), b * IndexEngine.BATCH_SIZE, true, false).lexicon.size();
+        });
+    }
+
+    // opening the index, query parsing, ranking in every mode and rendering the results
+    public static void searchBenchmarks(String indexPath, TermDictionary lexicon, InvertedIndex invertedIndex, InvertedIndex impactIndex, SegmentedIndex segments, SentenceIndex sentences, double[] docNorms, ArrayList<String[]> topics, String filter) throws IOException {
+        int numDocs = docNorms.length;
+        int[] next = {0};
+
+        measure("search.openIndex", filter, () -> {
+            InvertedIndex opened = InvertedIndex.open(indexPath);
+            TermDictionary openedLexicon = TermDictionary.open(indexPath);
+            IndexManifest openedManifest = BM25SearchEngine.readManifest(indexPath);
+            double[] norms = BM25SearchEngine.buildDocNorms(openedManifest, BM25SearchEngine.buildDocLengths(indexPath, openedManifest));
+            return opened.numTerms() + openedLexicon.size() + norms.length;
+        });
+
+        Tokenizer tokenizer = new Tokenizer();
+        measure("search.queryToIDs", filter, () -> BM25SearchEngine.queryToIDs(topics.get(next[0]++ % topics.size())[1], lexicon, invertedIndex, tokenizer).size());
+
+        // query sets by the doc frequency of their terms
+        ArrayList<ArrayList<Integer>> shortQueries = querySet(invertedIndex, numDocs / 1000, numDocs / 20, 2, 11);
+        ArrayList<ArrayList<Integer>> longQueries = querySet(invertedIndex, numDocs / 1000, numDocs / 20, 10, 12);
+        ArrayList<ArrayList<Integer>> highDFQueries = querySet(invertedIndex, numDocs / 4, numDocs, 3, 13);
+        String[] setNames = {"short", "long", "highDF"};
+        ArrayList<ArrayList<ArrayList<Integer>>> sets = new ArrayList<>();
+        sets.add(shortQueries);
+        sets.add(longQueries);
+        sets.add(highDFQueries);
+
+        ScoreAccumulator accum = new ScoreAccumulator(numDocs);
+        TopK topK = new TopK(DEPTH);
+        int[] rankedDocs = new int[DEPTH];
+        double[] rankedScores = new double[DEPTH];
+        for (String mode : new String[] {"exhaustive", "maxscore", "impact", "boolean"}) {
+            InvertedIndex index = mode.equals("impact") ? impactIndex : invertedIndex;
+            for (int s = 0; s < sets.size(); s++) {
+                ArrayList<ArrayList<Integer>> queries = sets.get(s);
+                measure("rank." + mode + "." + setNames[s], filter, () -> {
+                    ArrayList<Integer> query = queries.get(next[0]++ % queries.size());
+                    BooleanQuery booleanQuery = mode.equals("boolean") ? BooleanQuery.allOf(query) : null;
+                    int numRanked = BM25SearchEngine.rank(query, null, booleanQuery, null, index, null, numDocs, docNorms, accum, topK, mode, null, null, null, rankedDocs, rankedScores, null);
+                    return numRanked == 0 ? 0 : rankedDocs[0];
+                });
+            }
+        }
+
+        // the long queries restricted to one month and to one year, ranked over the date segments in the range
+        String[] rangeNames = {"month", "year"};
+        DateRange[] ranges = {DateRange.parse("date:1989-06"), DateRange.parse("date:1989")};
+        for (int r = 0; r < ranges.length; r++) {
+            DateRange dates = ranges[r];
+            measure("rank.dates." + rangeNames[r], filter, () -> {
+                ArrayList<Integer> query = longQueries.get(next[0]++ % longQueries.size());
+                int numRanked = BM25SearchEngine.rank(query, null, null, dates, invertedIndex, segments, numDocs, docNorms, accum, topK, "exhaustive", null, null, null, rankedDocs, rankedScores, null);
+                return numRanked == 0 ? 0 : rankedDocs[0];
+            });
+        }
+
+        // phrase queries over the names the synthetic collection uses, exact and within a window
+        ArrayList<ArrayList<Integer>> phraseIDs = new ArrayList<>();
+        ArrayList<ArrayList<PhraseQuery>> exactPhrases = new ArrayList<>();
+        ArrayList<ArrayList<PhraseQuery>> windowPhrases = new ArrayList<>();
+        for (String phrase : PHRASES) {
+            phraseIDs.add(BM25SearchEngine.queryToIDs(phrase, lexicon, invertedIndex, tokenizer));
+            exactPhrases.add(PhraseQuery.parse("\"" + phrase + "\"", lexicon, tokenizer));
+            windowPhrases.add(PhraseQuery.parse("\"" + phrase + "\"~" + PHRASE_WINDOW, lexicon, tokenizer));
+        }
+        for (String kind : new String[] {"exact", "window"}) {
+            ArrayList<ArrayList<PhraseQuery>> phrases = kind.equals("exact") ? exactPhrases : windowPhrases;
+            measure("rank.phrase." + kind, filter, () -> {
+                int q = next[0]++ % phraseIDs.size();
+                int numRanked = BM25SearchEngine.rank(phraseIDs.get(q), phrases.get(q), null, null, invertedIndex, null, numDocs, docNorms, accum, topK, "exhaustive", null, null, null, rankedDocs, rankedScores, null);
+                return numRanked == 0 ? 0 : rankedDocs[0];
+            });
+        }
+
+        // the heap on its own, ranking a fixed set of scored docs
+        Random random = new Random(14);
+        ScoreAccumulator scored = new ScoreAccumulator(numDocs);
+        for (int i = 0; i < numDocs / 2; i++) {
+            scored.add(random.nextInt(numDocs), random.nextDouble() * 20);
+        }
+        measure("rank.topK", filter, () -> {
+            topK.clear();
+            topK.offerAll(scored);
+            return topK.drain(rankedDocs, rankedScores) + rankedDocs[0];
+        });
+
+        // snippets of the top results of the topics, already parsed so only scoring the sentences is measured
+        ArrayList<ArrayList<Integer>> topicIDs = new ArrayList<>();
+        ArrayList<int[]> topicResults = new ArrayList<>();
+        ArrayList<ParsedDocument> documents = new ArrayList<>();
+        ArrayList<ArrayList<Integer>> documentQueries = new ArrayList<>();
+        for (String[] topic : topics) {
+            ArrayList<Integer> tokenIDs = BM25SearchEngine.queryToIDs(topic[1], lexicon, invertedIndex, new Tokenizer());
+            int numRanked = BM25SearchEngine.rank(tokenIDs, null, null, null, invertedIndex, null, numDocs, docNorms, accum, topK, "exhaustive", null, null, null, rankedDocs, rankedScores, null);
+            topicIDs.add(tokenIDs);
+            topicResults.add(Arrays.copyOf(rankedDocs, numRanked));
+            for (int r = 0; r < numRanked; r++) {
+                documents.add(sentences.get(rankedDocs[r]));
+                documentQueries.add(tokenIDs);
+            }
+        }
+        measure("snippet.engine", filter, () -> {
+            int d = next[0]++ % documents.size();
+            return BM25SearchEngine.snippetEngine(documents.get(d), documentQueries.get(d)).length();
+        });
+
+        // a whole result page, reading every result from the sentence index without a cache
+        measure("snippet.resultPage", filter, () -> {
+            int t = next[0]++ % topicResults.size();
+            int[] results = topicResults.get(t);
+            String[][] summaries = BM25SearchEngine.resultSummaries(sentences, results, results.length, topicIDs.get(t), null, 0, false, null);
+            return summaries.length == 0 ? 0 : summaries[0][2].length();
+        });
+    }
+
+    // queries of numTerms distinct terms whose doc frequencies are in [minDF, maxDF], the same seed gives the same queries
+    public static ArrayList<ArrayList<Integer>> querySet(InvertedIndex invertedIndex, int minDF, int maxDF, int numTerms, long seed) {
+        ArrayList<Integer> candidates = new ArrayList<>();
+        for (int termID = 0; termID < invertedIndex.numTerms(); termID++) {
+            int df = invertedIndex.docFrequency(termID);
+            if (df >= Math.max(minDF, 1) && df <= maxDF) {
+                candidates.add(termID);
+            }
+        }
+        Random random = new Random(seed);
+        ArrayList<ArrayList<Integer>> queries = new ArrayList<>();
+        for (int q = 0; q < QUERIES_PER_SET && candidates.size() >= numTerms; q++) {
+            ArrayList<Integer> query = new ArrayList<>();
+            while (query.size() < numTerms) {
+                int termID = candidates.get(random.nextInt(candidates.size()));
+                if (!query.contains(termID)) {
+                    query.add(termID);
+                }
+            }
+            queries.add(query);
+        }
+        return queries;
+    }
+
+    // runs the warmup and measured iterations of one benchmark and prints the mean time per operation in microseconds, with the
+    // standard deviation across the measured iterations as the error
+    public static void measure(String name, String filter, Operation operation) throws IOException {
+        if (!name.contains(filter)) {
+            return;
+        }
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(operation);
+        }
+        double[] micros = new double[MEASURED_ITERATIONS];
+        double sum = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            micros[i] = iteration(operation);
+            sum += micros[i];
+        }
+        double mean = sum / MEASURED_ITERATIONS;
+        double squares = 0;
+        for (double value : micros) {
+            squares += (value - mean) * (value - mean);
+        }
+        double deviation = Math.sqrt(squares / Math.max(MEASURED_ITERATIONS - 1, 1));
+        System.out.printf("%-36s %5s %4d %12.3f +- %10.3f  us/op%n", name, "avgt", MEASURED_ITERATIONS, mean, deviation);
+    }
+
+    // calls the operation until the iteration time is used up and returns the mean time of a call in microseconds
+    private static double iteration(Operation operation) throws IOException {
+        long start = System.nanoTime();
+        long elapsed;
+        long calls = 0;
+        do {
+            sink += operation.run();
+            calls++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < ITERATION_NANOS);
+        return elapsed / 1000.0 / calls;
+    }
+
+    // every doc of the collection in memory, so the parsing and indexing benchmarks do not read the file
+    private static ArrayList<String> readDocs(String collectionPath) throws IOException {
+        ArrayList<String> docs = new ArrayList<>();
+        TrecReader reader = openCollection(collectionPath);
+        String doc = reader.nextDoc();
+        while (doc != null) {
+            docs.add(doc);
+            doc = reader.nextDoc();
+        }
+        reader.close();
+        return docs;
+    }
+
+    // the same stream setup IndexEngine reads the collection with
+    private static TrecReader openCollection(String collectionPath) throws IOException {
+        GZIPInputStream gzipInputStream = new GZIPInputStream(new FileInputStream(collectionPath), 1 << 16);
+        return new TrecReader(new InputStreamReader(gzipInputStream, StandardCharsets.UTF_8), 1 << 20);
+    }
+}
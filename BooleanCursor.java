@@ -0,0 +1,169 @@
+// Document at a time iterator over the docs matching a BooleanQuery, built from PostingsCursors and stepped the same way
+// an AND leapfrogs its clauses cheapest first: the cheapest clause proposes a doc, every other clause advances to it (galloping
+// over skip tables, see PostingsCursor.advance) and the first one that lands past it proposes the next doc, so an AND of common
+// words costs about as much as its rarest list. NOT clauses are only asked about docs every other clause agrees on. an OR steps
+// every clause sitting on its current doc and returns the smallest docID among them
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class BooleanCursor {
+
+    private final int kind;
+
+    // posting list and term id of a TERM, null and -1 otherwise
+    private final PostingsCursor term;
+    private final int termID;
+
+    // clauses of an OR, the clauses that must match of an AND cheapest first, and the excluded clauses of an AND
+    private final BooleanCursor[] clauses;
+    private final BooleanCursor[] excluded;
+
+    // upper bound on the number of matching docs, what AND clauses are ordered by
+    private final long cost;
+
+    private int docID = -1;
+
+    public BooleanCursor(BooleanQuery query, InvertedIndex invertedIndex) {
+        ArrayList<BooleanCursor> required = new ArrayList<>();
+        ArrayList<BooleanCursor> negated = new ArrayList<>();
+        if (query.kind == BooleanQuery.AND || query.kind == BooleanQuery.OR) {
+            for (BooleanQuery clause : query.clauses) {
+                if (clause.kind == BooleanQuery.NOT && query.kind == BooleanQuery.AND) {
+                    negated.add(new BooleanCursor(clause.clauses.get(0), invertedIndex));
+                } else {
+                    required.add(new BooleanCursor(clause, invertedIndex));
+                }
+            }
+        }
+        clauses = required.toArray(new BooleanCursor[0]);
+        excluded = negated.toArray(new BooleanCursor[0]);
+
+        termID = query.termID;
+        if (query.kind == BooleanQuery.TERM) {
+            kind = BooleanQuery.TERM;
+            term = invertedIndex.getPosting(query.termID);
+            cost = term.docFrequency();
+        } else if (query.kind == BooleanQuery.OR) {
+            kind = BooleanQuery.OR;
+            term = null;
+            cost = Arrays.stream(clauses).mapToLong(clause -> clause.cost).sum();
+        } else if (query.kind == BooleanQuery.AND && clauses.length > 0) {
+            kind = BooleanQuery.AND;
+            term = null;
+            Arrays.sort(clauses, (a, b) -> Long.compare(a.cost, b.cost));
+            cost = clauses[0].cost;
+        } else {
+            // nothing, a NOT on its own or an AND of NOTs
+            kind = BooleanQuery.NOTHING;
+            term = null;
+            cost = 0;
+            docID = PostingsCursor.NO_MORE_DOCS;
+        }
+    }
+
+    // moves to the next matching doc and returns its docID, or NO_MORE_DOCS once there are no more
+    public int nextDoc() {
+        switch (kind) {
+            case BooleanQuery.TERM:
+                docID = term.nextDoc();
+                break;
+            case BooleanQuery.AND:
+                docID = agree(clauses[0].nextDoc());
+                break;
+            case BooleanQuery.OR:
+                int current = docID;
+                docID = PostingsCursor.NO_MORE_DOCS;
+                for (BooleanCursor clause : clauses) {
+                    int clauseDoc = clause.docID == current ? clause.nextDoc() : clause.docID;
+                    docID = Math.min(docID, clauseDoc);
+                }
+                break;
+            default:
+                break;
+        }
+        return docID;
+    }
+
+    // moves to the first matching doc at or after target and returns it, or NO_MORE_DOCS if there is none
+    public int advance(int target) {
+        if (docID >= target) {
+            return docID;
+        }
+        switch (kind) {
+            case BooleanQuery.TERM:
+                docID = term.advance(target);
+                break;
+            case BooleanQuery.AND:
+                docID = agree(clauses[0].advance(target));
+                break;
+            case BooleanQuery.OR:
+                docID = PostingsCursor.NO_MORE_DOCS;
+                for (BooleanCursor clause : clauses) {
+                    docID = Math.min(docID, clause.advance(target));
+                }
+                break;
+            default:
+                break;
+        }
+        return docID;
+    }
+
+    // docID of the current match, -1 before the first call to nextDoc
+    public int docID() {
+        return docID;
+    }
+
+    // number of postings decoded so far by the posting lists under this cursor
+    public long decoded() {
+        long decoded = (term != null) ? term.decoded() : 0;
+        for (BooleanCursor clause : clauses) {
+            decoded += clause.decoded();
+        }
+        for (BooleanCursor clause : excluded) {
+            decoded += clause.decoded();
+        }
+        return decoded;
+    }
+
+    // cursor of termID if every match has it and the cursor sits on the current match (a TERM query or a TERM clause of an AND
+    // query), so the term's count can be read from it rather than from a cursor of its own, null otherwise
+    public PostingsCursor requiredTerm(int termID) {
+        if (kind == BooleanQuery.TERM) {
+            return this.termID == termID ? term : null;
+        }
+        if (kind == BooleanQuery.AND) {
+            for (BooleanCursor clause : clauses) {
+                if (clause.kind == BooleanQuery.TERM && clause.termID == termID) {
+                    return clause.term;
+                }
+            }
+        }
+        return null;
+    }
+
+    // first doc at or after candidate, a doc of the cheapest clause, that every clause of an AND has and no excluded clause has
+    private int agree(int candidate) {
+        while (candidate != PostingsCursor.NO_MORE_DOCS) {
+            boolean agreed = true;
+            for (int j = 1; j < clauses.length && agreed; j++) {
+                int clauseDoc = clauses[j].advance(candidate);
+                if (clauseDoc != candidate) {
+                    candidate = clauses[0].advance(clauseDoc);
+                    agreed = false;
+                }
+            }
+            if (!agreed) {
+                continue;
+            }
+            for (int j = 0; j < excluded.length && agreed; j++) {
+                agreed = excluded[j].advance(candidate) != candidate;
+            }
+            if (agreed) {
+                return candidate;
+            }
+            candidate = clauses[0].nextDoc();
+        }
+        return candidate;
+    }
+}
@@ -0,0 +1,183 @@
+// A boolean query for the boolean retrieval mode: words combined with AND, OR and NOT (upper case) and grouped with parentheses.
+// words next to each other without an operator are ANDed, and AND binds tighter than OR, so
+// "bradley mayor OR (gates AND NOT police)" means (bradley AND mayor) OR (gates AND NOT police)
+// a word ending in * is the OR of its prefix expansions (see queryToIDs), a word the tokenizer splits is the AND of its tokens and
+// a word that is not in the lexicon matches nothing. a NOT only excludes docs from the AND it is part of, so a query or OR branch
+// made only of NOTs matches nothing
+//
+// the parsed tree is read only, BooleanCursor evaluates it over the posting lists
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class BooleanQuery {
+
+    public static final int TERM = 0;
+    public static final int AND = 1;
+    public static final int OR = 2;
+    public static final int NOT = 3;
+    public static final int NOTHING = 4;
+
+    private static final Pattern TOKEN = Pattern.compile("[()]|[^\\s()]+");
+
+    public final int kind;
+
+    // term id of a TERM, -1 otherwise
+    public final int termID;
+
+    // clauses of an AND or OR, the one negated clause of a NOT, empty otherwise
+    public final ArrayList<BooleanQuery> clauses;
+
+    public BooleanQuery(int kind, int termID, ArrayList<BooleanQuery> clauses) {
+        this.kind = kind;
+        this.termID = termID;
+        this.clauses = clauses;
+    }
+
+    // parses a query, never failing: a missing closing parenthesis is assumed at the end and an extra one is skipped
+    public static BooleanQuery parse(String query, TermDictionary lexicon, InvertedIndex invertedIndex, Tokenizer tokenizer) {
+        ArrayList<String> tokens = new ArrayList<>();
+        Matcher matcher = TOKEN.matcher(query);
+        while (matcher.find()) {
+            tokens.add(matcher.group());
+        }
+        int[] next = {0};
+        ArrayList<BooleanQuery> clauses = new ArrayList<>();
+        while (next[0] < tokens.size()) {
+            BooleanQuery clause = parseOr(tokens, next, lexicon, invertedIndex, tokenizer);
+            if (clause != null) {
+                clauses.add(clause);
+            }
+            // skipping a closing parenthesis that was never opened
+            next[0]++;
+        }
+        return clauses.isEmpty() ? new BooleanQuery(NOTHING, -1, clauses) : combine(AND, clauses);
+    }
+
+    // a boolean query matching docs that have every one of the terms
+    public static BooleanQuery allOf(ArrayList<Integer> termIDs) {
+        ArrayList<BooleanQuery> clauses = new ArrayList<>();
+        for (int termID : termIDs) {
+            clauses.add(new BooleanQuery(TERM, termID, new ArrayList<>()));
+        }
+        return combine(AND, clauses);
+    }
+
+    // or := and ("OR" and)*
+    private static BooleanQuery parseOr(ArrayList<String> tokens, int[] next, TermDictionary lexicon, InvertedIndex invertedIndex, Tokenizer tokenizer) {
+        ArrayList<BooleanQuery> clauses = new ArrayList<>();
+        while (next[0] < tokens.size() && !tokens.get(next[0]).equals(")")) {
+            if (tokens.get(next[0]).equals("OR")) {
+                next[0]++;
+                continue;
+            }
+            BooleanQuery clause = parseAnd(tokens, next, lexicon, invertedIndex, tokenizer);
+            if (clause != null) {
+                clauses.add(clause);
+            }
+        }
+        return clauses.isEmpty() ? null : combine(OR, clauses);
+    }
+
+    // and := unary (["AND"] unary)*, ending at an OR or a closing parenthesis
+    private static BooleanQuery parseAnd(ArrayList<String> tokens, int[] next, TermDictionary lexicon, InvertedIndex invertedIndex, Tokenizer tokenizer) {
+        ArrayList<BooleanQuery> clauses = new ArrayList<>();
+        while (next[0] < tokens.size() && !tokens.get(next[0]).equals("OR") && !tokens.get(next[0]).equals(")")) {
+            if (tokens.get(next[0]).equals("AND")) {
+                next[0]++;
+                continue;
+            }
+            BooleanQuery clause = parseUnary(tokens, next, lexicon, invertedIndex, tokenizer);
+            if (clause != null) {
+                clauses.add(clause);
+            }
+        }
+        return clauses.isEmpty() ? null : combine(AND, clauses);
+    }
+
+    // unary := "NOT" unary | "(" or ")" | word
+    private static BooleanQuery parseUnary(ArrayList<String> tokens, int[] next, TermDictionary lexicon, InvertedIndex invertedIndex, Tokenizer tokenizer) {
+        String token = tokens.get(next[0]++);
+        if (token.equals("NOT")) {
+            if (next[0] == tokens.size() || tokens.get(next[0]).equals("OR") || tokens.get(next[0]).equals(")")) {
+                return null;
+            }
+            BooleanQuery negated = parseUnary(tokens, next, lexicon, invertedIndex, tokenizer);
+            return negated == null ? null : new BooleanQuery(NOT, -1, new ArrayList<>(Arrays.asList(negated)));
+        }
+        if (token.equals("(")) {
+            BooleanQuery group = parseOr(tokens, next, lexicon, invertedIndex, tokenizer);
+            if (next[0] < tokens.size()) {
+                next[0]++;
+            }
+            return group;
+        }
+        return word(token, lexicon, invertedIndex, tokenizer);
+    }
+
+    // a single query word, null if it has no tokens at all (punctuation)
+    private static BooleanQuery word(String word, TermDictionary lexicon, InvertedIndex invertedIndex, Tokenizer tokenizer) {
+        ArrayList<BooleanQuery> clauses = new ArrayList<>();
+        if (word.endsWith("*")) {
+            for (int termID : BM25SearchEngine.queryToIDs(word, lexicon, invertedIndex, tokenizer)) {
+                clauses.add(new BooleanQuery(TERM, termID, new ArrayList<>()));
+            }
+            return clauses.isEmpty() ? new BooleanQuery(NOTHING, -1, clauses) : combine(OR, clauses);
+        }
+
+        tokenizer.reset();
+        tokenizer.tokenize(word, lexicon);
+        if (tokenizer.numTokens() == 0) {
+            return null;
+        }
+        if (tokenizer.size() < tokenizer.numTokens()) {
+            return new BooleanQuery(NOTHING, -1, clauses);
+        }
+        for (int i = 0; i < tokenizer.size(); i++) {
+            clauses.add(new BooleanQuery(TERM, tokenizer.id(i), new ArrayList<>()));
+        }
+        return combine(AND, clauses);
+    }
+
+    // an AND or OR of the clauses, or the clause itself if there is only one
+    private static BooleanQuery combine(int kind, ArrayList<BooleanQuery> clauses) {
+        return clauses.size() == 1 ? clauses.get(0) : new BooleanQuery(kind, -1, clauses);
+    }
+
+    // term ids of the words that are not negated, in query order, the terms matching docs are scored on
+    public ArrayList<Integer> scoredTerms() {
+        ArrayList<Integer> termIDs = new ArrayList<>();
+        addScoredTerms(termIDs);
+        return termIDs;
+    }
+
+    private void addScoredTerms(ArrayList<Integer> termIDs) {
+        if (kind == TERM && !termIDs.contains(termID)) {
+            termIDs.add(termID);
+        } else if (kind == AND || kind == OR) {
+            for (BooleanQuery clause : clauses) {
+                clause.addScoredTerms(termIDs);
+            }
+        }
+    }
+
+    // identifies the query in result cache keys
+    public String key() {
+        switch (kind) {
+            case TERM:
+                return String.valueOf(termID);
+            case NOTHING:
+                return "none";
+            case NOT:
+                return "-" + clauses.get(0).key();
+            default:
+                StringBuilder key = new StringBuilder(kind == AND ? "+(" : "|(");
+                for (BooleanQuery clause : clauses) {
+                    key.append(clause.key()).append(' ');
+                }
+                return key.append(')').toString();
+        }
+    }
+}
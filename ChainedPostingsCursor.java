@@ -0,0 +1,86 @@
+// Cursor over a term's posting list in an index and its increments searched as one (see InvertedIndex.combine)
+// every part keeps the docIDs of the whole collection and parts cover increasing docID ranges, so the list over the whole
+// collection is the part lists one after the other: nextDoc moves on to the next part when one runs out, advance jumps straight to
+// the part whose range holds its target, and blockMaxWeight asks the part holding the target doc for its block bound
+
+public class ChainedPostingsCursor extends PostingsCursor {
+
+    // cursor of the term in each part and the first docID of each part
+    private final PostingsCursor[] lists;
+    private final int[] firstDocs;
+
+    // part the cursor is in, and the part the last blockMaxWeight call looked at
+    private int current = 0;
+    private int shallowPart = 0;
+
+    private int docID = -1;
+
+    public ChainedPostingsCursor(PostingsCursor[] lists, int[] firstDocs, int docFrequency, float maxTermWeight) {
+        super(null, 0, docFrequency, maxTermWeight);
+        this.lists = lists;
+        this.firstDocs = firstDocs;
+    }
+
+    @Override
+    public int nextDoc() {
+        docID = lists[current].nextDoc();
+        while (docID == NO_MORE_DOCS && current + 1 < lists.length) {
+            current++;
+            docID = lists[current].nextDoc();
+        }
+        return docID;
+    }
+
+    @Override
+    public int advance(int target) {
+        if (docID >= target) {
+            return docID;
+        }
+        current = Math.max(current, part(target));
+        docID = lists[current].advance(target);
+        while (docID == NO_MORE_DOCS && current + 1 < lists.length) {
+            current++;
+            docID = lists[current].nextDoc();
+        }
+        return docID;
+    }
+
+    @Override
+    public float blockMaxWeight(int target) {
+        shallowPart = Math.max(shallowPart, part(target));
+        return lists[shallowPart].blockMaxWeight(target);
+    }
+
+    @Override
+    public int docID() {
+        return docID;
+    }
+
+    @Override
+    public int freq() {
+        return lists[current].freq();
+    }
+
+    @Override
+    public int[] positions(int[] buffer) {
+        return lists[current].positions(buffer);
+    }
+
+    @Override
+    public long decoded() {
+        long decoded = 0;
+        for (PostingsCursor list : lists) {
+            decoded += list.decoded();
+        }
+        return decoded;
+    }
+
+    // last part whose docID range starts at or before docID
+    private int part(int docID) {
+        int part = 0;
+        while (part + 1 < firstDocs.length && firstDocs[part + 1] <= docID) {
+            part++;
+        }
+        return part;
+    }
+}
@@ -0,0 +1,140 @@
+// Compares a run file against a reference run of the same topics, for measuring how close an approximate retrieval mode (such as
+// impact) ranks to the exact one. prints the mean overlap of the top 10, 100 and 1000 results of each topic, and with a qrels file
+// the MAP and P@10 of both runs
+//
+// run files are the ones BatchSearch writes (topic Q0 DOCNO rank score tag), qrels lines are topic iteration DOCNO relevance
+//
+// TO RUN:
+// java CompareRuns "/path/to/exhaustive.txt" "/path/to/impact.txt" "/path/to/qrels.txt"
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class CompareRuns {
+
+    public static final int[] DEPTHS = {10, 100, 1000};
+
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            System.out.println("Please provide the reference run file, the run file to compare with it and optionally a qrels file.");
+            return;
+        }
+        LinkedHashMap<String, ArrayList<String>> reference = readRun(args[0]);
+        LinkedHashMap<String, ArrayList<String>> run = readRun(args[1]);
+        if (reference == null || run == null) {
+            return;
+        }
+
+        for (int depth : DEPTHS) {
+            System.out.printf("overlap@%d %.4f%n", depth, meanOverlap(reference, run, depth));
+        }
+
+        if (args.length == 3) {
+            HashMap<String, HashSet<String>> qrels = readQrels(args[2]);
+            if (qrels == null) {
+                return;
+            }
+            System.out.printf("reference MAP %.4f P@10 %.4f%n", meanAveragePrecision(reference, qrels), meanPrecision(reference, qrels, 10));
+            System.out.printf("run       MAP %.4f P@10 %.4f%n", meanAveragePrecision(run, qrels), meanPrecision(run, qrels, 10));
+        }
+    }
+
+    // mean over the reference topics of the fraction of the reference's top depth DOCNOs that are also in the run's top depth
+    public static double meanOverlap(Map<String, ArrayList<String>> reference, Map<String, ArrayList<String>> run, int depth) {
+        double sum = 0;
+        int topics = 0;
+        for (Map.Entry<String, ArrayList<String>> topic : reference.entrySet()) {
+            ArrayList<String> expected = topic.getValue();
+            int n = Math.min(depth, expected.size());
+            if (n == 0) {
+                continue;
+            }
+            HashSet<String> top = new HashSet<>(expected.subList(0, n));
+            ArrayList<String> ranked = run.getOrDefault(topic.getKey(), new ArrayList<>());
+            int shared = 0;
+            for (int r = 0; r < Math.min(n, ranked.size()); r++) {
+                if (top.contains(ranked.get(r))) {
+                    shared++;
+                }
+            }
+            sum += (double) shared / n;
+            topics++;
+        }
+        return topics == 0 ? 0 : sum / topics;
+    }
+
+    // mean over the judged topics of the average precision of each ranking
+    public static double meanAveragePrecision(Map<String, ArrayList<String>> run, Map<String, HashSet<String>> qrels) {
+        double sum = 0;
+        for (Map.Entry<String, HashSet<String>> topic : qrels.entrySet()) {
+            ArrayList<String> ranked = run.getOrDefault(topic.getKey(), new ArrayList<>());
+            int relevantSeen = 0;
+            double precisionSum = 0;
+            for (int r = 0; r < ranked.size(); r++) {
+                if (topic.getValue().contains(ranked.get(r))) {
+                    relevantSeen++;
+                    precisionSum += (double) relevantSeen / (r + 1);
+                }
+            }
+            sum += precisionSum / topic.getValue().size();
+        }
+        return qrels.isEmpty() ? 0 : sum / qrels.size();
+    }
+
+    // mean over the judged topics of the fraction of the top depth results that are relevant
+    public static double meanPrecision(Map<String, ArrayList<String>> run, Map<String, HashSet<String>> qrels, int depth) {
+        double sum = 0;
+        for (Map.Entry<String, HashSet<String>> topic : qrels.entrySet()) {
+            ArrayList<String> ranked = run.getOrDefault(topic.getKey(), new ArrayList<>());
+            int relevant = 0;
+            for (int r = 0; r < Math.min(depth, ranked.size()); r++) {
+                if (topic.getValue().contains(ranked.get(r))) {
+                    relevant++;
+                }
+            }
+            sum += (double) relevant / depth;
+        }
+        return qrels.isEmpty() ? 0 : sum / qrels.size();
+    }
+
+    // reads the DOCNOs of each topic of a run file in rank order, null if the file cannot be read
+    public static LinkedHashMap<String, ArrayList<String>> readRun(String runPath) {
+        LinkedHashMap<String, ArrayList<String>> run = new LinkedHashMap<>();
+        try {
+            for (String line : Files.readAllLines(Paths.get(runPath), StandardCharsets.UTF_8)) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length >= 4) {
+                    run.computeIfAbsent(fields[0], topic -> new ArrayList<>()).add(fields[2]);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return run;
+    }
+
+    // reads the relevant DOCNOs of each topic, topics without any relevant doc are left out. null if the file cannot be read
+    public static HashMap<String, HashSet<String>> readQrels(String qrelsPath) {
+        HashMap<String, HashSet<String>> qrels = new HashMap<>();
+        try {
+            for (String line : Files.readAllLines(Paths.get(qrelsPath), StandardCharsets.UTF_8)) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length >= 4 && Integer.parseInt(fields[3]) > 0) {
+                    qrels.computeIfAbsent(fields[0], topic -> new HashSet<>()).add(fields[2]);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return qrels;
+    }
+}
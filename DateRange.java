@@ -0,0 +1,94 @@
+// Range of months a query is restricted to, given in the query as date:1989-03 (one month), date:1989 (a year) or
+// date:1989-03..1990-02 (every month from the first to the last, either end may also be a year). months are numbered
+// year * 12 + month - 1 so a range is two ints, and LA Times DOCNOs (LAMMDDYY-NNNN) give the month of every doc
+// date ranges are answered from the date segments written by SegmentIndexer, see SegmentedIndex
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class DateRange {
+
+    private static final Pattern FILTER = Pattern.compile("(?<!\\S)date:(\\d{4})(?:-(\\d{1,2}))?(?:\\.\\.(\\d{4})(?:-(\\d{1,2}))?)?(?!\\S)");
+
+    // first and last month of the range, inclusive
+    public final int first;
+    public final int last;
+
+    public DateRange(int first, int last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    // the range given in a query, or null if it has none or it is not a valid range (a month outside 1 to 12, or a range that ends
+    // before it starts), so it is searched like a query without one. only the first date: word counts
+    public static DateRange parse(String query) {
+        Matcher matcher = FILTER.matcher(query);
+        if (!matcher.find()) {
+            return null;
+        }
+        if (!validMonth(matcher.group(2)) || !validMonth(matcher.group(4))) {
+            return null;
+        }
+        int firstYear = Integer.parseInt(matcher.group(1));
+        int first = (matcher.group(2) == null) ? firstYear * 12 : firstYear * 12 + Integer.parseInt(matcher.group(2)) - 1;
+        int last;
+        if (matcher.group(3) == null) {
+            last = (matcher.group(2) == null) ? firstYear * 12 + 11 : first;
+        } else {
+            int lastYear = Integer.parseInt(matcher.group(3));
+            last = (matcher.group(4) == null) ? lastYear * 12 + 11 : lastYear * 12 + Integer.parseInt(matcher.group(4)) - 1;
+        }
+        if (first > last) {
+            return null;
+        }
+        return new DateRange(first, last);
+    }
+
+    // true if the query has a date: word, valid or not
+    public static boolean hasFilter(String query) {
+        return FILTER.matcher(query).find();
+    }
+
+    // a month of a date: word is 1 to 12, a missing one (a whole year) is fine
+    private static boolean validMonth(String month) {
+        if (month == null) {
+            return true;
+        }
+        int value = Integer.parseInt(month);
+        return value >= 1 && value <= 12;
+    }
+
+    // the query without its date: words, so they are not searched for as words
+    public static String strip(String query) {
+        return FILTER.matcher(query).replaceAll(" ").trim();
+    }
+
+    // month of a doc from its DOCNO, LA then the MMDDYY date
+    public static int month(String docno) {
+        int month = Integer.parseInt(docno.substring(2, 4));
+        int year = 1900 + Integer.parseInt(docno.substring(6, 8));
+        return year * 12 + month - 1;
+    }
+
+    // month as YYYY-MM, the name of its segment directory
+    public static String name(int month) {
+        return String.format("%04d-%02d", month / 12, month % 12 + 1);
+    }
+
+    // month of a YYYY-MM name, -1 if it is not one
+    public static int parseName(String name) {
+        if (!name.matches("\\d{4}-\\d{2}")) {
+            return -1;
+        }
+        return Integer.parseInt(name.substring(0, 4)) * 12 + Integer.parseInt(name.substring(5, 7)) - 1;
+    }
+
+    public boolean contains(int month) {
+        return month >= first && month <= last;
+    }
+
+    // identifies the range in result cache keys
+    public String key() {
+        return name(first) + ".." + name(last);
+    }
+}
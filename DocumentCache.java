@@ -0,0 +1,72 @@
+// Bounded LRU cache of parsed docs in front of the SentenceIndex, so docs that keep showing up in results are read and decoded
+// once instead of on every query. bounded by the estimated heap size of the docs it holds rather than their number, since one
+// long article costs as much as dozens of short briefs
+// like ResultCache, entries are dropped when the index generation changes
+// every method is synchronized, one cache is shared by all threads of the search server
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+public class DocumentCache {
+
+    private final long maxBytes;
+    private final LinkedHashMap<Integer, ParsedDocument> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private long generation = -1;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    public DocumentCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // the cached parse of a doc, or null on a miss
+    public synchronized ParsedDocument get(int docID, long indexGeneration) {
+        checkGeneration(indexGeneration);
+        ParsedDocument document = entries.get(docID);
+        if (document == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return document;
+    }
+
+    // caches the parse of a doc, evicting least recently used docs until it fits. docs larger than the whole cache are skipped
+    public synchronized void put(int docID, long indexGeneration, ParsedDocument document) {
+        checkGeneration(indexGeneration);
+        long size = document.sizeInBytes();
+        if (size > maxBytes) {
+            return;
+        }
+        ParsedDocument previous = entries.put(docID, document);
+        bytes += size - (previous == null ? 0 : previous.sizeInBytes());
+        Iterator<ParsedDocument> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().sizeInBytes();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    // hit, miss, eviction and invalidation counts
+    public synchronized String stats() {
+        long lookups = hits + misses;
+        double hitRate = lookups == 0 ? 0 : 100.0 * hits / lookups;
+        return String.format("documentCache hits=%d misses=%d hitRate=%.1f%% docs=%d bytes=%d evictions=%d invalidations=%d", hits, misses, hitRate, entries.size(), bytes, evictions, invalidations);
+    }
+
+    private void checkGeneration(long indexGeneration) {
+        if (indexGeneration != generation) {
+            if (!entries.isEmpty()) {
+                invalidations++;
+                entries.clear();
+                bytes = 0;
+            }
+            generation = indexGeneration;
+        }
+    }
+}
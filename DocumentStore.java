@@ -0,0 +1,237 @@
+// Packed store of every raw doc and its metadata, replacing the YY/MM/DD/DOCUMENT and METADATA folders of one file per doc
+// documents.bin holds one record per doc in docID order: DOCNO, internal id, date and headline, then the raw doc, optionally
+// deflate compressed. documents-offsets.bin holds a flags int (1 if records are compressed) and the start offset of every record
+// followed by the end of the last one, so fetching a doc is a single positioned read of its record
+// the stores of an index and its increments (see IndexManifest) are read as one through combine, which routes a docID to the
+// store of the part holding it
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class DocumentStore {
+
+    // flag bit set in documents-offsets.bin when records are deflate compressed
+    public static final int COMPRESSED = 1;
+
+    private final FileChannel documents;
+    private final long[] offsets;
+    private final boolean compressed;
+
+    // stores of an index and its increments read as one and the first docID of each, null for a single store
+    private final DocumentStore[] parts;
+    private final int[] firstDocs;
+
+    private DocumentStore(FileChannel documents, long[] offsets, boolean compressed) {
+        this(documents, offsets, compressed, null, null);
+    }
+
+    private DocumentStore(FileChannel documents, long[] offsets, boolean compressed, DocumentStore[] parts, int[] firstDocs) {
+        this.documents = documents;
+        this.offsets = offsets;
+        this.compressed = compressed;
+        this.parts = parts;
+        this.firstDocs = firstDocs;
+    }
+
+    // opens the store in the index directory, only the offset table is read into memory
+    public static DocumentStore open(String indexPath) throws IOException {
+        long[] offsets;
+        boolean compressed;
+        try (RandomAccessFile file = new RandomAccessFile(indexPath + "/documents-offsets.bin", "r")) {
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            compressed = (table.getInt() & COMPRESSED) != 0;
+            offsets = new long[(int) ((channel.size() - Integer.BYTES) / Long.BYTES)];
+            table.asLongBuffer().get(offsets);
+        }
+        FileChannel documents = new RandomAccessFile(indexPath + "/documents.bin", "r").getChannel();
+        return new DocumentStore(documents, offsets, compressed);
+    }
+
+    // the store of an index followed by those of its increments, docIDs from firstDocs[p] on are in parts[p]
+    public static DocumentStore combine(DocumentStore[] parts, int[] firstDocs) {
+        return new DocumentStore(null, null, parts[0].compressed, parts, firstDocs);
+    }
+
+    // closes the store's file, and those of every part of a combined store
+    public void close() throws IOException {
+        if (parts != null) {
+            for (DocumentStore part : parts) {
+                part.close();
+            }
+        } else {
+            documents.close();
+        }
+    }
+
+    // copies the records of the stores in docID order into one store in exportPath, they must all be compressed or not
+    public static void merge(DocumentStore[] parts, String exportPath) throws IOException {
+        DocumentStoreWriter writer = new DocumentStoreWriter(exportPath, parts[0].compressed);
+        for (DocumentStore part : parts) {
+            for (int docID = 0; docID < part.numDocs(); docID++) {
+                writer.append(part.readStoredRecord(docID));
+            }
+        }
+        writer.close();
+    }
+
+    // number of docs in the store
+    public int numDocs() {
+        if (parts != null) {
+            return firstDocs[parts.length - 1] - firstDocs[0] + parts[parts.length - 1].numDocs();
+        }
+        return offsets.length - 1;
+    }
+
+    // true if records are deflate compressed
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    // returns the raw doc stored for a docID
+    public String getRawDoc(int docID) throws IOException {
+        if (parts != null) {
+            int part = part(docID);
+            return parts[part].getRawDoc(docID - firstDocs[part]);
+        }
+        ByteBuffer record = readRecord(docID);
+        skipMetadata(record);
+        byte[] raw = new byte[record.getInt()];
+        record.get(raw);
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    // returns the date and headline stored for a docID
+    public String[] getMetadata(int docID) throws IOException {
+        if (parts != null) {
+            int part = part(docID);
+            return parts[part].getMetadata(docID - firstDocs[part]);
+        }
+        ByteBuffer record = readRecord(docID);
+        readString(record);
+        record.getInt();
+        String date = readString(record);
+        String headline = readString(record);
+        String[] metadataArray = {date, headline};
+        return metadataArray;
+    }
+
+    // builds the record for one doc, called by the IndexEngine workers so encoding and compression run in parallel
+    public static byte[] encode(String docNO, int internalID, String date, String headline, String rawDoc, boolean compress) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(rawDoc.length() + 256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeString(out, docNO);
+            out.writeInt(internalID);
+            writeString(out, date);
+            writeString(out, headline);
+            writeString(out, rawDoc);
+            out.close();
+
+            byte[] record = bytes.toByteArray();
+            return compress ? deflate(record) : record;
+        } catch (IOException e) {
+            // only thrown by the underlying stream, which is in memory
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // reads the record of a doc with one positioned read and inflates it if needed
+    private ByteBuffer readRecord(int docID) throws IOException {
+        byte[] record = readStoredRecord(docID);
+        return ByteBuffer.wrap(compressed ? inflate(record) : record);
+    }
+
+    // reads the record of a doc as it is stored
+    private byte[] readStoredRecord(int docID) throws IOException {
+        long start = offsets[docID];
+        ByteBuffer record = ByteBuffer.allocate((int) (offsets[docID + 1] - start));
+        while (record.hasRemaining()) {
+            if (documents.read(record, start + record.position()) < 0) {
+                throw new IOException("documents.bin ends before the record of doc " + docID);
+            }
+        }
+        return record.array();
+    }
+
+    // part of a combined store holding a docID
+    private int part(int docID) {
+        int part = parts.length - 1;
+        while (part > 0 && firstDocs[part] > docID) {
+            part--;
+        }
+        return part;
+    }
+
+    // moves past DOCNO, internal id, date and headline
+    private static void skipMetadata(ByteBuffer record) {
+        skipString(record);
+        record.getInt();
+        skipString(record);
+        skipString(record);
+    }
+
+    // strings are stored as an int byte length followed by UTF-8 bytes
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void skipString(ByteBuffer record) {
+        int length = record.getInt();
+        record.position(record.position() + length);
+    }
+
+    // deflate compresses a record, storing its uncompressed length first so it can be inflated in one go
+    private static byte[] deflate(byte[] record) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(record);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(record.length / 2 + 16);
+        out.write(record.length >>> 24);
+        out.write(record.length >>> 16);
+        out.write(record.length >>> 8);
+        out.write(record.length);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] compressedRecord) throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(compressedRecord);
+        byte[] record = new byte[header.getInt()];
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressedRecord, Integer.BYTES, compressedRecord.length - Integer.BYTES);
+        try {
+            int length = 0;
+            while (length < record.length && !inflater.finished()) {
+                length += inflater.inflate(record, length, record.length - length);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt record in documents.bin", e);
+        } finally {
+            inflater.end();
+        }
+        return record;
+    }
+}
@@ -0,0 +1,34 @@
+// Appends doc records to documents.bin in docID order and writes their offsets to documents-offsets.bin, see DocumentStore
+// records are encoded (and compressed) by the IndexEngine workers, this only runs in the merge stage so writes stay in order
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class DocumentStoreWriter {
+
+    private final DataOutputStream documents;
+    private final DataOutputStream offsets;
+    private long position = 0;
+
+    public DocumentStoreWriter(String exportPath, boolean compressed) throws IOException {
+        documents = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/documents.bin"), 1 << 16));
+        offsets = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/documents-offsets.bin"), 1 << 16));
+        offsets.writeInt(compressed ? DocumentStore.COMPRESSED : 0);
+    }
+
+    // appends the record of the next doc
+    public void append(byte[] record) throws IOException {
+        offsets.writeLong(position);
+        documents.write(record);
+        position += record.length;
+    }
+
+    // writes the end offset of the last record and closes both files
+    public void close() throws IOException {
+        offsets.writeLong(position);
+        offsets.close();
+        documents.close();
+    }
+}
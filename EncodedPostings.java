@@ -0,0 +1,262 @@
+// Growable posting list for a single term, stored compressed while indexing
+// docIDs are written as gaps from the previous docID and both gaps and counts use variable byte encoding (7 bits per byte,
+// high bit set on the last byte), so most postings take 2 bytes instead of the 8 bytes of two raw ints
+// postings are grouped in blocks of BLOCK_SIZE docs. lists with more than one block are written behind a skip table holding,
+// per block, its last docID, the byte offset where it ends and its max term weight, so a cursor can jump over whole blocks
+// a positional list also keeps the positions of the term in each doc in a second stream, per posting its count positions with the
+// first as is and the rest as gaps from the one before, all variable byte encoded. it is written to its own file behind a table of
+// the offset where each block's positions end, so a cursor that skips blocks of postings skips their positions with them
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class EncodedPostings {
+
+    // postings per block
+    public static final int BLOCK_SIZE = 128;
+
+    // bytes per skip table entry: last docID (int), end offset (int), max term weight (float)
+    public static final int SKIP_ENTRY_BYTES = 12;
+
+    private byte[] bytes = new byte[16];
+    private int length = 0;
+    private int lastDocID = 0;
+    private int docFrequency = 0;
+
+    // last docID and end offset of every completed block
+    private int[] blockLastDocs = new int[0];
+    private int[] blockEnds = new int[0];
+
+    // read position used when decoding the list back
+    private int readPosition = 0;
+
+    // positions stream of a positional list (null otherwise), its length, the offset where each completed block's positions end
+    // and the read position used when decoding it back
+    private byte[] positions = null;
+    private int positionsLength = 0;
+    private int[] blockPositionEnds = new int[0];
+    private int positionsReadPosition = 0;
+
+    public EncodedPostings() {
+    }
+
+    // a list that also keeps positions when positional is true, its postings must then be added with their positions
+    public EncodedPostings(boolean positional) {
+        if (positional) {
+            positions = new byte[16];
+        }
+    }
+
+    // true if the list keeps positions
+    public boolean hasPositions() {
+        return positions != null;
+    }
+
+    // adds a posting, docIDs must be added in increasing order
+    public void add(int docID, int count) {
+        writeVByte(docID - lastDocID);
+        writeVByte(count);
+        lastDocID = docID;
+        docFrequency++;
+
+        // closing a full block
+        if (docFrequency % BLOCK_SIZE == 0) {
+            int block = docFrequency / BLOCK_SIZE - 1;
+            if (block == blockLastDocs.length) {
+                blockLastDocs = Arrays.copyOf(blockLastDocs, Math.max(4, block * 2));
+                blockEnds = Arrays.copyOf(blockEnds, blockLastDocs.length);
+            }
+            blockLastDocs[block] = docID;
+            blockEnds[block] = length;
+            if (positions != null) {
+                if (blockPositionEnds.length < blockLastDocs.length) {
+                    blockPositionEnds = Arrays.copyOf(blockPositionEnds, blockLastDocs.length);
+                }
+                blockPositionEnds[block] = positionsLength;
+            }
+        }
+    }
+
+    // adds a posting of a positional list with the count increasing positions of the term in the doc, starting at offset in
+    // docPositions
+    public void add(int docID, int count, int[] docPositions, int offset) {
+        int previous = 0;
+        for (int i = offset; i < offset + count; i++) {
+            writePositionVByte(docPositions[i] - previous);
+            previous = docPositions[i];
+        }
+        add(docID, count);
+    }
+
+    // appends every posting of another list, whose docIDs must all come after the ones already in this list
+    public void addAll(EncodedPostings other) {
+        other.readPosition = 0;
+        other.positionsReadPosition = 0;
+        int docID = 0;
+        int[] docPositions = new int[16];
+        for (int i = 0; i < other.docFrequency; i++) {
+            docID += other.readVByte();
+            int count = other.readVByte();
+            if (positions == null) {
+                add(docID, count);
+            } else {
+                if (count > docPositions.length) {
+                    docPositions = new int[Math.max(count, docPositions.length * 2)];
+                }
+                int position = 0;
+                for (int p = 0; p < count; p++) {
+                    position += other.readPositionVByte();
+                    docPositions[p] = position;
+                }
+                add(docID, count, docPositions, 0);
+            }
+        }
+    }
+
+    // rough number of heap bytes held by this list, used by IndexEngine to decide when to flush a run to disk
+    public long memoryUsage() {
+        return 64 + bytes.length + 8L * blockLastDocs.length + (positions == null ? 0 : positions.length + 4L * blockPositionEnds.length);
+    }
+
+    // number of docs in this posting list
+    public int docFrequency() {
+        return docFrequency;
+    }
+
+    // number of blocks, the last one may be partly filled
+    public int numBlocks() {
+        return (docFrequency + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    // number of bytes written for this list, skip table included
+    public int length() {
+        return (numBlocks() > 1 ? numBlocks() * SKIP_ENTRY_BYTES : 0) + length;
+    }
+
+    // largest length normalised term weight tf / (k + tf) in each block, rounded up to a float so that times idf it stays an upper
+    // bound on the BM25 score of this term in any doc of the block, the max over all blocks bounds the whole list
+    public float[] blockMaxWeights(int[] docLengths, double avgLength) {
+        float[] maxWeights = new float[numBlocks()];
+        readPosition = 0;
+        int docID = 0;
+        for (int i = 0; i < docFrequency; i++) {
+            docID += readVByte();
+            int freq = readVByte();
+
+            double k = 1.2 * (0.25 + 0.75 * ((double) docLengths[docID] / avgLength));
+            float weight = Math.nextUp((float) ((double) freq / (k + freq)));
+            maxWeights[i / BLOCK_SIZE] = Math.max(maxWeights[i / BLOCK_SIZE], weight);
+        }
+        return maxWeights;
+    }
+
+    // writes the skip table (only when there is more than one block) followed by the encoded bytes to the postings file
+    public void writeTo(DataOutputStream out, float[] blockMaxWeights) throws IOException {
+        int numBlocks = numBlocks();
+        if (numBlocks > 1) {
+            for (int block = 0; block < numBlocks; block++) {
+                boolean last = (block == numBlocks - 1);
+                out.writeInt(last ? lastDocID : blockLastDocs[block]);
+                out.writeInt(last ? length : blockEnds[block]);
+                out.writeFloat(blockMaxWeights[block]);
+            }
+        }
+        out.write(bytes, 0, length);
+    }
+
+    // number of bytes written for the positions of this list, block table included
+    public int positionsLength() {
+        return (numBlocks() > 1 ? numBlocks() * Integer.BYTES : 0) + positionsLength;
+    }
+
+    // writes the table of block position end offsets (only when there is more than one block) followed by the positions stream to
+    // the positions file
+    public void writePositionsTo(DataOutputStream out) throws IOException {
+        int numBlocks = numBlocks();
+        if (numBlocks > 1) {
+            for (int block = 0; block < numBlocks; block++) {
+                out.writeInt(block == numBlocks - 1 ? positionsLength : blockPositionEnds[block]);
+            }
+        }
+        out.write(positions, 0, positionsLength);
+    }
+
+    // writes the list to a partial run file during indexing: doc frequency, byte length and the encoded bytes, no skip table,
+    // followed by the length and bytes of the positions stream for a positional list
+    public void writeRunTo(DataOutputStream out) throws IOException {
+        out.writeInt(docFrequency);
+        out.writeInt(length);
+        out.write(bytes, 0, length);
+        if (positions != null) {
+            out.writeInt(positionsLength);
+            out.write(positions, 0, positionsLength);
+        }
+    }
+
+    // reads back a list written by writeRunTo, only meant to be appended to the final list with addAll
+    public static EncodedPostings readRunFrom(DataInputStream in, boolean positional) throws IOException {
+        EncodedPostings postings = new EncodedPostings();
+        postings.docFrequency = in.readInt();
+        postings.length = in.readInt();
+        postings.bytes = new byte[postings.length];
+        in.readFully(postings.bytes);
+        if (positional) {
+            postings.positionsLength = in.readInt();
+            postings.positions = new byte[postings.positionsLength];
+            in.readFully(postings.positions);
+        }
+        return postings;
+    }
+
+    // appends one variable byte encoded int, low 7 bits first
+    private void writeVByte(int value) {
+        if (length + 5 > bytes.length) {
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+        while (value >= 128) {
+            bytes[length++] = (byte) (value & 127);
+            value >>>= 7;
+        }
+        bytes[length++] = (byte) (value | 128);
+    }
+
+    // appends one variable byte encoded int to the positions stream
+    private void writePositionVByte(int value) {
+        if (positionsLength + 5 > positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(16, positions.length * 2));
+        }
+        while (value >= 128) {
+            positions[positionsLength++] = (byte) (value & 127);
+            value >>>= 7;
+        }
+        positions[positionsLength++] = (byte) (value | 128);
+    }
+
+    // reads one variable byte encoded int at the read position of the positions stream
+    private int readPositionVByte() {
+        int value = 0;
+        int shift = 0;
+        byte b = positions[positionsReadPosition++];
+        while (b >= 0) {
+            value |= b << shift;
+            shift += 7;
+            b = positions[positionsReadPosition++];
+        }
+        return value | ((b & 127) << shift);
+    }
+
+    // reads one variable byte encoded int at the read position
+    private int readVByte() {
+        int value = 0;
+        int shift = 0;
+        byte b = bytes[readPosition++];
+        while (b >= 0) {
+            value |= b << shift;
+            shift += 7;
+            b = bytes[readPosition++];
+        }
+        return value | ((b & 127) << shift);
+    }
+}
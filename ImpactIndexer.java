@@ -0,0 +1,188 @@
+// Post processing step that turns the index written by IndexEngine into an impact index, where every posting holds its BM25
+// score quantized to a small integer instead of the count of the term. scores only depend on the collection, so they are
+// computed once here and query evaluation reduces to adding up integer impacts, with no length normalization, idf or division
+// left at query time
+//
+// scores are quantized linearly: step = largest score in the index / (2^bits - 1) and impact = round(score / step). the few terms
+// in more than half the docs have negative idf and so negative impacts, every impact is stored plus a bias (minus the smallest
+// impact) to keep them non negative for the variable byte encoding. the impact index uses the same blocks and skip tables as the
+// count index (see EncodedPostings), with each block bound holding its largest quantized score
+//
+// writes impact-index.bin, impact-index-dict.bin and impact-index-scale.bin (int bits, double step, int bias) to the index
+// directory, after which BM25SearchEngine, SearchServer and BatchSearch accept the impact retrieval mode
+//
+// increments added later (see IndexManifest) get impact-index.bin and impact-segment-dict.bin of their own from IncrementalIndexer,
+// quantized with this scale and the doc frequencies of the collection when they were added. rerunning this requantizes the index
+// and every increment with the doc frequencies of the whole collection
+//
+// TO RUN:
+// java ImpactIndexer "/path/to/latimes-index" 8
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+public class ImpactIndexer {
+
+    // bits of precision per impact, 8 gives 255 positive levels
+    public static final int DEFAULT_BITS = 8;
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Please provide a path to your latimes-index directory, and optionally the number of bits per impact (default " + DEFAULT_BITS + ").");
+            return;
+        }
+        String indexPath = args[0];
+        if (!new File(indexPath).exists()) {
+            System.out.println("Please provide the proper path to the latimes-index file. This directory does not exist.");
+            return;
+        }
+        int bits = (args.length == 2) ? Integer.parseInt(args[1]) : DEFAULT_BITS;
+        if (bits < 1 || bits > 16) {
+            System.out.println("The number of bits per impact must be between 1 and 16.");
+            return;
+        }
+
+        // the write lock is held for the whole run so IncrementalIndexer cannot merge away the increments being rewritten
+        FileChannel lock;
+        try {
+            lock = IndexManifest.lock(indexPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            // the whole collection, the index and its increments, gives the scale and the doc frequencies
+            IndexManifest manifest = IndexManifest.read(indexPath);
+            InvertedIndex collection = BM25SearchEngine.buildInvertedIndex(indexPath, manifest);
+            if (collection == null) {
+                System.out.println("Could not open the inverted index. Please re-run IndexEngine.");
+                return;
+            }
+            double[] docNorms = BM25SearchEngine.buildDocNorms(manifest, BM25SearchEngine.buildDocLengths(indexPath, manifest));
+
+            InvertedIndex invertedIndex = InvertedIndex.open(indexPath);
+            double[] scale = writeImpacts(invertedIndex, collection, docNorms, bits, indexPath);
+            for (int i = 0; manifest != null && i < manifest.size(); i++) {
+                String incrementPath = manifest.path(indexPath, i);
+                InvertedIndex increment = InvertedIndex.openSegment(incrementPath, null);
+                writeSegmentImpacts(increment, collection, docNorms, scale[0], (int) scale[1], incrementPath);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        } finally {
+            IndexManifest.unlock(lock);
+        }
+        System.out.println("Wrote the impact index in " + (System.currentTimeMillis() - start) / 1000.0 + " seconds.");
+    }
+
+    // quantizes every posting of the count index and writes the impact index next to it, returning its step and bias. collection
+    // is the index with its increments, which scores are computed over, or the index itself
+    public static double[] writeImpacts(InvertedIndex invertedIndex, InvertedIndex collection, double[] docNorms, int bits, String exportPath) throws IOException {
+        int numDocs = docNorms.length;
+        int numTerms = invertedIndex.numTerms();
+
+        // first pass for the range of scores in the collection
+        double maxScore = 0;
+        double minScore = 0;
+        for (int termID = 0; termID < collection.numTerms(); termID++) {
+            PostingsCursor posting = collection.getPosting(termID);
+            double idf = idf(numDocs, posting.docFrequency());
+            int docID;
+            while ((docID = posting.nextDoc()) != PostingsCursor.NO_MORE_DOCS) {
+                double score = BM25SearchEngine.termScore(posting.freq(), docNorms[docID], idf);
+                maxScore = Math.max(maxScore, score);
+                minScore = Math.min(minScore, score);
+            }
+        }
+        double step = maxScore / ((1 << bits) - 1);
+        int bias = -(int) Math.round(minScore / step);
+
+        // the scale goes first so the dictionary, whose modification time is the index generation, is the last file written
+        DataOutputStream scale = new DataOutputStream(new FileOutputStream(exportPath + "/impact-index-scale.bin"));
+        scale.writeInt(bits);
+        scale.writeDouble(step);
+        scale.writeInt(bias);
+        scale.close();
+
+        // second pass quantizing each list, one term in memory at a time
+        DataOutputStream postings = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/impact-index.bin"), 1 << 16));
+        DataOutputStream dictionary = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/impact-index-dict.bin"), 1 << 16));
+        dictionary.writeInt(numTerms);
+        long offset = 0;
+        for (int termID = 0; termID < numTerms; termID++) {
+            PostingsCursor posting = invertedIndex.getPosting(termID);
+            double idf = idf(numDocs, collection.docFrequency(termID));
+            EncodedPostings impacts = new EncodedPostings();
+            float[] blockMaxScores = new float[(posting.docFrequency() + EncodedPostings.BLOCK_SIZE - 1) / EncodedPostings.BLOCK_SIZE];
+            float maxTermScore = quantize(posting, idf, docNorms, step, bias, impacts, blockMaxScores);
+
+            dictionary.writeLong(offset);
+            dictionary.writeInt(impacts.docFrequency());
+            dictionary.writeFloat(maxTermScore);
+            impacts.writeTo(postings, blockMaxScores);
+            offset += impacts.length();
+        }
+        postings.close();
+        dictionary.close();
+        return new double[] {step, bias};
+    }
+
+    // quantizes the postings of an increment with the scale of the index's impact index and writes them next to its count
+    // postings, the dictionary only listing the terms the increment has (the layout of a date segment, see InvertedIndex)
+    public static void writeSegmentImpacts(InvertedIndex segment, InvertedIndex collection, double[] docNorms, double step, int bias, String exportPath) throws IOException {
+        int numDocs = docNorms.length;
+        int[] termIDs = segment.entryTerms();
+        DataOutputStream postings = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/impact-index.bin"), 1 << 16));
+        DataOutputStream dictionary = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/impact-segment-dict.bin"), 1 << 16));
+        dictionary.writeInt(termIDs.length);
+        long offset = 0;
+        for (int termID : termIDs) {
+            PostingsCursor posting = segment.getPosting(termID);
+            double idf = idf(numDocs, collection.docFrequency(termID));
+            EncodedPostings impacts = new EncodedPostings();
+            float[] blockMaxScores = new float[(posting.docFrequency() + EncodedPostings.BLOCK_SIZE - 1) / EncodedPostings.BLOCK_SIZE];
+            float maxTermScore = quantize(posting, idf, docNorms, step, bias, impacts, blockMaxScores);
+
+            dictionary.writeInt(termID);
+            dictionary.writeLong(offset);
+            dictionary.writeInt(impacts.docFrequency());
+            dictionary.writeFloat(maxTermScore);
+            impacts.writeTo(postings, blockMaxScores);
+            offset += impacts.length();
+        }
+        postings.close();
+        dictionary.close();
+    }
+
+    // adds the biased impact of every posting of a list to impacts and the largest score of each block to blockMaxScores,
+    // returning the largest score of the list. impacts below -bias, possible for an increment quantized with an older scale, are
+    // raised to it so stored impacts stay non negative
+    private static float quantize(PostingsCursor posting, double idf, double[] docNorms, double step, int bias, EncodedPostings impacts, float[] blockMaxScores) {
+        float maxTermScore = 0;
+        int i = 0;
+        int docID;
+        while ((docID = posting.nextDoc()) != PostingsCursor.NO_MORE_DOCS) {
+            int impact = Math.max(-bias, (int) Math.round(BM25SearchEngine.termScore(posting.freq(), docNorms[docID], idf) / step));
+            impacts.add(docID, impact + bias);
+
+            // block bounds are in score units, rounded up so they stay bounds on impact times step
+            float quantized = Math.nextUp((float) (impact * step));
+            blockMaxScores[i / EncodedPostings.BLOCK_SIZE] = Math.max(blockMaxScores[i / EncodedPostings.BLOCK_SIZE], quantized);
+            maxTermScore = Math.max(maxTermScore, quantized);
+            i++;
+        }
+        return maxTermScore;
+    }
+
+    // BM25 idf of a term, the same as bm25Retrieval computes
+    private static double idf(int numDocs, int termDocs) {
+        double insideLog = ((double) numDocs - termDocs + 0.5) / (termDocs + 0.5);
+        return Math.log(insideLog);
+    }
+}
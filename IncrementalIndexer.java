@@ -0,0 +1,487 @@
+// Adds docs to an index IndexEngine already built as immutable increments (see IndexManifest), instead of rebuilding the index
+// IndexEngine hands over to this when its index directory already holds an index. the new docs go through the same reader and
+// worker stages as a full build (IndexEngine.readBatches and indexBatch) with docIDs continuing after the last doc of the index,
+// and the merge stage maps batch terms to the ids the index and earlier increments gave them, terms seen for the first time getting
+// ids after every existing term in the order they are first seen. the increment is built in memory, written to
+// increments/increment-G/ with its own DOCNOs, doc lengths, doc store, sentence index, lexicon delta and postings (and positions,
+// impacts and date segments when the index has them), then committed by writing the manifest of generation G
+//
+// the score bounds of every increment are computed with the average doc length of the index IndexEngine built, which BM25 keeps
+// normalizing by once increments were added (see BM25SearchEngine.buildDocNorms), so bounds stay exact as increments come and go
+//
+// increments are merged on a background thread once the new one is committed, so searchers see the new docs right away. the merge
+// policy is tiered: increments of up to MERGE_FACTOR * MIN_MERGE_DOCS docs are in tier 0 and each tier after that holds increments
+// MERGE_FACTOR times larger, and MERGE_FACTOR adjacent increments of the same tier are merged into one of the next tier, so a doc is
+// rewritten about once per tier. only adjacent increments are merged so docIDs stay in order, and the index itself is never
+// rewritten. a lock file keeps a second IndexEngine from adding to the same index until this one and its merges are done
+//
+// TO RUN:
+// java IndexEngine "/path/to/more-latimes.gz" "/path/to/latimes-index"
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class IncrementalIndexer {
+
+    // number of adjacent increments of one tier merged together, and the most docs of an increment in tier 0 over MERGE_FACTOR
+    public static final int MERGE_FACTOR = 4;
+    public static final int MIN_MERGE_DOCS = 1024;
+
+    // adds the docs of zippedFile to the index in indexPath as one increment, read and indexed by numWorkers worker threads, then
+    // merges increments on a thread that keeps running (and keeps the lock) after this returns. false if no increment was added
+    public static boolean addDocuments(File zippedFile, String indexPath, int numWorkers) {
+        FileChannel lock;
+        try {
+            lock = IndexManifest.lock(indexPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        try {
+            IndexManifest manifest = IndexManifest.read(indexPath);
+            if (manifest == null) {
+                manifest = baseManifest(indexPath);
+            }
+
+            // increments a crashed add or merge left behind were never committed
+            removeUnlisted(indexPath, manifest);
+            if (!addIncrement(zippedFile, indexPath, manifest, numWorkers)) {
+                IndexManifest.unlock(lock);
+                return false;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            IndexManifest.unlock(lock);
+            return false;
+        }
+
+        Thread merger = new Thread(() -> {
+            try {
+                mergeIncrements(indexPath);
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                IndexManifest.unlock(lock);
+            }
+        });
+        merger.start();
+        return true;
+    }
+
+    // manifest of an index no increments were added to yet, with its number of docs and terms and its average doc length
+    private static IndexManifest baseManifest(String indexPath) throws IOException {
+        int[] docLengths = BM25SearchEngine.buildDocLengths(indexPath, null);
+        int numTerms = TermDictionary.open(indexPath).size();
+        return new IndexManifest(0, docLengths.length, numTerms, BM25SearchEngine.averageLength(docLengths), new String[0], new int[0], new int[0]);
+    }
+
+    // indexes the docs of zippedFile into a new increment and commits it, false if there were no docs or indexing failed
+    private static boolean addIncrement(File zippedFile, String indexPath, IndexManifest manifest, int numWorkers) throws IOException {
+        String name = "increment-" + (manifest.generation + 1);
+        File directory = new File(new File(indexPath, IndexManifest.DIRECTORY), name);
+        directory.mkdirs();
+        String exportPath = directory.getPath();
+
+        // docs and terms continue from the index and the increments before this one, stored the way the index stores them
+        int firstDoc = manifest.totalDocs();
+        int firstTerm = manifest.totalTerms();
+        DocumentStore store = DocumentStore.open(indexPath);
+        boolean compressDocuments = store.isCompressed();
+        store.close();
+        boolean positional = new File(indexPath, "positions-dict.bin").exists();
+
+        // terms of the index and the increments before this one, and the terms first seen in this one
+        TermDictionary dictionary = BM25SearchEngine.buildLexicon(indexPath, manifest);
+        if (dictionary == null) {
+            return false;
+        }
+        Lexicon newTerms = new Lexicon();
+
+        // posting lists by term id, only the terms of this increment have one
+        ArrayList<EncodedPostings> invertedIndex = new ArrayList<>();
+        ArrayList<String> docnos = new ArrayList<>();
+        ArrayList<Integer> docLengths = new ArrayList<>();
+
+        DocumentStoreWriter documents = new DocumentStoreWriter(exportPath, compressDocuments);
+        SentenceIndexWriter sentences = new SentenceIndexWriter(exportPath);
+        BufferedWriter docnoWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(exportPath + "/DOCNOs.txt"), StandardCharsets.UTF_8), 1 << 16);
+        DataOutputStream docLengthWriter = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/doc-lengths.bin"), 1 << 16));
+
+        // the same pipeline as a full build, see IndexEngine.main
+        IndexMetrics metrics = new IndexMetrics(firstTerm);
+        ExecutorService workers = Executors.newFixedThreadPool(numWorkers);
+        BlockingQueue<Future<PartialIndex>> pending = new ArrayBlockingQueue<>(numWorkers * 4);
+        Thread reader = new Thread(() -> IndexEngine.readBatches(zippedFile, firstDoc, compressDocuments, positional, workers, pending));
+        reader.start();
+
+        try {
+            // a null batch marks the end of the collection
+            PartialIndex batch = pending.take().get();
+            while (batch != null) {
+                IndexEvent event = new IndexEvent();
+                event.begin();
+                long mergeStart = System.nanoTime();
+                mergeBatch(batch, dictionary, newTerms, firstTerm, invertedIndex, docnos, docLengths, documents, sentences, docnoWriter, docLengthWriter);
+                metrics.batchMerged(batch, System.nanoTime() - mergeStart, firstTerm + newTerms.size());
+                IndexEngine.commitEvent(event, "merge", batch.docNOs.size(), batch.chars, firstTerm + newTerms.size());
+                batch = pending.take().get();
+            }
+        } catch (InterruptedException | ExecutionException | IOException | RuntimeException e) {
+            // the increment was never committed, so dropping its directory leaves the index as it was (whatever cannot be
+            // deleted yet is removed by the next add, see removeUnlisted)
+            e.printStackTrace();
+            IndexEngine.stopPipeline(reader, workers, pending);
+            IndexEngine.delete(directory);
+            System.out.println("Adding the documents failed and the index was left as it was.");
+            return false;
+        }
+        workers.shutdown();
+        documents.close();
+        sentences.close(term -> termID(term, dictionary, newTerms, firstTerm));
+        docnoWriter.close();
+        docLengthWriter.close();
+
+        if (docnos.isEmpty()) {
+            IndexEngine.delete(directory);
+            System.out.println("There were no documents to add.");
+            return false;
+        }
+
+        IndexEvent event = new IndexEvent();
+        event.begin();
+        long saveStart = System.nanoTime();
+        int numDocs = docnos.size();
+        TermDictionary.write(newTerms, firstTerm, exportPath);
+
+        // doc lengths and DOCNOs of the whole collection with this increment, by docID
+        int[] allDocLengths = BM25SearchEngine.buildDocLengths(indexPath, manifest);
+        int numCommitted = allDocLengths.length;
+        allDocLengths = Arrays.copyOf(allDocLengths, numCommitted + numDocs);
+        for (int d = 0; d < numDocs; d++) {
+            allDocLengths[numCommitted + d] = docLengths.get(d);
+        }
+        ArrayList<String> allDocnos = BM25SearchEngine.buildDocnos(indexPath, manifest);
+        allDocnos.addAll(docnos);
+
+        PostingsWriter postings = new PostingsWriter(exportPath, positional);
+        for (int termID = 0; termID < invertedIndex.size(); termID++) {
+            if (invertedIndex.get(termID) != null) {
+                postings.add(termID, invertedIndex.get(termID), allDocLengths, manifest.avgLength);
+            }
+        }
+        postings.close();
+
+        // impacts are computed with the doc frequencies of the whole collection, this increment included
+        InvertedIndex increment = InvertedIndex.openSegment(exportPath, null);
+        InvertedIndex[] parts = {BM25SearchEngine.buildInvertedIndex(indexPath, manifest), increment};
+        InvertedIndex collection = InvertedIndex.combine(parts, new int[] {0, firstDoc}, firstTerm + newTerms.size(), 0);
+        writeDerived(indexPath, exportPath, manifest, increment, collection, firstDoc, numDocs, allDocnos, allDocLengths);
+
+        // the increment is part of the index from here on
+        manifest.withIncrement(name, numDocs, newTerms.size()).write(indexPath);
+        metrics.indexSaved(System.nanoTime() - saveStart);
+        IndexEngine.commitEvent(event, "save", numDocs, 0, firstTerm + newTerms.size());
+        System.out.println(metrics.summary(firstTerm + newTerms.size()));
+        System.out.println("Added " + numDocs + " documents as " + name + ".");
+        return true;
+    }
+
+    // merge stage of an increment, the same as IndexEngine.mergeBatch except that terms the index or an earlier increment has keep
+    // their id and only new terms are added, to newTerms with ids from firstTerm on
+    private static void mergeBatch(PartialIndex batch, TermDictionary dictionary, Lexicon newTerms, int firstTerm, ArrayList<EncodedPostings> invertedIndex, ArrayList<String> docnos, ArrayList<Integer> docLengths, DocumentStoreWriter documents, SentenceIndexWriter sentences, BufferedWriter docnoWriter, DataOutputStream docLengthWriter) throws IOException {
+        for (int localID = 0; localID < batch.lexicon.size(); localID++) {
+            String term = batch.lexicon.term(localID);
+            int termID = dictionary.get(term);
+            if (termID < 0) {
+                termID = firstTerm + newTerms.add(term);
+            }
+            while (invertedIndex.size() <= termID) {
+                invertedIndex.add(null);
+            }
+            EncodedPostings postingList = invertedIndex.get(termID);
+            if (postingList == null) {
+                postingList = new EncodedPostings(batch.invertedIndex.get(localID).hasPositions());
+                invertedIndex.set(termID, postingList);
+            }
+            postingList.addAll(batch.invertedIndex.get(localID));
+        }
+
+        for (int i = 0; i < batch.docNOs.size(); i++) {
+            docnoWriter.write(batch.docNOs.get(i));
+            docnoWriter.write('\n');
+            docLengthWriter.writeInt(batch.docLengths.get(i));
+            docnos.add(batch.docNOs.get(i));
+            docLengths.add(batch.docLengths.get(i));
+            documents.append(batch.documents.get(i));
+        }
+        sentences.appendBatch(batch.words, batch.sentenceTexts, batch.sentenceIDs);
+    }
+
+    // id of a term in the index, an earlier increment or this one, -1 if none has it
+    private static int termID(String term, TermDictionary dictionary, Lexicon newTerms, int firstTerm) {
+        int termID = dictionary.get(term);
+        if (termID >= 0) {
+            return termID;
+        }
+        int newID = newTerms.get(term);
+        return (newID < 0) ? -1 : firstTerm + newID;
+    }
+
+    // writes what the index has besides postings for the increment in exportPath: its impacts when the index has an impact index,
+    // quantized with the index's scale, and its date segments when the index was split into date segments. collection is every
+    // part of the index with this increment, docnos and docLengths cover every doc of it
+    private static void writeDerived(String indexPath, String exportPath, IndexManifest manifest, InvertedIndex increment, InvertedIndex collection, int firstDoc, int numDocs, ArrayList<String> docnos, int[] docLengths) throws IOException {
+        if (new File(indexPath, "impact-index-scale.bin").exists()) {
+            InvertedIndex impacts = InvertedIndex.openImpacts(indexPath);
+            double[] docNorms = BM25SearchEngine.buildDocNorms(docLengths, manifest.avgLength);
+            ImpactIndexer.writeSegmentImpacts(increment, collection, docNorms, impacts.impactStep(), impacts.impactBias(), exportPath);
+        }
+        if (new File(indexPath, "segments").exists()) {
+            SegmentIndexer.writeSegments(increment, docnos, docLengths, firstDoc, numDocs, manifest.avgLength, exportPath);
+        }
+    }
+
+    // merges MERGE_FACTOR adjacent increments of the same tier into one until there are none left to merge
+    public static void mergeIncrements(String indexPath) throws IOException {
+        IndexManifest manifest = IndexManifest.read(indexPath);
+        int first = (manifest == null) ? -1 : mergeWindow(manifest);
+        while (first >= 0) {
+            long start = System.currentTimeMillis();
+            manifest = merge(indexPath, manifest, first, first + MERGE_FACTOR);
+            System.out.println("Merged " + MERGE_FACTOR + " increments into " + manifest.name(first) + " (" + manifest.numDocs(first) + " documents) in " + (System.currentTimeMillis() - start) / 1000.0 + " seconds.");
+            first = mergeWindow(manifest);
+        }
+    }
+
+    // first of the earliest MERGE_FACTOR adjacent increments in the same tier, -1 if there are none
+    public static int mergeWindow(IndexManifest manifest) {
+        for (int first = 0; first + MERGE_FACTOR <= manifest.size(); first++) {
+            int tier = tier(manifest.numDocs(first));
+            int last = first + 1;
+            while (last < first + MERGE_FACTOR && tier(manifest.numDocs(last)) == tier) {
+                last++;
+            }
+            if (last == first + MERGE_FACTOR) {
+                return first;
+            }
+        }
+        return -1;
+    }
+
+    // tier of an increment of numDocs docs, floor(log(max(numDocs, MIN_MERGE_DOCS) / MIN_MERGE_DOCS)) in base MERGE_FACTOR
+    public static int tier(int numDocs) {
+        int tier = 0;
+        long size = (long) MIN_MERGE_DOCS * MERGE_FACTOR;
+        while (numDocs >= size) {
+            tier++;
+            size *= MERGE_FACTOR;
+        }
+        return tier;
+    }
+
+    // merges the increments first to last - 1 into one, commits it and deletes them, returning the manifest committed. their docs
+    // keep their docIDs and their new terms their ids, so nothing outside the merged increments changes
+    private static IndexManifest merge(String indexPath, IndexManifest manifest, int first, int last) throws IOException {
+        String name = "increment-" + (manifest.generation + 1);
+        File directory = new File(new File(indexPath, IndexManifest.DIRECTORY), name);
+        directory.mkdirs();
+        String exportPath = directory.getPath();
+
+        int numParts = last - first;
+        String[] paths = new String[numParts];
+        int numDocs = 0;
+        for (int p = 0; p < numParts; p++) {
+            paths[p] = manifest.path(indexPath, first + p);
+            numDocs += manifest.numDocs(first + p);
+        }
+
+        // DOCNOs and doc lengths one after the other, the doc store and sentence index record by record
+        concatenate(paths, "DOCNOs.txt", exportPath);
+        concatenate(paths, "doc-lengths.bin", exportPath);
+        DocumentStore[] stores = new DocumentStore[numParts];
+        SentenceIndex[] sentences = new SentenceIndex[numParts];
+        for (int p = 0; p < numParts; p++) {
+            stores[p] = DocumentStore.open(paths[p]);
+            sentences[p] = SentenceIndex.open(paths[p]);
+        }
+        DocumentStore.merge(stores, exportPath);
+        SentenceIndex.merge(sentences, exportPath);
+        for (int p = 0; p < numParts; p++) {
+            stores[p].close();
+            sentences[p].close();
+        }
+
+        // the lexicon deltas, whose id ranges follow each other, so adding their terms in id order keeps every id
+        Lexicon newTerms = new Lexicon();
+        for (int p = 0; p < numParts; p++) {
+            for (String term : TermDictionary.open(paths[p]).terms(manifest.firstTerm(first + p))) {
+                newTerms.add(term);
+            }
+        }
+        TermDictionary.write(newTerms, manifest.firstTerm(first), exportPath);
+
+        // every term of any of the increments in term id order, its list the lists of the increments one after the other
+        boolean positional = new File(indexPath, "positions-dict.bin").exists();
+        int[] docLengths = BM25SearchEngine.buildDocLengths(indexPath, manifest);
+        InvertedIndex[] parts = new InvertedIndex[numParts];
+        int[][] termIDs = new int[numParts][];
+        int[] next = new int[numParts];
+        for (int p = 0; p < numParts; p++) {
+            parts[p] = InvertedIndex.openSegment(paths[p], null);
+            termIDs[p] = parts[p].entryTerms();
+        }
+        PostingsWriter postings = new PostingsWriter(exportPath, positional);
+        int[] docPositions = new int[16];
+        while (true) {
+            int termID = Integer.MAX_VALUE;
+            for (int p = 0; p < numParts; p++) {
+                if (next[p] < termIDs[p].length) {
+                    termID = Math.min(termID, termIDs[p][next[p]]);
+                }
+            }
+            if (termID == Integer.MAX_VALUE) {
+                break;
+            }
+
+            EncodedPostings postingList = new EncodedPostings(positional);
+            for (int p = 0; p < numParts; p++) {
+                if (next[p] < termIDs[p].length && termIDs[p][next[p]] == termID) {
+                    next[p]++;
+                    PostingsCursor posting = positional ? parts[p].getPositions(termID) : parts[p].getPosting(termID);
+                    int docID;
+                    while ((docID = posting.nextDoc()) != PostingsCursor.NO_MORE_DOCS) {
+                        if (positional) {
+                            docPositions = posting.positions(docPositions);
+                            postingList.add(docID, posting.freq(), docPositions, 0);
+                        } else {
+                            postingList.add(docID, posting.freq());
+                        }
+                    }
+                }
+            }
+            postings.add(termID, postingList, docLengths, manifest.avgLength);
+        }
+        postings.close();
+
+        InvertedIndex increment = InvertedIndex.openSegment(exportPath, null);
+        InvertedIndex collection = BM25SearchEngine.buildInvertedIndex(indexPath, manifest);
+        writeDerived(indexPath, exportPath, manifest, increment, collection, manifest.firstDoc(first), numDocs, BM25SearchEngine.buildDocnos(indexPath, manifest), docLengths);
+
+        // searchers that still have the merged increments open keep reading them, deleted files stay readable until closed
+        IndexManifest committed = manifest.withMerge(first, last, name);
+        committed.write(indexPath);
+        for (String path : paths) {
+            IndexEngine.delete(new File(path));
+        }
+        return committed;
+    }
+
+    // writes the postings of an increment one term at a time in term id order, to inverted-index.bin and segment-dict.bin in the
+    // layout of a date segment (see InvertedIndex) and, for a positional index, to positions.bin and positions-dict.bin
+    private static class PostingsWriter {
+
+        private final String exportPath;
+        private final DataOutputStream postings;
+        private final DataOutputStream positions;
+
+        // dictionary entries, kept in memory until their number is known
+        private final ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+        private final DataOutputStream entries = new DataOutputStream(entryBytes);
+        private final ByteArrayOutputStream positionEntryBytes = new ByteArrayOutputStream();
+        private final DataOutputStream positionEntries = new DataOutputStream(positionEntryBytes);
+        private int numEntries = 0;
+        private long offset = 0;
+        private long positionsOffset = 0;
+
+        PostingsWriter(String exportPath, boolean positional) throws IOException {
+            this.exportPath = exportPath;
+            postings = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/inverted-index.bin"), 1 << 16));
+            positions = positional ? new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/positions.bin"), 1 << 16)) : null;
+        }
+
+        // writes the list of a term, term ids must increase. bounds are computed the same way IndexEngine computes them
+        void add(int termID, EncodedPostings postingList, int[] docLengths, double avgLength) throws IOException {
+            float[] blockMaxWeights = postingList.blockMaxWeights(docLengths, avgLength);
+            float maxTermWeight = 0;
+            for (float weight : blockMaxWeights) {
+                maxTermWeight = Math.max(maxTermWeight, weight);
+            }
+            entries.writeInt(termID);
+            entries.writeLong(offset);
+            entries.writeInt(postingList.docFrequency());
+            entries.writeFloat(maxTermWeight);
+            postingList.writeTo(postings, blockMaxWeights);
+            offset += postingList.length();
+
+            if (positions != null) {
+                positionEntries.writeLong(positionsOffset);
+                postingList.writePositionsTo(positions);
+                positionsOffset += postingList.positionsLength();
+            }
+            numEntries++;
+        }
+
+        // closes the files and writes the dictionaries, the postings dictionary last
+        void close() throws IOException {
+            postings.close();
+            if (positions != null) {
+                positions.close();
+                try (DataOutputStream dictionary = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/positions-dict.bin"), 1 << 16))) {
+                    dictionary.writeInt(numEntries);
+                    positionEntryBytes.writeTo(dictionary);
+                }
+            }
+            try (DataOutputStream dictionary = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/segment-dict.bin"), 1 << 16))) {
+                dictionary.writeInt(numEntries);
+                entryBytes.writeTo(dictionary);
+            }
+        }
+    }
+
+    // writes the files of the given name in paths one after the other to the file of that name in exportPath
+    private static void concatenate(String[] paths, String fileName, String exportPath) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(exportPath, fileName)), 1 << 16)) {
+            for (String path : paths) {
+                Files.copy(Paths.get(path, fileName), out);
+            }
+        }
+    }
+
+    // deletes the directories under increments/ the manifest does not list
+    private static void removeUnlisted(String indexPath, IndexManifest manifest) {
+        HashSet<String> listed = new HashSet<>();
+        for (int i = 0; i < manifest.size(); i++) {
+            listed.add(manifest.name(i));
+        }
+        File[] directories = new File(indexPath, IndexManifest.DIRECTORY).listFiles(File::isDirectory);
+        if (directories == null) {
+            return;
+        }
+        for (File directory : directories) {
+            if (!listed.contains(directory.getName())) {
+                IndexEngine.delete(directory);
+            }
+        }
+    }
+}
@@ -1,4 +1,4 @@
-// Program unzips and reads in files, parsing doc by doc and exporting meta data and raw data to directory organized by date of the article/doc
+// Program unzips and reads in files, parsing doc by doc and exporting meta data and raw data to a packed doc store (see DocumentStore)
 
 // TO RUN (locally):
 // javac IndexEngine.java
@@ -9,26 +9,47 @@
 // java IndexEngine "/Users/thomaskleinknecht/Desktop/MSCI 541/HWTEST/testdocs.gz" "/Users/thomaskleinknecht/Desktop/MSCI 541/HWTEST/latimes-index"
 
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.zip.GZIPInputStream;
 import java.io.File;
-import java.io.FileWriter;
 import java.util.Map;
 import java.util.HashMap;
 import java.lang.Character;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 public class IndexEngine {
 
+    // number of consecutive docs handed to a worker thread at a time
+    public static final int BATCH_SIZE = 256;
+
     public static void main(String[] args) {
         
         
         //checking for command line arguments
-        if (args.length != 2) {
-            System.out.println("Please provide a path to the latimes.gz file and a path to a directory where the documents and metadata will be stored as arguments to the IndexEngine program. Ensure each path enclosed in quotations.");
+        if (args.length < 2 || args.length > 6) {
+            System.out.println("Please provide a path to the latimes.gz file and a path to a directory where the documents and metadata will be stored as arguments to the IndexEngine program. Ensure each path enclosed in quotations. Optionally add the number of worker threads (default one per core) the memory budget for postings in MB (default a quarter of the heap) how raw docs are stored, deflate (default) or plain, and positions to also index the position of every word for phrase queries. If the directory already holds an index the documents are added to it.");
         } else {
             // reading in zipped file directory
             File zippedFileDirectory = new File(args[0]);
@@ -43,116 +64,333 @@ public class IndexEngine {
                 System.out.println("Please provide the proper path to the latimes.gz file. This directory does not exist.");
             } else if (!exportDirectory.exists()) {
                 System.out.println("Please provide the proper path to the latimes-index file. This directory does not exist.");
+            } else if (files.length != 0 && new File(exportDirectory, "inverted-index-dict.bin").exists()) {
+                // an index is already there, the docs are added to it as an increment rather than indexed from scratch
+                int numWorkers = (args.length >= 3) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+                if (!IncrementalIndexer.addDocuments(zippedFileDirectory, args[1], numWorkers)) {
+                    System.exit(1);
+                }
             } else if (files.length != 0) {
                 System.out.println("The directory of files already exists. Program has been stopped.");
             } else {
                 // adding files for storing docnos, doc lengths, and lexicon
                 createMapping(args[1]);
                 
-                // creating lexicon for mapping words to ids, and list to store the words in order of id for easy output
-                HashMap<String, Integer> lexicon = new HashMap<>();
-                ArrayList<String> lexiconWords = new ArrayList<>();
-
-                // creating inverted index
-                HashMap<Integer, ArrayList<Integer>> invertedIndex = new HashMap<>();
+                // creating lexicon for mapping words to ids, it also keeps the words in order of id for easy output
+                Lexicon lexicon = new Lexicon();
+
+                // creating inverted index, posting lists are indexed by term id and kept compressed in memory
+                // once they take more than the memory budget they are flushed to disk as a sorted run and merged at the end
+                ArrayList<EncodedPostings> invertedIndex = new ArrayList<>();
+                long memoryBudget = (args.length >= 4) ? Long.parseLong(args[3]) * 1024 * 1024 : Runtime.getRuntime().maxMemory() / 4;
+                long memoryUsed = 0;
+                int numRuns = 0;
+
+                // doc lengths are kept as well so the per term score bounds can be computed when the index is saved
+                ArrayList<Integer> docLengths = new ArrayList<>();
                 
-                // reading in file and executing program
-                try {
-                    FileInputStream fileInputStream = new FileInputStream(zippedFileDirectory);
-                    GZIPInputStream gzipInputStream = new GZIPInputStream(fileInputStream);
-                    InputStreamReader decoder = new InputStreamReader(gzipInputStream);
-                    BufferedReader buffered = new BufferedReader(decoder);
-                    String currentDoc = zippedToString(buffered);
-                    int internalID = 0;
-
-                    
-
-                    // while loop checks to see that we are not at end of file, and if not it will perform each of our methods which we need to do to process each doc then go to the next
-                    while (!currentDoc.equals("")) {
-                        // extract DOCNO
-                        String docNO = currentDoc.substring(currentDoc.indexOf("<DOCNO>") + 7, currentDoc.indexOf("</DOCNO>")).trim();
-
-                        // extract headline, graphic, and text
-                        String headline = extractSection(currentDoc, "HEADLINE");
-                        String graphic = extractSection(currentDoc, "GRAPHIC");
-                        String text = extractSection(currentDoc, "TEXT");
-                        String allText = headline + " " + graphic + " " + text;
-
-                        // tokenize allText
-                        ArrayList<String> tokens = tokenizer(allText);
-
-                        // read tokens to term ids and add to lexicon if needed
-                        ArrayList<Integer> tokenIDs = convertTokensToIDs(tokens, lexicon, lexiconWords);
-
-                        // find count of words in the doc
-                        HashMap<Integer, Integer> wordCounts = countWords(tokenIDs);
-
-                        // add word counts to inverted index with docID
-                        addToPostings(wordCounts, internalID, invertedIndex);
-
-                        // extract date from DOCNO
-                        String MM = docNO.substring(2, 4);
-                        String DD = docNO.substring(4, 6);
-                        String YY = docNO.substring(6, 8);
-                        String date = formatDate(DD, MM, YY);
-                        
-                        // export DOCNO and doc length to mapping files
-                        mappingEntry(docNO, "DOCNOs.txt", args[1]);
-                        String docLength = Integer.toString(tokens.size());
-                        mappingEntry(docLength, "doc-lengths.txt", args[1]);
-                        
-                        // enter directory check for folders and create if needed
-                        directorySetup(YY, MM, DD, args[1]);
-
-                        // enter directory and export raw doc and metadata
-                        String exactFilePath = args[1] + "/" + YY + "/" + MM + "/" + DD;
-                        createFiles(currentDoc, docNO, internalID, date, headline, exactFilePath);
-
-                        // increment internal ID
-                        internalID += 1;
-                        
-                        // attempt to read in next doc
-                        currentDoc = zippedToString(buffered);
-                    }
+                // raw docs and metadata go to one packed doc store instead of a file per doc, deflate compressed unless plain is asked for
+                boolean compressDocuments = (args.length >= 5) ? !args[4].equals("plain") : true;
 
+                // word positions are only indexed when asked for, they take more space than the counts
+                boolean positional = (args.length == 6) && args[5].equals("positions");
+                DocumentStoreWriter documents;
+
+                // snippet sentences of every doc, tokenized at index time
+                SentenceIndexWriter sentences;
+
+                // DOCNOs (one per line) and doc lengths (one big endian int each) are written through long lived buffered writers,
+                // line and position in the file are the docID
+                BufferedWriter docnoWriter;
+                DataOutputStream docLengthWriter;
+                try {
+                    documents = new DocumentStoreWriter(args[1], compressDocuments);
+                    sentences = new SentenceIndexWriter(args[1]);
+                    docnoWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[1] + "/DOCNOs.txt"), StandardCharsets.UTF_8), 1 << 16);
+                    docLengthWriter = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(args[1] + "/doc-lengths.bin"), 1 << 16));
                 } catch (IOException e) {
                     e.printStackTrace();
+                    return;
                 }
 
-                saveLexicon(lexiconWords, args[1]);
-                saveInvertedIndex(invertedIndex, args[1]);
+                // pipeline: a reader thread splits the gzip stream into batches of docs, a pool of workers parses, tokenizes and
+                // exports each batch into its own partial index, and this thread merges the partial indexes in docID order
+                // progress and stage times, printed while indexing and at the end
+                IndexMetrics metrics = new IndexMetrics();
+
+                int numWorkers = (args.length >= 3) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+                ExecutorService workers = Executors.newFixedThreadPool(numWorkers);
+
+                // batches in docID order, bounded so the reader cannot run far ahead of the merge
+                BlockingQueue<Future<PartialIndex>> pending = new ArrayBlockingQueue<>(numWorkers * 4);
+
+                Thread reader = new Thread(() -> readBatches(zippedFileDirectory, 0, compressDocuments, positional, workers, pending));
+                reader.start();
+
+                try {
+                    // a null batch marks the end of the collection
+                    PartialIndex batch = pending.take().get();
+                    while (batch != null) {
+                        IndexEvent event = new IndexEvent();
+                        event.begin();
+                        long mergeStart = System.nanoTime();
+                        memoryUsed += mergeBatch(batch, lexicon, invertedIndex, docLengths, documents, sentences, docnoWriter, docLengthWriter);
+                        metrics.batchMerged(batch, System.nanoTime() - mergeStart, lexicon.size());
+                        commitEvent(event, "merge", batch.docNOs.size(), batch.chars, lexicon.size());
+                        if (memoryUsed > memoryBudget) {
+                            flushRun(invertedIndex, numRuns, args[1], metrics);
+                            numRuns++;
+                            memoryUsed = 0;
+                        }
+                        batch = pending.take().get();
+                    }
+
+                    // whatever is left joins the runs on disk if there are any, otherwise the index is written straight from memory
+                    if (numRuns > 0) {
+                        flushRun(invertedIndex, numRuns, args[1], metrics);
+                        numRuns++;
+                    }
+                    documents.close();
+                    sentences.close(lexicon::get);
+                    docnoWriter.close();
+                    docLengthWriter.close();
+                } catch (InterruptedException | ExecutionException | IOException | RuntimeException e) {
+                    // nothing is saved when a batch fails, and what was written so far is removed (the directory was empty) so a
+                    // later run never takes it for an index and adds docs to it
+                    e.printStackTrace();
+                    stopPipeline(reader, workers, pending);
+                    for (File file : exportDirectory.listFiles()) {
+                        delete(file);
+                    }
+                    System.out.println("Indexing failed and the index was not saved.");
+                    System.exit(1);
+                }
+                workers.shutdown();
+
+                IndexEvent event = new IndexEvent();
+                event.begin();
+                long saveStart = System.nanoTime();
+                saveLexicon(lexicon, args[1]);
+                saveInvertedIndex(invertedIndex, numRuns, docLengths, args[1], positional);
+                metrics.indexSaved(System.nanoTime() - saveStart);
+                commitEvent(event, "save", docLengths.size(), 0, lexicon.size());
+                System.out.println(metrics.summary(lexicon.size()));
             }
         }
     }
 
-    // method to read in zipped file and unzip it to access it as a string
-    public static String zippedToString (BufferedReader buffered) throws IOException {
-        //if (buffered == null) {
-          //  return "";
-        //}
+    // reader stage, splits the gzip stream into docs and hands batches of BATCH_SIZE consecutive docs to the worker pool, docIDs
+    // starting at firstDocID (0 unless docs are added to an existing index, see IncrementalIndexer)
+    // the end of the collection is marked with a null batch, or with a failed batch if reading fails (a truncated or corrupt gzip
+    // stream), which the merge fails on like on any other failed batch so a partial collection is never saved as a whole one
+    public static void readBatches(File zippedFile, int firstDocID, boolean compressDocuments, boolean positional, ExecutorService workers, BlockingQueue<Future<PartialIndex>> pending) {
+        try {
+            Future<PartialIndex> end = CompletableFuture.completedFuture(null);
+            try {
+                // large buffers on both sides of the gzip stream so decompression works on big chunks
+                long start = System.nanoTime();
+                FileInputStream fileInputStream = new FileInputStream(zippedFile);
+                GZIPInputStream gzipInputStream = new GZIPInputStream(fileInputStream, 1 << 16);
+                InputStreamReader decoder = new InputStreamReader(gzipInputStream);
+                TrecReader trecReader = new TrecReader(decoder, 1 << 20);
+
+                int docBase = firstDocID;
+                ArrayList<String> docs = new ArrayList<>();
+                String currentDoc = trecReader.nextDoc();
+
+                // while loop checks to see that we are not at end of file, and queues a batch every BATCH_SIZE docs
+                while (currentDoc != null) {
+                    docs.add(currentDoc);
+                    if (docs.size() == BATCH_SIZE) {
+                        submitBatch(docs, docBase, compressDocuments, positional, workers, pending);
+                        docBase += docs.size();
+                        docs = new ArrayList<>();
+                    }
+                    currentDoc = trecReader.nextDoc();
+                }
+                if (!docs.isEmpty()) {
+                    submitBatch(docs, docBase, compressDocuments, positional, workers, pending);
+                }
+                trecReader.close();
+
+                // read throughput, includes time spent blocked on a full queue so it is a lower bound when the workers are behind
+                double seconds = (System.nanoTime() - start) / 1e9;
+                double megabytes = trecReader.charsRead() / (1024.0 * 1024.0);
+                System.out.printf("Read %.1f MB of documents in %.2f seconds (%.1f MB/s).%n", megabytes, seconds, megabytes / seconds);
+            } catch (RejectedExecutionException e) {
+                // the merge failed and shut the worker pool down (see stopPipeline), there is no point reading further
+            } catch (IOException | RuntimeException e) {
+                end = CompletableFuture.failedFuture(e);
+            } finally {
+                pending.put(end);
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
 
+    // stops the pipeline once the merge failed, the workers are interrupted and refuse new batches, which ends the reader at its
+    // next batch, and queued batches are dropped until it has ended so it is never left blocked on a full queue
+    public static void stopPipeline(Thread reader, ExecutorService workers, BlockingQueue<Future<PartialIndex>> pending) {
+        workers.shutdownNow();
         try {
+            while (reader.isAlive()) {
+                pending.clear();
+                reader.join(100);
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        pending.clear();
+    }
+
+    // deletes a file, or a directory with everything in it
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
 
-        String line = buffered.readLine();
-        String unzippedDoc = line;
+    // queues one batch of docs on the worker pool, blocking while the merge is behind
+    public static void submitBatch(ArrayList<String> docs, int docBase, boolean compressDocuments, boolean positional, ExecutorService workers, BlockingQueue<Future<PartialIndex>> pending) throws InterruptedException {
+        pending.put(workers.submit(() -> indexBatch(docs, docBase, compressDocuments, positional)));
+    }
 
-        if (line == null || line.isEmpty()) {
+    // worker stage, runs each doc of a batch through parsing, tokenizing and encoding its doc store record, building a partial index
+    // with batch local term ids
+    public static PartialIndex indexBatch(ArrayList<String> docs, int docBase, boolean compressDocuments, boolean positional) {
+        IndexEvent event = new IndexEvent();
+        event.begin();
+        long start = System.nanoTime();
+        PartialIndex batch = new PartialIndex(docBase);
+        Tokenizer tokenizer = new Tokenizer();
+
+        for (int i = 0; i < docs.size(); i++) {
+            String currentDoc = docs.get(i);
+            int internalID = docBase + i;
+
+            // find the section boundaries in one pass and extract DOCNO
+            TrecDocument parsed = TrecDocument.parse(currentDoc);
+            String docNO = parsed.docNO();
+
+            // extract headline, graphic, and text
+            String headline = TrecDocument.clean(parsed.headline());
+            String graphic = TrecDocument.clean(parsed.graphic());
+            String text = TrecDocument.clean(parsed.text());
+
+            // tokenize headline, graphic and text straight to batch local term ids, adding to the batch lexicon if needed
+            tokenizer.reset();
+            tokenizer.tokenize(headline, batch.lexicon, true);
+            tokenizer.tokenize(graphic, batch.lexicon, true);
+            tokenizer.tokenize(text, batch.lexicon, true);
+
+            if (positional) {
+                // add the positions of each word to the batch inverted index, their number is the count
+                addPositionsToPostings(tokenizer, internalID, batch.invertedIndex);
+            } else {
+                // find count of words in the doc
+                HashMap<Integer, Integer> wordCounts = countWords(tokenizer);
 
-          return "";
+                // add word counts to the batch inverted index with docID
+                addToPostings(wordCounts, internalID, batch.invertedIndex);
+            }
 
-        } else {
+            // extract date from DOCNO
+            String MM = docNO.substring(2, 4);
+            String DD = docNO.substring(4, 6);
+            String YY = docNO.substring(6, 8);
+            String date = formatDate(DD, MM, YY);
+
+            // DOCNO, doc length and the doc store record (raw doc and metadata) are written in order during the merge
+            batch.docNOs.add(docNO);
+            batch.docLengths.add(tokenizer.numTokens());
+            batch.documents.add(DocumentStore.encode(docNO, internalID, date, headline, currentDoc, compressDocuments));
+
+            // headline shown for the doc and its snippet sentences, split and tokenized now so the search engine never has to
+            ParsedDocument sentences = SentenceIndex.parse(currentDoc, date, headline, tokenizer, batch.words);
+            batch.sentenceTexts.add(SentenceIndex.encodeText(sentences));
+            batch.sentenceIDs.add(sentences.sentenceIDs);
+            batch.chars += currentDoc.length();
+        }
+
+        batch.indexNanos = System.nanoTime() - start;
+        commitEvent(event, "batch", docs.size(), batch.chars, batch.lexicon.size());
+        return batch;
+    }
 
-            while(!line.equals("</DOC>")) {
-                line = buffered.readLine();
-                unzippedDoc = unzippedDoc + "\n" + line;
+    // merge stage, maps the batch local term ids to global ones (adding new terms to the lexicon in the order the batch first saw
+    // them), appends the batch postings to the global posting lists, writes the batch's DOCNOs and doc lengths to the mapping writers
+    // and appends its docs to the doc store and the sentence index, returns how many bytes of heap the global posting lists grew by
+    public static long mergeBatch(PartialIndex batch, Lexicon lexicon, ArrayList<EncodedPostings> invertedIndex, ArrayList<Integer> docLengths, DocumentStoreWriter documents, SentenceIndexWriter sentences, BufferedWriter docnoWriter, DataOutputStream docLengthWriter) throws IOException {
+        // lists are created on first use, a term has none in memory until it shows up again after a run was flushed
+        long memoryAdded = 0;
+        for (int localID = 0; localID < batch.lexicon.size(); localID++) {
+            int termID = lexicon.add(batch.lexicon.term(localID));
+            while (invertedIndex.size() <= termID) {
+                invertedIndex.add(null);
+            }
+            EncodedPostings postingList = invertedIndex.get(termID);
+            if (postingList == null) {
+                postingList = new EncodedPostings(batch.invertedIndex.get(localID).hasPositions());
+                invertedIndex.set(termID, postingList);
+                memoryAdded += postingList.memoryUsage();
             }
-    
-            return unzippedDoc;    
+            long before = postingList.memoryUsage();
+            postingList.addAll(batch.invertedIndex.get(localID));
+            memoryAdded += postingList.memoryUsage() - before;
         }
 
-        } catch (IOException e) {
-            e.printStackTrace();
-            return "Error Occurred";
+        // export DOCNO and doc length to mapping files
+        for (int i = 0; i < batch.docNOs.size(); i++) {
+            docnoWriter.write(batch.docNOs.get(i));
+            docnoWriter.write('\n');
+            docLengthWriter.writeInt(batch.docLengths.get(i));
+            docLengths.add(batch.docLengths.get(i));
+            documents.append(batch.documents.get(i));
+        }
+        sentences.appendBatch(batch.words, batch.sentenceTexts, batch.sentenceIDs);
+        return memoryAdded;
+    }
+
+    // writes the posting lists in memory to runs/run-N.bin in term id order and drops them from memory
+    // each record is the term id followed by the list (see EncodedPostings.writeRunTo), and a term id of -1 ends the run
+    // every doc in a run comes before every doc in the next run, so the runs of a term only need to be concatenated in run order
+    // the time it takes is recorded in metrics
+    public static void flushRun(ArrayList<EncodedPostings> invertedIndex, int runNumber, String exportPath, IndexMetrics metrics) throws IOException {
+        IndexEvent event = new IndexEvent();
+        event.begin();
+        long start = System.nanoTime();
+        File runFolder = new File(exportPath, "runs");
+        runFolder.mkdirs();
+        DataOutputStream run = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(runFolder, "run-" + runNumber + ".bin")), 1 << 16));
+
+        for (int termID = 0; termID < invertedIndex.size(); termID++) {
+            EncodedPostings postingList = invertedIndex.get(termID);
+            if (postingList != null) {
+                run.writeInt(termID);
+                postingList.writeRunTo(run);
+                invertedIndex.set(termID, null);
+            }
+        }
+        run.writeInt(-1);
+        run.close();
+        metrics.runFlushed(System.nanoTime() - start);
+        commitEvent(event, "flush", 0, 0, invertedIndex.size());
+    }
+
+    // ends a flight recorder event for one indexing stage and commits it if recording is on
+    public static void commitEvent(IndexEvent event, String stage, int docs, long chars, int terms) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.stage = stage;
+            event.docs = docs;
+            event.chars = chars;
+            event.terms = terms;
+            event.commit();
         }
     }
 
@@ -176,26 +414,6 @@ public class IndexEngine {
         }
     }
 
-    // extract SECTION (remove any tags on inside) store string to memory as well (for headline, graphic and text)
-    public static String extractSection (String currentDoc, String section) {
-        if (currentDoc.indexOf("<" + section + ">") < 0) {
-            return "";
-        } else {
-            String sectionRaw = currentDoc.substring(currentDoc.indexOf("<" + section + ">") + section.length() + 2, currentDoc.indexOf("</" + section +">")).trim();
-            int index = 0;
-            String result = "";
-            if (sectionRaw.indexOf("<") >= 0) {
-                // takes substrings between > and < characters to remove XML tags
-                while (index < sectionRaw.length()) {
-                    result += sectionRaw.substring(index, sectionRaw.indexOf("<", index));
-                    index = sectionRaw.indexOf(">", index) + 1;
-                }
-            } 
-            // need to remove new lines and make them just spaces
-            return result.replaceAll("\\s+", " ").trim();
-        }
-    }
-
     // method to take DD, MM, and YY and store as formatted date
     public static String formatDate (String DD, String MM, String YY){
         int day = Integer.parseInt(DD);
@@ -215,12 +433,11 @@ public class IndexEngine {
         // File exportMappingDirectory = new File(exportFilePath + "/MAPPINGS");
 
         File mappingDOCNO = new File(exportFilePath, "DOCNOs.txt");
-        File mappingDocLength = new File(exportFilePath, "doc-lengths.txt");
-        File mappingLexicon = new File(exportFilePath, "lexicon.txt");
-        File mappingInvertedIndex = new File(exportFilePath, "inverted-index.txt");
+        File mappingLexicon = new File(exportFilePath, "lexicon.bin");
+        File mappingInvertedIndex = new File(exportFilePath, "inverted-index.bin");
+        // inverted-index-dict.bin is only written once the index is saved, its existence marks a finished index (see main)
         try {
             mappingDOCNO.createNewFile();
-            mappingDocLength.createNewFile();
             mappingLexicon.createNewFile();
             mappingInvertedIndex.createNewFile();
         } catch (IOException e) {
@@ -228,132 +445,12 @@ public class IndexEngine {
         }
     }
 
-    // export DOCNO to DOCNO/Internal ID mapping file in directory, adding it to the next line, this line corresponds with internal ID
-    public static void mappingEntry (String data, String fileName, String exportPath) {
-        try {
-            FileWriter writer = new FileWriter(exportPath + "/" + fileName, true);
-            writer.write(data + "\n");
-            writer.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } 
-    }
-
-    // method to enter directory and check for to enter/add YY, MM, DD, then DOCUMENT and METADATA folders under DD as needed
-    public static void directorySetup (String YY, String MM, String DD, String exportFilePath) {
-        
-        // checking/adding YY first
-        File exportYear = new File(exportFilePath + "/" + YY);
-        if (!exportYear.exists()) {
-            File newYear = new File(exportFilePath, YY);
-            newYear.mkdir();
-        }
-
-        //checking and adding MM
-        File exportMonth = new File(exportFilePath + "/" + YY + "/" + MM);
-        if (!exportMonth.exists()) {
-            File newMonth = new File(exportFilePath + "/" + YY, MM);
-            newMonth.mkdir();
-        }
-
-        //checking and adding DD
-        File exportDay = new File(exportFilePath + "/" + YY + "/" + MM + "/" + DD);
-        if (!exportDay.exists()) {
-            File newDay = new File(exportFilePath + "/" + YY + "/" + MM, DD);
-            newDay.mkdir();
-            File rawDoc = new File(exportFilePath + "/" + YY + "/" + MM + "/" + DD, "DOCUMENT");
-            rawDoc.mkdir();
-            File metadata = new File(exportFilePath + "/" + YY + "/" + MM + "/" + DD, "METADATA");
-            metadata.mkdir();
-        }
-    }
-
-    // method to enter directory and export add raw doc stored to DOCNO.txt file  in DOCUMENT folder, and
-    // append DOCNO, internal ID, date, and HEADLINE and export as DOCNO.txt to METADATA folder 
-    public static void createFiles (String currentDoc, String docNO, int internalID, String date, String headline, String exactFilePath) {
-        // creating document file and writing currentDoc to file
-        File docFile = new File(exactFilePath + "/DOCUMENT", docNO + ".txt");
-        try {
-            docFile.createNewFile();
-        } catch (IOException e) {
-            System.err.println("Error while creating DOCUMENT file: " + e.getMessage());
-        }
-        try {
-            FileWriter writer = new FileWriter(exactFilePath + "/DOCUMENT/" + docNO + ".txt");
-            writer.write(currentDoc);
-            writer.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } 
-
-        //creating metadata file and writing metadata to file
-        File dataFile = new File(exactFilePath + "/METADATA", docNO + ".txt");
-        try {
-            dataFile.createNewFile();
-        } catch (IOException e) {
-            System.err.println("Error while creating METADATA file: " + e.getMessage());
-        }
-        try {
-            FileWriter writer = new FileWriter(exactFilePath + "/METADATA/" + docNO + ".txt");
-            writer.write(docNO + "\n" + internalID + "\n" + date + "\n" + headline);
-            writer.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } 
-    }
-
-    // tokenizer method, allText input, arraylist of string tokens output (returns: ArrayList<String>)
-    public static ArrayList<String> tokenizer (String allText) {
-        ArrayList<String> tokens = new ArrayList<>();
-
-        // first text to lowercase
-        allText = allText.toLowerCase();
-        int start = 0;
-        int i = 0;
-
-        // for each character, checking if that character is non-alphanumeric, if so, return string preceding it if it exists
-        for (i = 0; i < allText.length(); i++) {
-            char c = allText.charAt(i);
-            if (!Character.isLetterOrDigit(c)) {
-                if (start != i) {
-                    String token = allText.substring(start, i);
-                    tokens.add(token);
-                }
-
-                //update start for start of next token
-                start = i + 1;
-            }
-        }
-
-        // last digit(s) are alphanumeric so we need last token
-        if (start != i) {
-            tokens.add(allText.substring(start, i));
-        }
-
-        return tokens;
-    }
-
-    // tokens to ids method, reads in token list of strings and lexicon and returns list of integers which it gets from lexicon (returns: ArrayList<Integer>)
-    public static ArrayList<Integer> convertTokensToIDs (ArrayList<String> tokens, HashMap<String, Integer> lexicon, ArrayList<String> lexiconWords) {
-        ArrayList<Integer> tokenIDs = new ArrayList<>();
-        for (String token : tokens) {
-            if(lexicon.containsKey(token)) {
-                tokenIDs.add(lexicon.get(token));
-            } else {
-                int i = lexicon.size();
-                lexicon.put(token, i);
-                tokenIDs.add(i);
-                lexiconWords.add(token);
-            }
-        }
-        return tokenIDs;
-    }
-
-    // countWords method to read in tokenID list and return hashmap or list of termID to count
-    public static HashMap<Integer, Integer> countWords (ArrayList<Integer> tokenIDs) {
+    // countWords method to read in the tokenizer's term ids and return hashmap of termID to count
+    public static HashMap<Integer, Integer> countWords (Tokenizer tokenizer) {
         HashMap<Integer, Integer> wordCounts = new HashMap<>();
 
-        for(int id : tokenIDs) {
+        for(int i = 0; i < tokenizer.size(); i++) {
+            int id = tokenizer.id(i);
             if(wordCounts.containsKey(id)) {
                 int count = wordCounts.get(id) + 1;
                 wordCounts.put(id, count);
@@ -367,58 +464,153 @@ public class IndexEngine {
 
     // addToPostings reads in wordCounts, docID, and inverted index
     // for each word in wordCounts checks if term id entry exists, if not adds it, then goes to term id posting list and adds docID and count
-    public static void addToPostings(HashMap<Integer, Integer> wordCounts, int docID, HashMap<Integer, ArrayList<Integer>> invertedIndex) {
+    public static void addToPostings(HashMap<Integer, Integer> wordCounts, int docID, ArrayList<EncodedPostings> invertedIndex) {
 
         // for each unique token in the current doc, add this docID and count to its posting list in inverted index
         for (Map.Entry<Integer, Integer> id : wordCounts.entrySet()) {
+            int termID = id.getKey();
 
-            // if term is not in inverted index, adds it and its posting list
-            if (!invertedIndex.containsKey(id.getKey())) {
-                ArrayList<Integer> postingList = new ArrayList<>();
-                invertedIndex.put(id.getKey(), postingList);
+            // if term is not in inverted index, adds it and its posting list (new ids are handed out in order so this only grows by a few)
+            while (invertedIndex.size() <= termID) {
+                invertedIndex.add(new EncodedPostings());
             }
 
-            // access posting list at that term id
-            ArrayList<Integer> postingList = invertedIndex.get(id.getKey());
-
             // adding docID and count to that posting list
-            postingList.add(docID);
-            postingList.add(id.getValue());
+            invertedIndex.get(termID).add(docID, id.getValue());
         }
 
     }
 
-    // method to save lexicon mappings to a file in the same way as DOCNO, line in file = termID + 1
-    // can do at the end and just save all mappings to lexicon.txt
-    public static void saveLexicon(ArrayList<String> lexiconWords, String exportPath) {
-        try {
-            FileWriter writer = new FileWriter(exportPath + "/lexicon.txt", true);
-            
-            for (int i = 0; i < lexiconWords.size(); i++) {
-                writer.write(lexiconWords.get(i) + "\n");
+    // adds the doc to the positional posting lists of its words, each with the positions (token numbers across headline, graphic
+    // and text) where the word occurs. term id and position pairs are packed into longs and sorted, which groups every word's
+    // positions in increasing order without a map of lists
+    public static void addPositionsToPostings(Tokenizer tokenizer, int docID, ArrayList<EncodedPostings> invertedIndex) {
+        long[] pairs = new long[tokenizer.size()];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = ((long) tokenizer.id(i) << 32) | i;
+        }
+        Arrays.sort(pairs);
+
+        int[] positions = new int[pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            positions[i] = (int) pairs[i];
+        }
+        int start = 0;
+        while (start < pairs.length) {
+            int termID = (int) (pairs[start] >>> 32);
+            int end = start + 1;
+            while (end < pairs.length && (int) (pairs[end] >>> 32) == termID) {
+                end++;
             }
+            while (invertedIndex.size() <= termID) {
+                invertedIndex.add(new EncodedPostings(true));
+            }
+            invertedIndex.get(termID).add(docID, end - start, positions, start);
+            start = end;
+        }
+    }
 
-            writer.close();
+    // method to save lexicon mappings at the end, terms are written sorted and front coded to lexicon.bin so the search engine
+    // can memory map them instead of rebuilding a hash table, see TermDictionary
+    public static void saveLexicon(Lexicon lexicon, String exportPath) {
+        try {
+            TermDictionary.write(lexicon, exportPath);
         } catch (IOException e) {
             e.printStackTrace();
         } 
     }
 
-    // method to save inverted index to .txt file, with key in first row then value (list) in next row, each element with a space
-    public static void saveInvertedIndex(HashMap<Integer, ArrayList<Integer>> invertedIndex, String exportPath) {
+    // method to save inverted index in binary, compressed postings go to inverted-index.bin one term after another
+    // and inverted-index-dict.bin holds the term dictionary: number of terms, then for each term id in order its byte offset,
+    // doc frequency and max term weight (the largest tf / (k + tf) in its postings, used as a BM25 upper bound for dynamic pruning)
+    // long lists are written in blocks behind a skip table carrying the same bound per block, see EncodedPostings
+    // if runs were flushed during indexing, they are k-way merged here: each run is read in term id order and the lists of a term
+    // are concatenated in run order, so only one term's postings are in memory at a time
+    // a positional index also writes each list's positions to positions.bin and their offsets to positions-dict.bin
+    // the dictionary is written next to its final name and renamed once everything else is written, so a build that fails or is
+    // killed before that never leaves a directory that looks like a finished index
+    public static void saveInvertedIndex(ArrayList<EncodedPostings> invertedIndex, int numRuns, ArrayList<Integer> docLengthList, String exportPath, boolean positional) {
+        // doc lengths and average doc length for the term weight bounds, computed the same way BM25SearchEngine does
+        int[] docLengths = new int[docLengthList.size()];
+        long sum = 0;
+        for (int i = 0; i < docLengths.length; i++) {
+            docLengths[i] = docLengthList.get(i);
+            sum += docLengths[i];
+        }
+        double avgLength = (double) sum / docLengths.length;
+
         try {
-            FileWriter writer = new FileWriter(exportPath + "/inverted-index.txt", true);
-            
-            for (Map.Entry<Integer, ArrayList<Integer>> entry : invertedIndex.entrySet()) {
-                writer.write(entry.getKey() + "\n");
-                ArrayList<Integer> value = entry.getValue();
-                for (int num : value) {
-                    writer.write(num + " ");
+            DataOutputStream postings = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/inverted-index.bin"), 1 << 16));
+            DataOutputStream dictionary = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/inverted-index-dict.bin.next"), 1 << 16));
+            DataOutputStream positions = null;
+            DataOutputStream positionsDictionary = null;
+            if (positional) {
+                positions = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/positions.bin"), 1 << 16));
+                positionsDictionary = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/positions-dict.bin"), 1 << 16));
+                positionsDictionary.writeInt(invertedIndex.size());
+            }
+            long positionsOffset = 0;
+
+            // opening the runs and reading the first term id of each
+            DataInputStream[] runs = new DataInputStream[numRuns];
+            int[] runTermIDs = new int[numRuns];
+            for (int r = 0; r < numRuns; r++) {
+                runs[r] = new DataInputStream(new BufferedInputStream(new FileInputStream(exportPath + "/runs/run-" + r + ".bin"), 1 << 16));
+                runTermIDs[r] = runs[r].readInt();
+            }
+
+            dictionary.writeInt(invertedIndex.size());
+            long offset = 0;
+
+            // term ids are dense so the dictionary can be written in id order and read back as an array
+            for (int termID = 0; termID < invertedIndex.size(); termID++) {
+                EncodedPostings postingList = invertedIndex.get(termID);
+
+                if (numRuns > 0) {
+                    postingList = new EncodedPostings(positional);
+                    for (int r = 0; r < numRuns; r++) {
+                        if (runTermIDs[r] == termID) {
+                            postingList.addAll(EncodedPostings.readRunFrom(runs[r], positional));
+                            runTermIDs[r] = runs[r].readInt();
+                        }
+                    }
+                }
+
+                float[] blockMaxWeights = postingList.blockMaxWeights(docLengths, avgLength);
+                float maxTermWeight = 0;
+                for (float weight : blockMaxWeights) {
+                    maxTermWeight = Math.max(maxTermWeight, weight);
+                }
+
+                dictionary.writeLong(offset);
+                dictionary.writeInt(postingList.docFrequency());
+                dictionary.writeFloat(maxTermWeight);
+
+                postingList.writeTo(postings, blockMaxWeights);
+                offset += postingList.length();
+
+                if (positional) {
+                    positionsDictionary.writeLong(positionsOffset);
+                    postingList.writePositionsTo(positions);
+                    positionsOffset += postingList.positionsLength();
                 }
-                writer.write("\n");
             }
 
-            writer.close();
+            // the postings dictionary goes last, its modification time is the index generation
+            if (positional) {
+                positions.close();
+                positionsDictionary.close();
+            }
+            postings.close();
+            dictionary.close();
+            Files.move(Paths.get(exportPath, "inverted-index-dict.bin.next"), Paths.get(exportPath, "inverted-index-dict.bin"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+            // runs are no longer needed once merged
+            for (int r = 0; r < numRuns; r++) {
+                runs[r].close();
+                new File(exportPath + "/runs/run-" + r + ".bin").delete();
+            }
+            new File(exportPath, "runs").delete();
         } catch (IOException e) {
             e.printStackTrace();
         } 
@@ -0,0 +1,26 @@
+// Flight recorder event for one stage of IndexEngine working on a batch of docs (indexing it on a worker, merging it) or writing
+// the index (flushing a run, saving the final index), see QueryEvent for the query side
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("latimes.Index")
+@Label("Index Stage")
+@Category("LA Times Search")
+@Description("One batch or write stage of IndexEngine")
+public class IndexEvent extends jdk.jfr.Event {
+
+    @Label("Stage")
+    public String stage;
+
+    @Label("Docs")
+    public int docs;
+
+    @Label("Chars")
+    public long chars;
+
+    @Label("Lexicon Size")
+    public int terms;
+}
@@ -0,0 +1,205 @@
+// Manifest of the increments added to an index directory after IndexEngine built it, increments/manifest.txt
+// an increment is a directory under increments/ holding docs added by running IndexEngine on an existing index (or several such
+// increments merged, see IncrementalIndexer) in the files an index directory has: DOCNOs, doc lengths, doc store and sentence
+// index of its docs, a lexicon delta of the terms first seen in them and a segment of postings over its docs. docIDs and term ids
+// continue from the index to the first increment and from each increment to the next, so a term's posting list over the whole
+// collection is its lists in the index and in every increment one after the other (see InvertedIndex.combine)
+//
+// the manifest is the commit point: an increment is written first and only becomes part of the index once a manifest listing it
+// is renamed over the old one, so readers see either the old list or the new one, never half an increment. the generation goes
+// up with every commit, which is how a searcher notices new increments and how caches keyed on the index generation get dropped
+//
+// layout (text): the generation, then the number of docs, number of terms and average doc length of the index IndexEngine built,
+// then one line per increment in docID order with its directory name, number of docs and number of new terms
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+public class IndexManifest {
+
+    // directory of the increments and the manifest inside the index directory
+    public static final String DIRECTORY = "increments";
+
+    public final long generation;
+
+    // docs and terms of the index IndexEngine built, and its average doc length, which BM25 keeps normalizing by so the score
+    // bounds written with every increment stay exact (see BM25SearchEngine.buildDocNorms)
+    public final int baseDocs;
+    public final int baseTerms;
+    public final double avgLength;
+
+    // directory name, number of docs and number of new terms of each increment in docID order
+    private final String[] names;
+    private final int[] numDocs;
+    private final int[] numTerms;
+
+    public IndexManifest(long generation, int baseDocs, int baseTerms, double avgLength, String[] names, int[] numDocs, int[] numTerms) {
+        this.generation = generation;
+        this.baseDocs = baseDocs;
+        this.baseTerms = baseTerms;
+        this.avgLength = avgLength;
+        this.names = names;
+        this.numDocs = numDocs;
+        this.numTerms = numTerms;
+    }
+
+    // reads the manifest of the index directory, null if no increments were ever added
+    public static IndexManifest read(String indexPath) throws IOException {
+        File file = new File(new File(indexPath, DIRECTORY), "manifest.txt");
+        if (!file.exists()) {
+            return null;
+        }
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        long generation = Long.parseLong(lines.get(0).trim());
+        String[] base = lines.get(1).trim().split(" ");
+        int size = lines.size() - 2;
+        String[] names = new String[size];
+        int[] numDocs = new int[size];
+        int[] numTerms = new int[size];
+        for (int i = 0; i < size; i++) {
+            String[] fields = lines.get(i + 2).trim().split(" ");
+            names[i] = fields[0];
+            numDocs[i] = Integer.parseInt(fields[1]);
+            numTerms[i] = Integer.parseInt(fields[2]);
+        }
+        return new IndexManifest(generation, Integer.parseInt(base[0]), Integer.parseInt(base[1]), Double.parseDouble(base[2]), names, numDocs, numTerms);
+    }
+
+    // takes the write lock of the index directory, increments/write.lock, waiting while another process holds it. it is held by
+    // IncrementalIndexer while it adds and merges increments and by ImpactIndexer and SegmentIndexer while they rewrite the files of
+    // the index and its increments, so neither runs while increments are being replaced. closing the channel releases the lock
+    public static FileChannel lock(String indexPath) throws IOException {
+        File directory = new File(indexPath, DIRECTORY);
+        directory.mkdirs();
+        FileChannel lock = FileChannel.open(new File(directory, "write.lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (lock.tryLock() == null) {
+            System.out.println("Waiting for another program writing to the index to finish.");
+            lock.lock();
+        }
+        return lock;
+    }
+
+    // releases the write lock taken with lock
+    public static void unlock(FileChannel lock) {
+        try {
+            lock.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // generation of the manifest of the index directory, 0 if no increments were ever added
+    public static long generation(String indexPath) throws IOException {
+        IndexManifest manifest = read(indexPath);
+        return (manifest == null) ? 0 : manifest.generation;
+    }
+
+    // writes the manifest next to the old one and renames it over it, which commits it
+    public void write(String indexPath) throws IOException {
+        File directory = new File(indexPath, DIRECTORY);
+        directory.mkdirs();
+        File next = new File(directory, "manifest.txt.next");
+        try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(next), StandardCharsets.UTF_8))) {
+            out.write(generation + "\n");
+            out.write(baseDocs + " " + baseTerms + " " + avgLength + "\n");
+            for (int i = 0; i < names.length; i++) {
+                out.write(names[i] + " " + numDocs[i] + " " + numTerms[i] + "\n");
+            }
+        }
+        Files.move(next.toPath(), Paths.get(directory.getPath(), "manifest.txt"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // the next generation with an increment appended after the last one
+    public IndexManifest withIncrement(String name, int docs, int terms) {
+        String[] nextNames = Arrays.copyOf(names, names.length + 1);
+        int[] nextDocs = Arrays.copyOf(numDocs, numDocs.length + 1);
+        int[] nextTerms = Arrays.copyOf(numTerms, numTerms.length + 1);
+        nextNames[names.length] = name;
+        nextDocs[names.length] = docs;
+        nextTerms[names.length] = terms;
+        return new IndexManifest(generation + 1, baseDocs, baseTerms, avgLength, nextNames, nextDocs, nextTerms);
+    }
+
+    // the next generation with the increments first to last - 1 replaced by their merge
+    public IndexManifest withMerge(int first, int last, String name) {
+        int size = names.length - (last - first) + 1;
+        String[] nextNames = new String[size];
+        int[] nextDocs = new int[size];
+        int[] nextTerms = new int[size];
+        for (int i = 0, j = 0; i < names.length; i++) {
+            if (i < first || i >= last) {
+                nextNames[j] = names[i];
+                nextDocs[j] = numDocs[i];
+                nextTerms[j++] = numTerms[i];
+            } else {
+                nextNames[first] = name;
+                nextDocs[first] += numDocs[i];
+                nextTerms[first] += numTerms[i];
+                j = first + 1;
+            }
+        }
+        return new IndexManifest(generation + 1, baseDocs, baseTerms, avgLength, nextNames, nextDocs, nextTerms);
+    }
+
+    // number of increments
+    public int size() {
+        return names.length;
+    }
+
+    // directory name of an increment
+    public String name(int increment) {
+        return names[increment];
+    }
+
+    // directory of an increment
+    public String path(String indexPath, int increment) {
+        return new File(new File(indexPath, DIRECTORY), names[increment]).getPath();
+    }
+
+    public int numDocs(int increment) {
+        return numDocs[increment];
+    }
+
+    public int numTerms(int increment) {
+        return numTerms[increment];
+    }
+
+    // docID of the first doc of an increment
+    public int firstDoc(int increment) {
+        int docID = baseDocs;
+        for (int i = 0; i < increment; i++) {
+            docID += numDocs[i];
+        }
+        return docID;
+    }
+
+    // term id of the first new term of an increment
+    public int firstTerm(int increment) {
+        int termID = baseTerms;
+        for (int i = 0; i < increment; i++) {
+            termID += numTerms[i];
+        }
+        return termID;
+    }
+
+    // docs of the index and every increment
+    public int totalDocs() {
+        return firstDoc(names.length);
+    }
+
+    // terms of the index and every increment
+    public int totalTerms() {
+        return firstTerm(names.length);
+    }
+}
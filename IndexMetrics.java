@@ -0,0 +1,81 @@
+// Progress and stage timings of an IndexEngine run: docs and chars indexed, how fast the lexicon grows, and how long workers take
+// to index a batch, the merge takes to add one and flushing runs and saving the final index take. everything is recorded by the
+// merge thread, worker times travel with their batch, so nothing here is shared. a progress line is printed at most every
+// REPORT_INTERVAL_NANOS while indexing and a summary at the end
+
+public class IndexMetrics {
+
+    public static final long REPORT_INTERVAL_NANOS = 10_000_000_000L;
+
+    private final long start = System.nanoTime();
+    private long lastReport = start;
+    private int lastReportTerms;
+    private long lastReportDocs = 0;
+
+    // lexicon size before the first doc, 0 for a full build and the size of the existing lexicon when docs are added to an index
+    private final int baseTerms;
+
+    private long docs = 0;
+    private long chars = 0;
+
+    private final LatencyHistogram batchTimes = new LatencyHistogram();
+    private final LatencyHistogram mergeTimes = new LatencyHistogram();
+    private final LatencyHistogram flushTimes = new LatencyHistogram();
+    private long saveNanos = 0;
+
+    public IndexMetrics() {
+        this(0);
+    }
+
+    public IndexMetrics(int baseTerms) {
+        this.baseTerms = baseTerms;
+        this.lastReportTerms = baseTerms;
+    }
+
+    // records a batch once it is merged, printing a progress line if the last one is old enough
+    public void batchMerged(PartialIndex batch, long mergeNanos, int lexiconSize) {
+        docs += batch.docNOs.size();
+        chars += batch.chars;
+        batchTimes.record(batch.indexNanos);
+        mergeTimes.record(mergeNanos);
+
+        long now = System.nanoTime();
+        if (now - lastReport >= REPORT_INTERVAL_NANOS) {
+            System.out.println(progress(now, lexiconSize));
+            lastReport = now;
+            lastReportTerms = lexiconSize;
+            lastReportDocs = docs;
+        }
+    }
+
+    // records the time taken to write one sorted run
+    public void runFlushed(long nanos) {
+        flushTimes.record(nanos);
+    }
+
+    // records the time taken to write the lexicon and the final inverted index
+    public void indexSaved(long nanos) {
+        saveNanos = nanos;
+    }
+
+    // docs and chars so far with their rates, and the lexicon size with the new terms per 1000 docs since the last report
+    public String progress(long now, int lexiconSize) {
+        double seconds = (now - start) / 1e9;
+        double megabytes = chars / (1024.0 * 1024.0);
+        long newDocs = docs - lastReportDocs;
+        double growth = newDocs == 0 ? 0 : (lexiconSize - lastReportTerms) * 1000.0 / newDocs;
+        return String.format("Indexed %d docs (%.0f docs/s, %.1f MB/s), lexicon %d terms (%.1f new per 1000 docs).", docs, docs / seconds, megabytes / seconds, lexiconSize, growth);
+    }
+
+    // final progress line followed by the batch, merge, flush and save times
+    public String summary(int lexiconSize) {
+        lastReportTerms = baseTerms;
+        lastReportDocs = 0;
+        StringBuilder summary = new StringBuilder(progress(System.nanoTime(), lexiconSize));
+        summary.append(String.format("%nbatch (worker) count=%d mean=%.1fms p99=%.1fms max=%.1fms", batchTimes.count(), batchTimes.mean() / 1000, batchTimes.percentile(0.99) / 1000.0, batchTimes.max() / 1000.0));
+        summary.append(String.format("%nmerge count=%d mean=%.2fms p99=%.2fms max=%.2fms total=%.2fs", mergeTimes.count(), mergeTimes.mean() / 1000, mergeTimes.percentile(0.99) / 1000.0, mergeTimes.max() / 1000.0, mergeTimes.totalNanos() / 1e9));
+        summary.append(String.format("%nflush count=%d mean=%.1fms max=%.1fms total=%.2fs", flushTimes.count(), flushTimes.mean() / 1000, flushTimes.max() / 1000.0, flushTimes.totalNanos() / 1e9));
+        summary.append(String.format("%nsave %.2fs", saveNanos / 1e9));
+        return summary.toString();
+    }
+}
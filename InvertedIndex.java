@@ -0,0 +1,373 @@
+// Read only view of the compressed inverted index written by IndexEngine (inverted-index.bin and inverted-index-dict.bin)
+// postings are memory mapped rather than parsed into the heap, so opening the index is close to instant and the OS pages
+// in only the posting lists that queries actually touch
+// the impact index written by ImpactIndexer (impact-index.bin and impact-index-dict.bin) has the same layout with a quantized
+// BM25 score in place of each count, see openImpacts
+// an index built with positions also has positions.bin, the positions of every posting (see EncodedPostings), and
+// positions-dict.bin, the number of terms followed by the offset of each term's positions, which are mapped the same way
+// a date segment written by SegmentIndexer has the same postings layout for the docs of one month, with a dictionary of only the
+// terms in those docs (segment-dict.bin: the number of entries, then term id, offset, doc frequency and max term weight of each in
+// term id order), see openSegment
+// an increment (see IndexManifest) has a segment in the same layout over its docs, with positions-dict.bin holding the number of
+// entries and the offset of each entry's positions when the index has positions, and impact-index.bin and
+// impact-segment-dict.bin, the same layout quantized with the index's impact scale, when the index has an impact index. the index
+// and its increments are searched as one index through combine
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class InvertedIndex {
+
+    // mapped postings file, variable byte encoded docID gaps and counts
+    private final ByteBuffer postings;
+
+    // term dictionary, index in the array is the term id, or the entry of termIDs in a segment
+    private final int[] offsets;
+    private final int[] docFrequencies;
+    private final float[] maxTermWeights;
+
+    // identifies the index that was opened, caches keyed on it are dropped when a rebuilt index is opened
+    private final long generation;
+
+    // size of one impact step in BM25 score units and the bias added to every stored impact, 0 and 0 for a count index
+    private final double impactStep;
+    private final int impactBias;
+
+    // mapped positions file and the offset of each term's positions in it, null if the index was built without positions
+    private final ByteBuffer positions;
+    private final int[] positionOffsets;
+
+    // term id of each dictionary entry of a segment, null for a dictionary indexed by term id, and an open addressing table of
+    // entry + 1 by term id hash (0 for an empty slot) to find a term's entry with about one probe
+    private final int[] termIDs;
+    private final int[] entrySlots;
+
+    // whole index a segment is part of, which gives the doc frequencies idf is computed from, null for a whole index
+    private final InvertedIndex collection;
+
+    // for the index and its increments searched as one, each part in docID order with its first docID and the number of terms of
+    // all of them, null and 0 otherwise
+    private final InvertedIndex[] parts;
+    private final int[] firstDocs;
+    private final int numCombinedTerms;
+
+    private InvertedIndex(ByteBuffer postings, int[] offsets, int[] docFrequencies, float[] maxTermWeights, long generation, double impactStep, int impactBias, ByteBuffer positions, int[] positionOffsets) {
+        this(postings, offsets, docFrequencies, maxTermWeights, generation, impactStep, impactBias, positions, positionOffsets, null, null);
+    }
+
+    private InvertedIndex(ByteBuffer postings, int[] offsets, int[] docFrequencies, float[] maxTermWeights, long generation, double impactStep, int impactBias, ByteBuffer positions, int[] positionOffsets, int[] termIDs, InvertedIndex collection) {
+        this(postings, offsets, docFrequencies, maxTermWeights, generation, impactStep, impactBias, positions, positionOffsets, termIDs, collection, null, null, 0);
+    }
+
+    private InvertedIndex(ByteBuffer postings, int[] offsets, int[] docFrequencies, float[] maxTermWeights, long generation, double impactStep, int impactBias, ByteBuffer positions, int[] positionOffsets, int[] termIDs, InvertedIndex collection, InvertedIndex[] parts, int[] firstDocs, int numCombinedTerms) {
+        this.postings = postings;
+        this.termIDs = termIDs;
+        this.collection = collection;
+        this.parts = parts;
+        this.firstDocs = firstDocs;
+        this.numCombinedTerms = numCombinedTerms;
+        this.entrySlots = (termIDs == null) ? null : entrySlots(termIDs);
+        this.positions = positions;
+        this.positionOffsets = positionOffsets;
+        this.generation = generation;
+        this.impactStep = impactStep;
+        this.impactBias = impactBias;
+        this.offsets = offsets;
+        this.docFrequencies = docFrequencies;
+        this.maxTermWeights = maxTermWeights;
+    }
+
+    // maps the postings and reads the term dictionary from the index directory
+    // a single mapping is limited to 2GB, which is far above the size of the LA Times postings
+    public static InvertedIndex open(String indexPath) throws IOException {
+        return open(indexPath, "inverted-index", 0, 0);
+    }
+
+    // true if the index was built with positions, which phrase queries need
+    public boolean hasPositions() {
+        return (parts != null) ? parts[0].hasPositions() : positions != null;
+    }
+
+    // returns a decoding cursor positioned before the first posting of the term that can also decode the term's positions in each
+    // doc, only for an index with positions
+    public PostingsCursor getPositions(int termID) {
+        if (parts != null) {
+            PostingsCursor[] lists = new PostingsCursor[parts.length];
+            for (int p = 0; p < parts.length; p++) {
+                lists[p] = parts[p].getPositions(termID);
+            }
+            return new ChainedPostingsCursor(lists, firstDocs, docFrequency(termID), maxTermWeight(termID));
+        }
+        int entry = entry(termID);
+        if (entry < 0) {
+            return new PostingsCursor(postings, 0, 0, 0, positions, 0);
+        }
+        return new PostingsCursor(postings, offsets[entry], docFrequencies[entry], maxTermWeights[entry], positions, positionOffsets[entry]);
+    }
+
+    // opens the impact index, whose scale (int bits, double step, int bias) is in impact-index-scale.bin
+    public static InvertedIndex openImpacts(String indexPath) throws IOException {
+        try (DataInputStream scale = new DataInputStream(new FileInputStream(indexPath + "/impact-index-scale.bin"))) {
+            scale.readInt();
+            double step = scale.readDouble();
+            int bias = scale.readInt();
+            return open(indexPath, "impact-index", step, bias);
+        }
+    }
+
+    // opens the date segment or increment in segmentPath, collection is the whole count index a date segment was split from (null
+    // for an increment, whose idf comes from the index it is combined into)
+    public static InvertedIndex openSegment(String segmentPath, InvertedIndex collection) throws IOException {
+        return openSegment(segmentPath, "inverted-index", "segment-dict", collection, 0, 0);
+    }
+
+    // opens the impacts of the increment in segmentPath, quantized with the given scale of the index's impact index
+    public static InvertedIndex openImpactSegment(String segmentPath, double impactStep, int impactBias) throws IOException {
+        return openSegment(segmentPath, "impact-index", "impact-segment-dict", null, impactStep, impactBias);
+    }
+
+    private static InvertedIndex openSegment(String segmentPath, String name, String dictionaryName, InvertedIndex collection, double impactStep, int impactBias) throws IOException {
+        ByteBuffer postings;
+        try (RandomAccessFile file = new RandomAccessFile(segmentPath + "/" + name + ".bin", "r")) {
+            FileChannel channel = file.getChannel();
+            postings = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int[] termIDs;
+        int[] offsets;
+        int[] docFrequencies;
+        float[] maxTermWeights;
+        try (RandomAccessFile file = new RandomAccessFile(segmentPath + "/" + dictionaryName + ".bin", "r")) {
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer dictionary = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            int numEntries = dictionary.getInt();
+            termIDs = new int[numEntries];
+            offsets = new int[numEntries];
+            docFrequencies = new int[numEntries];
+            maxTermWeights = new float[numEntries];
+            for (int entry = 0; entry < numEntries; entry++) {
+                termIDs[entry] = dictionary.getInt();
+                offsets[entry] = (int) dictionary.getLong();
+                docFrequencies[entry] = dictionary.getInt();
+                maxTermWeights[entry] = dictionary.getFloat();
+            }
+        }
+        // an increment of a positional index has the positions of its postings by entry
+        ByteBuffer positions = null;
+        int[] positionOffsets = null;
+        if (name.equals("inverted-index") && new File(segmentPath, "positions-dict.bin").exists()) {
+            positions = mapPositions(segmentPath);
+            positionOffsets = readPositionOffsets(segmentPath);
+        }
+
+        long generation = new File(segmentPath, dictionaryName + ".bin").lastModified();
+        return new InvertedIndex(postings, offsets, docFrequencies, maxTermWeights, generation, impactStep, impactBias, positions, positionOffsets, termIDs, collection);
+    }
+
+    // the index in parts[0] and its increments in docID order searched as one index with numTerms terms, each part's first docID
+    // in firstDocs. a term's cursor walks its list in every part one after the other (see ChainedPostingsCursor) and its doc
+    // frequency is the sum over the parts, so every retrieval mode runs on it as it does on a single index. parts are either all
+    // counts or all impacts, with the scale of the first
+    public static InvertedIndex combine(InvertedIndex[] parts, int[] firstDocs, int numTerms, long generation) {
+        InvertedIndex first = parts[0];
+        return new InvertedIndex(null, null, null, null, generation, first.impactStep, first.impactBias, null, null, null, null, parts, firstDocs, numTerms);
+    }
+
+    private static InvertedIndex open(String indexPath, String name, double impactStep, int impactBias) throws IOException {
+        ByteBuffer postings;
+        try (RandomAccessFile file = new RandomAccessFile(indexPath + "/" + name + ".bin", "r")) {
+            FileChannel channel = file.getChannel();
+            postings = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int[] offsets;
+        int[] docFrequencies;
+        float[] maxTermWeights;
+        try (RandomAccessFile file = new RandomAccessFile(indexPath + "/" + name + "-dict.bin", "r")) {
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer dictionary = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            int numTerms = dictionary.getInt();
+            offsets = new int[numTerms];
+            docFrequencies = new int[numTerms];
+            maxTermWeights = new float[numTerms];
+            for (int termID = 0; termID < numTerms; termID++) {
+                offsets[termID] = (int) dictionary.getLong();
+                docFrequencies[termID] = dictionary.getInt();
+                maxTermWeights[termID] = dictionary.getFloat();
+            }
+        }
+
+        // positions are kept next to the counts only, the impacts have none
+        ByteBuffer positions = null;
+        int[] positionOffsets = null;
+        if (name.equals("inverted-index") && new File(indexPath, "positions-dict.bin").exists()) {
+            positions = mapPositions(indexPath);
+            positionOffsets = readPositionOffsets(indexPath);
+        }
+
+        // the dictionary is the last file IndexEngine (or ImpactIndexer) writes, so its modification time changes whenever the index
+        // is rebuilt
+        long generation = new File(indexPath, name + "-dict.bin").lastModified();
+
+        return new InvertedIndex(postings, offsets, docFrequencies, maxTermWeights, generation, impactStep, impactBias, positions, positionOffsets);
+    }
+
+    // maps positions.bin of an index directory or increment
+    private static ByteBuffer mapPositions(String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path + "/positions.bin", "r")) {
+            FileChannel channel = file.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    // reads positions-dict.bin, the offset of the positions of each term (or each entry of an increment)
+    private static int[] readPositionOffsets(String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path + "/positions-dict.bin", "r")) {
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer dictionary = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int[] positionOffsets = new int[dictionary.getInt()];
+            for (int entry = 0; entry < positionOffsets.length; entry++) {
+                positionOffsets[entry] = (int) dictionary.getLong();
+            }
+            return positionOffsets;
+        }
+    }
+
+    // generation of the opened index
+    public long generation() {
+        return generation;
+    }
+
+    // true for an impact index, whose cursors return a biased impact from freq() instead of a count
+    public boolean hasImpacts() {
+        return impactStep > 0;
+    }
+
+    // BM25 score units per impact step, an impact sum times this approximates the exact score
+    public double impactStep() {
+        return impactStep;
+    }
+
+    // subtracted from each stored impact to get the signed impact, terms in most docs have negative idf and so negative scores
+    public int impactBias() {
+        return impactBias;
+    }
+
+    // number of terms in the dictionary, for a date segment the number of terms of the whole index and for an increment one past
+    // its largest term id
+    public int numTerms() {
+        if (parts != null) {
+            return numCombinedTerms;
+        }
+        if (collection != null) {
+            return collection.numTerms();
+        }
+        if (termIDs != null) {
+            return (termIDs.length == 0) ? 0 : termIDs[termIDs.length - 1] + 1;
+        }
+        return offsets.length;
+    }
+
+    // term ids a date segment or increment has postings for in increasing order, every term id below numTerms for an index
+    public int[] entryTerms() {
+        if (termIDs != null) {
+            return termIDs;
+        }
+        int[] all = new int[numTerms()];
+        for (int termID = 0; termID < all.length; termID++) {
+            all[termID] = termID;
+        }
+        return all;
+    }
+
+    // number of docs containing the term, in a segment only the docs of the segment
+    public int docFrequency(int termID) {
+        if (parts != null) {
+            int docFrequency = 0;
+            for (InvertedIndex part : parts) {
+                docFrequency += part.docFrequency(termID);
+            }
+            return docFrequency;
+        }
+        int entry = entry(termID);
+        return (entry < 0) ? 0 : docFrequencies[entry];
+    }
+
+    // number of docs of the whole index containing the term, what idf is computed from so a segment scores docs the same as the
+    // whole index does
+    public int collectionDocFrequency(int termID) {
+        return (collection == null) ? docFrequency(termID) : collection.docFrequency(termID);
+    }
+
+    // largest tf / (k + tf) in the term's postings, times idf this is an upper bound on the term's BM25 score. for an impact index
+    // it is the largest score of the term after quantizing
+    public float maxTermWeight(int termID) {
+        if (parts != null) {
+            float maxTermWeight = 0;
+            for (InvertedIndex part : parts) {
+                maxTermWeight = Math.max(maxTermWeight, part.maxTermWeight(termID));
+            }
+            return maxTermWeight;
+        }
+        int entry = entry(termID);
+        return (entry < 0) ? 0 : maxTermWeights[entry];
+    }
+
+    // returns a decoding cursor positioned before the first posting of the term, an empty one for a term a segment does not have
+    public PostingsCursor getPosting(int termID) {
+        if (parts != null) {
+            PostingsCursor[] lists = new PostingsCursor[parts.length];
+            for (int p = 0; p < parts.length; p++) {
+                lists[p] = parts[p].getPosting(termID);
+            }
+            return new ChainedPostingsCursor(lists, firstDocs, docFrequency(termID), maxTermWeight(termID));
+        }
+        int entry = entry(termID);
+        if (entry < 0) {
+            return new PostingsCursor(postings, 0, 0, 0);
+        }
+        return new PostingsCursor(postings, offsets[entry], docFrequencies[entry], maxTermWeights[entry]);
+    }
+
+    // dictionary entry of a term, found in the hash table of a segment, -1 if the segment does not have the term or the term was
+    // added by an increment after this index was built
+    private int entry(int termID) {
+        if (termIDs == null) {
+            return (termID < offsets.length) ? termID : -1;
+        }
+        int mask = entrySlots.length - 1;
+        for (int slot = hash(termID) & mask; entrySlots[slot] != 0; slot = (slot + 1) & mask) {
+            if (termIDs[entrySlots[slot] - 1] == termID) {
+                return entrySlots[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    // hash table of a segment's entries, at most half full so probes stay short
+    private static int[] entrySlots(int[] termIDs) {
+        int[] slots = new int[Integer.highestOneBit(Math.max(termIDs.length, 1) * 2) * 2];
+        int mask = slots.length - 1;
+        for (int entry = 0; entry < termIDs.length; entry++) {
+            int slot = hash(termIDs[entry]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entry + 1;
+        }
+        return slots;
+    }
+
+    // spreads consecutive term ids over the table
+    private static int hash(int termID) {
+        return termID * 0x9E3779B9;
+    }
+}
@@ -0,0 +1,95 @@
+// Lock free histogram of latencies in microseconds, recorded from many threads at once and read for percentiles
+// values under 32us get a bucket each, larger ones are bucketed by power of two split into 16 linear steps, so a percentile is
+// reported within about 6% of the true value using a fixed, small array no matter how many values are recorded
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram {
+
+    private static final int LINEAR_BUCKETS = 32;
+    private static final int SUB_BUCKETS = 16;
+
+    private final AtomicLongArray counts = new AtomicLongArray(LINEAR_BUCKETS + (64 - 5) * SUB_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    // sum of the exact values in nanoseconds, so means stay accurate for stages far shorter than a microsecond bucket
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    // records one latency given in nanoseconds
+    public void record(long nanos) {
+        long micros = Math.max(nanos / 1000, 0);
+        counts.incrementAndGet(bucket(micros));
+        count.incrementAndGet();
+        total.addAndGet(Math.max(nanos, 0));
+        max.accumulateAndGet(micros, Math::max);
+    }
+
+    // number of latencies recorded
+    public long count() {
+        return count.get();
+    }
+
+    // mean latency in microseconds, 0 if nothing was recorded
+    public double mean() {
+        long n = count.get();
+        return n == 0 ? 0 : total.get() / 1000.0 / n;
+    }
+
+    // sum of every latency recorded, in nanoseconds
+    public long totalNanos() {
+        return total.get();
+    }
+
+    // largest latency recorded, in microseconds
+    public long max() {
+        return max.get();
+    }
+
+    // latency in microseconds that the given fraction (0 to 1) of recorded values are at or below, as the upper edge of its bucket
+    // values recorded while this runs may or may not be counted
+    public long percentile(double fraction) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max((long) Math.ceil(fraction * n), 1);
+        long seen = 0;
+        for (int b = 0; b < counts.length(); b++) {
+            seen += counts.get(b);
+            if (seen >= rank) {
+                return Math.min(upperBound(b), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    // clears every bucket, not atomic with respect to concurrent records
+    public void reset() {
+        for (int b = 0; b < counts.length(); b++) {
+            counts.set(b, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    private static int bucket(long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - 4)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - 5) * SUB_BUCKETS + sub;
+    }
+
+    // largest value that falls in a bucket
+    private static long upperBound(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 5;
+        int sub = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 4)) - 1;
+    }
+}
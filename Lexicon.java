@@ -0,0 +1,135 @@
+// Open addressing hash table from term to term id, replacing HashMap<String, Integer> for the lexicon
+// terms can be looked up by a char range, so the Tokenizer resolves a token straight from its buffer and a String is only
+// created when a new term is added. hashes are String.hashCode, so lookups by String and by chars agree
+// lookups are safe from many threads at once as long as nothing is being added
+
+import java.util.Arrays;
+
+public class Lexicon {
+
+    // slots hold term id + 1, 0 marks an empty slot, the table is kept at most half full
+    private int[] slots = new int[1024];
+    private String[] terms = new String[512];
+    private int[] hashes = new int[512];
+    private int size = 0;
+
+    // number of terms, ids go from 0 to size - 1 in the order terms were added
+    public int size() {
+        return size;
+    }
+
+    // term with the given id
+    public String term(int termID) {
+        return terms[termID];
+    }
+
+    // id of a term, -1 if it is not in the lexicon
+    public int get(String term) {
+        int slot = find(term.hashCode(), term);
+        return slots[slot] - 1;
+    }
+
+    // id of the term spelled by chars[start, end), -1 if it is not in the lexicon
+    public int get(char[] chars, int start, int end, int hash) {
+        int slot = find(hash, chars, start, end);
+        return slots[slot] - 1;
+    }
+
+    // id of a term, adding it with the next id if it is new
+    public int add(String term) {
+        int hash = term.hashCode();
+        int slot = find(hash, term);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        slots[slot] = insert(term, hash);
+        int termID = size - 1;
+        growIfFull();
+        return termID;
+    }
+
+    // id of the term spelled by chars[start, end), adding it with the next id if it is new
+    public int add(char[] chars, int start, int end, int hash) {
+        int slot = find(hash, chars, start, end);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        slots[slot] = insert(new String(chars, start, end - start), hash);
+        int termID = size - 1;
+        growIfFull();
+        return termID;
+    }
+
+    // slot holding the term, or the empty slot where it would go
+    private int find(int hash, String term) {
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (slots[slot] != 0) {
+            int termID = slots[slot] - 1;
+            if (hashes[termID] == hash && terms[termID].equals(term)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int find(int hash, char[] chars, int start, int end) {
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (slots[slot] != 0) {
+            int termID = slots[slot] - 1;
+            if (hashes[termID] == hash && equals(terms[termID], chars, start, end)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static boolean equals(String term, char[] chars, int start, int end) {
+        if (term.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < term.length(); i++) {
+            if (term.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // appends a new term and returns its slot value (id + 1)
+    private int insert(String term, int hash) {
+        if (size == terms.length) {
+            terms = Arrays.copyOf(terms, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        terms[size] = term;
+        hashes[size] = hash;
+        size++;
+        return size;
+    }
+
+    // doubles the table once it is half full and reinserts every term by its stored hash
+    private void growIfFull() {
+        if (size * 2 <= slots.length) {
+            return;
+        }
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int termID = 0; termID < size; termID++) {
+            int slot = mix(hashes[termID]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = termID + 1;
+        }
+    }
+
+    // spreads String.hashCode bits so similar terms do not cluster in the low bits
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,31 @@
+// A doc as result rendering needs it: the headline and date shown for it and its snippet sentences, each with the term ids of its
+// tokens, so a snippet is scored without touching the raw doc. built by IndexEngine (see SentenceIndex.parse), read back from the
+// sentence index and kept in a DocumentCache, instances are never modified so they are shared by every thread
+
+public class ParsedDocument {
+
+    // shown headline, the first 50 chars of the text when the doc has no headline, and date
+    public final String headline;
+    public final String date;
+
+    // snippet candidates in doc order and the term ids of each, tokens not in the lexicon are dropped. while IndexEngine builds
+    // it, before the lexicon is final, the ids are batch local word ids of every token instead
+    public final String[] sentences;
+    public final int[][] sentenceIDs;
+
+    public ParsedDocument(String headline, String date, String[] sentences, int[][] sentenceIDs) {
+        this.headline = headline;
+        this.date = date;
+        this.sentences = sentences;
+        this.sentenceIDs = sentenceIDs;
+    }
+
+    // rough heap footprint in bytes, chars and ids plus the object headers of every string and array
+    public long sizeInBytes() {
+        long size = 64 + 2L * (headline.length() + date.length());
+        for (int s = 0; s < sentences.length; s++) {
+            size += 56 + 2L * sentences[s].length() + 4L * sentenceIDs[s].length;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,37 @@
+// Index of one batch of consecutive docs, built by an IndexEngine worker thread and merged into the global index in docID order
+// terms get batch local ids in the order they are first seen, so merging batches in order hands out the same global term ids
+// a single threaded run would
+
+import java.util.ArrayList;
+
+public class PartialIndex {
+
+    // docID of the first doc in the batch, the others follow consecutively
+    public final int docBase;
+
+    // DOCNO and length of each doc in the batch
+    public final ArrayList<String> docNOs = new ArrayList<>();
+    public final ArrayList<Integer> docLengths = new ArrayList<>();
+
+    // encoded doc store record of each doc in the batch, see DocumentStore.encode
+    public final ArrayList<byte[]> documents = new ArrayList<>();
+
+    // sentence index record text of each doc in the batch and its sentences as batch local word ids, see SentenceIndex
+    public final ArrayList<byte[]> sentenceTexts = new ArrayList<>();
+    public final ArrayList<int[][]> sentenceIDs = new ArrayList<>();
+    public final Lexicon words = new Lexicon();
+
+    // batch local lexicon, terms get local ids in the order they are first seen
+    public final Lexicon lexicon = new Lexicon();
+
+    // postings by local term id, holding global docIDs
+    public final ArrayList<EncodedPostings> invertedIndex = new ArrayList<>();
+
+    // chars of raw docs in the batch and how long the worker took to index it, for IndexMetrics
+    public long chars = 0;
+    public long indexNanos = 0;
+
+    public PartialIndex(int docBase) {
+        this.docBase = docBase;
+    }
+}
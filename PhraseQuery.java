@@ -0,0 +1,114 @@
+// A quoted phrase in a query. "tom bradley" matches docs that have the words next to each other in that order, and
+// "tom bradley"~5 matches docs that have every word of it within a span of 5 words, in any order. phrases are checked on the
+// positions of their words in a doc (see InvertedIndex.getPositions), so docs never have to be read to answer them
+// quotes around a single word, and the words of a phrase, are still ordinary query words as well, see queryToIDs
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class PhraseQuery {
+
+    private static final Pattern PHRASE = Pattern.compile("\"([^\"]*)\"(~(\\d+))?");
+
+    // term ids of the words in phrase order, repeats kept for an exact phrase and dropped for a proximity one
+    public final int[] termIDs;
+
+    // largest span in words a proximity match may cover, 0 for an exact phrase
+    public final int window;
+
+    // true if a word of the phrase is not in the lexicon, so no doc can match it
+    public final boolean matchesNothing;
+
+    public PhraseQuery(int[] termIDs, int window, boolean matchesNothing) {
+        this.termIDs = termIDs;
+        this.window = window;
+        this.matchesNothing = matchesNothing;
+    }
+
+    // finds the phrases of a query, skipping quotes around fewer than two words
+    public static ArrayList<PhraseQuery> parse(String query, TermDictionary lexicon, Tokenizer tokenizer) {
+        ArrayList<PhraseQuery> phrases = new ArrayList<>();
+        Matcher matcher = PHRASE.matcher(query);
+        while (matcher.find()) {
+            tokenizer.reset();
+            tokenizer.tokenize(matcher.group(1), lexicon);
+            if (tokenizer.numTokens() < 2) {
+                continue;
+            }
+            boolean matchesNothing = tokenizer.size() < tokenizer.numTokens();
+            int[] termIDs = new int[tokenizer.size()];
+            for (int i = 0; i < termIDs.length; i++) {
+                termIDs[i] = tokenizer.id(i);
+            }
+
+            int window = 0;
+            if (matcher.group(3) != null) {
+                termIDs = Arrays.stream(termIDs).distinct().toArray();
+                window = Math.max(Integer.parseInt(matcher.group(3)), termIDs.length);
+            }
+            phrases.add(new PhraseQuery(termIDs, window, matchesNothing));
+        }
+        return phrases;
+    }
+
+    // number of times the phrase matches in a doc. slots gives, for each word of the phrase, the index of its positions in
+    // positions and of their number in counts
+    public int matches(int[][] positions, int[] counts, int[] slots) {
+        return window == 0 ? exactMatches(positions, counts, slots) : windowMatches(positions, counts, slots);
+    }
+
+    // starts of the word sequence, every position of the first word is checked for the others right after it
+    private int exactMatches(int[][] positions, int[] counts, int[] slots) {
+        int found = 0;
+        int first = slots[0];
+        for (int p = 0; p < counts[first]; p++) {
+            int start = positions[first][p];
+            boolean match = true;
+            for (int i = 1; i < slots.length && match; i++) {
+                match = Arrays.binarySearch(positions[slots[i]], 0, counts[slots[i]], start + i) >= 0;
+            }
+            if (match) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    // spans within the window found by sweeping the positions of every word at once, always moving past the earliest one, so
+    // each smallest span ending at a new position is counted once
+    private int windowMatches(int[][] positions, int[] counts, int[] slots) {
+        int found = 0;
+        int[] next = new int[slots.length];
+        while (true) {
+            int earliest = 0;
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int i = 0; i < slots.length; i++) {
+                int position = positions[slots[i]][next[i]];
+                if (position < min) {
+                    min = position;
+                    earliest = i;
+                }
+                max = Math.max(max, position);
+            }
+            if (max - min < window) {
+                found++;
+            }
+            next[earliest]++;
+            if (next[earliest] == counts[slots[earliest]]) {
+                return found;
+            }
+        }
+    }
+
+    // identifies a list of phrases in result cache keys
+    public static String key(ArrayList<PhraseQuery> phrases) {
+        StringBuilder key = new StringBuilder();
+        for (PhraseQuery phrase : phrases) {
+            key.append('"').append(Arrays.toString(phrase.termIDs)).append(phrase.matchesNothing ? "!" : "").append("\"~").append(phrase.window);
+        }
+        return key.toString();
+    }
+}
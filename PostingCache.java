@@ -0,0 +1,95 @@
+// Bounded LRU cache of decoded, scored posting lists for frequent terms. a cached list is the term's docIDs with the BM25 score of
+// the term in each doc, so exhaustive retrieval of a popular term skips both the variable byte decoding and the per posting score
+// arithmetic. scores only depend on the index, so they are exactly the ones computed without the cache
+// only terms in at least minDocFrequency docs are cached, and the cache is bounded by the total number of postings it holds.
+// like ResultCache, entries are dropped when the index generation changes
+// every method is synchronized, one cache is shared by all threads of the search server
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+public class PostingCache {
+
+    private final long maxPostings;
+    private final int minDocFrequency;
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long postings = 0;
+    private long generation = -1;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    public PostingCache(long maxPostings, int minDocFrequency) {
+        this.maxPostings = maxPostings;
+        this.minDocFrequency = minDocFrequency;
+    }
+
+    // true if lists with this many docs are worth caching
+    public boolean caches(int docFrequency) {
+        return docFrequency >= minDocFrequency && docFrequency <= maxPostings;
+    }
+
+    // adds the cached scores of a term to the accumulator and returns true, or returns false on a miss
+    public boolean addTo(int termID, long indexGeneration, ScoreAccumulator accum) {
+        Entry entry;
+        synchronized (this) {
+            checkGeneration(indexGeneration);
+            entry = entries.get(termID);
+            if (entry == null) {
+                misses++;
+                return false;
+            }
+            hits++;
+        }
+        int[] docs = entry.docs;
+        double[] scores = entry.scores;
+        for (int i = 0; i < docs.length; i++) {
+            accum.add(docs[i], scores[i]);
+        }
+        return true;
+    }
+
+    // caches the scored list of a term, evicting least recently used lists until it fits
+    public synchronized void put(int termID, long indexGeneration, int[] docs, double[] scores) {
+        checkGeneration(indexGeneration);
+        Entry previous = entries.put(termID, new Entry(docs, scores));
+        postings += docs.length - (previous == null ? 0 : previous.docs.length);
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (postings > maxPostings && eldest.hasNext()) {
+            postings -= eldest.next().docs.length;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    // hit, miss, eviction and invalidation counts
+    public synchronized String stats() {
+        long lookups = hits + misses;
+        double hitRate = lookups == 0 ? 0 : 100.0 * hits / lookups;
+        return String.format("postingCache hits=%d misses=%d hitRate=%.1f%% lists=%d postings=%d evictions=%d invalidations=%d", hits, misses, hitRate, entries.size(), postings, evictions, invalidations);
+    }
+
+    private void checkGeneration(long indexGeneration) {
+        if (indexGeneration != generation) {
+            if (!entries.isEmpty()) {
+                invalidations++;
+                entries.clear();
+                postings = 0;
+            }
+            generation = indexGeneration;
+        }
+    }
+
+    // docIDs of a term and its score in each
+    private static class Entry {
+        final int[] docs;
+        final double[] scores;
+
+        Entry(int[] docs, double[] scores) {
+            this.docs = docs;
+            this.scores = scores;
+        }
+    }
+}
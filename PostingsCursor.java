@@ -0,0 +1,226 @@
+// Decoding iterator over one compressed posting list in the mapped postings file (see EncodedPostings for the format)
+// docIDs and counts are decoded straight into int fields, so walking a list allocates nothing and boxes nothing
+// lists with more than one block start with a skip table, which advance gallops over to jump the blocks that end before its target
+// and blockMaxWeight uses to bound the term's score in a doc without decoding anything
+// a cursor opened with positions (see InvertedIndex.getPositions) decodes the positions of the current doc only when asked for
+// them, the positions of postings passed over are skipped byte by byte and those of skipped blocks are jumped over with their
+// block table
+
+import java.nio.ByteBuffer;
+
+public class PostingsCursor {
+
+    // returned by nextDoc once the list is exhausted, larger than any real docID
+    public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    private final ByteBuffer postings;
+    private final int docFrequency;
+    private final float maxTermWeight;
+    private final int numBlocks;
+    private final int skipOffset;
+    private final int dataOffset;
+    private int position;
+    private int remaining;
+    private int docID = -1;
+    private int freq = 0;
+
+    // postings decoded so far
+    private long decoded = 0;
+
+    // block looked at by the last blockMaxWeight call
+    private int shallowBlock = 0;
+
+    // positions file and where this list's block table and positions start, null and 0 for a cursor without positions
+    private final ByteBuffer positions;
+    private final int positionsSkipOffset;
+    private final int positionsDataOffset;
+    private int positionsPosition;
+
+    // positions of postings passed over since positionsPosition, and whether the current doc's positions were read already
+    private int positionsToSkip = 0;
+    private boolean positionsRead = false;
+
+    public PostingsCursor(ByteBuffer postings, int offset, int docFrequency, float maxTermWeight) {
+        this(postings, offset, docFrequency, maxTermWeight, null, 0);
+    }
+
+    public PostingsCursor(ByteBuffer postings, int offset, int docFrequency, float maxTermWeight, ByteBuffer positions, int positionsOffset) {
+        this.postings = postings;
+        this.positions = positions;
+        this.positionsSkipOffset = positionsOffset;
+        this.docFrequency = docFrequency;
+        this.maxTermWeight = maxTermWeight;
+        this.remaining = docFrequency;
+        this.numBlocks = (docFrequency + EncodedPostings.BLOCK_SIZE - 1) / EncodedPostings.BLOCK_SIZE;
+        this.skipOffset = offset;
+        this.dataOffset = offset + (numBlocks > 1 ? numBlocks * EncodedPostings.SKIP_ENTRY_BYTES : 0);
+        this.position = dataOffset;
+        this.positionsDataOffset = positionsOffset + (numBlocks > 1 ? numBlocks * Integer.BYTES : 0);
+        this.positionsPosition = positionsDataOffset;
+    }
+
+    // moves to the next posting and returns its docID, or NO_MORE_DOCS at the end of the list
+    public int nextDoc() {
+        if (remaining == 0) {
+            docID = NO_MORE_DOCS;
+            return docID;
+        }
+        remaining--;
+        decoded++;
+        if (positions != null) {
+            if (!positionsRead) {
+                positionsToSkip += freq;
+            }
+            positionsRead = false;
+        }
+        docID = (docID < 0 ? 0 : docID) + readVByte();
+        freq = readVByte();
+        return docID;
+    }
+
+    // moves to the first posting with a docID at or after target and returns it, or NO_MORE_DOCS if there is none
+    // blocks whose last docID is before target are skipped without being decoded, found by galloping over the skip table
+    public int advance(int target) {
+        if (docID >= target) {
+            return docID;
+        }
+
+        if (numBlocks > 1 && remaining > 0) {
+            // block holding the next undecoded posting
+            int block = (docFrequency - remaining) / EncodedPostings.BLOCK_SIZE;
+            if (blockLastDoc(block) < target) {
+                // gallop over the skip table, probing 1, 2, 4... blocks ahead until a block ends at or after target, then binary
+                // search the last step, so a far target costs a logarithmic number of probes rather than one per skipped block
+                int low = block;
+                int high = block + 1;
+                int step = 1;
+                while (high < numBlocks && blockLastDoc(high) < target) {
+                    low = high;
+                    step *= 2;
+                    high = low + step;
+                }
+                if (high >= numBlocks) {
+                    if (blockLastDoc(numBlocks - 1) < target) {
+                        remaining = 0;
+                        docID = NO_MORE_DOCS;
+                        return docID;
+                    }
+                    high = numBlocks - 1;
+                }
+                while (high - low > 1) {
+                    int middle = (low + high) >>> 1;
+                    if (blockLastDoc(middle) < target) {
+                        low = middle;
+                    } else {
+                        high = middle;
+                    }
+                }
+                block = high;
+
+                // continue decoding from the start of the block, gaps there are relative to the previous block's last docID
+                position = dataOffset + blockEnd(block - 1);
+                docID = blockLastDoc(block - 1);
+                remaining = docFrequency - block * EncodedPostings.BLOCK_SIZE;
+                if (positions != null) {
+                    positionsPosition = positionsDataOffset + positions.getInt(positionsSkipOffset + (block - 1) * Integer.BYTES);
+                    positionsToSkip = 0;
+                    positionsRead = true;
+                }
+            }
+        }
+
+        while (docID < target) {
+            nextDoc();
+        }
+        return docID;
+    }
+
+    // max term weight of the block that would hold target, 0 if target is past the end of the list
+    // targets must not decrease between calls, times idf this bounds the term's score in target without decoding the block
+    public float blockMaxWeight(int target) {
+        if (numBlocks <= 1) {
+            return maxTermWeight;
+        }
+        while (shallowBlock < numBlocks && blockLastDoc(shallowBlock) < target) {
+            shallowBlock++;
+        }
+        if (shallowBlock == numBlocks) {
+            return 0;
+        }
+        return postings.getFloat(skipOffset + shallowBlock * EncodedPostings.SKIP_ENTRY_BYTES + 8);
+    }
+
+    // docID of the current posting, -1 before the first call to nextDoc
+    public int docID() {
+        return docID;
+    }
+
+    // count of the term in the current doc
+    public int freq() {
+        return freq;
+    }
+
+    // positions of the term in the current doc in increasing order, in buffer if it is large enough and in a new array otherwise.
+    // the first freq() entries are filled. only for a cursor opened with positions
+    public int[] positions(int[] buffer) {
+        while (positionsToSkip > 0) {
+            if (positions.get(positionsPosition++) < 0) {
+                positionsToSkip--;
+            }
+        }
+        int[] docPositions = buffer.length >= freq ? buffer : new int[Math.max(freq, buffer.length * 2)];
+        int position = 0;
+        for (int i = 0; i < freq; i++) {
+            position += readPositionVByte();
+            docPositions[i] = position;
+        }
+        positionsRead = true;
+        return docPositions;
+    }
+
+    // number of postings nextDoc and advance decoded so far, the postings of blocks advance skipped are not counted
+    public long decoded() {
+        return decoded;
+    }
+
+    // number of docs in the whole list
+    public int docFrequency() {
+        return docFrequency;
+    }
+
+    // last docID of a block, read from the skip table
+    private int blockLastDoc(int block) {
+        return postings.getInt(skipOffset + block * EncodedPostings.SKIP_ENTRY_BYTES);
+    }
+
+    // byte offset where a block ends, relative to the start of the postings data
+    private int blockEnd(int block) {
+        return postings.getInt(skipOffset + block * EncodedPostings.SKIP_ENTRY_BYTES + 4);
+    }
+
+    // reads one variable byte encoded int from the positions file
+    private int readPositionVByte() {
+        int value = 0;
+        int shift = 0;
+        byte b = positions.get(positionsPosition++);
+        while (b >= 0) {
+            value |= b << shift;
+            shift += 7;
+            b = positions.get(positionsPosition++);
+        }
+        return value | ((b & 127) << shift);
+    }
+
+    // reads one variable byte encoded int, low 7 bits first with the high bit marking the last byte
+    private int readVByte() {
+        int value = 0;
+        int shift = 0;
+        byte b = postings.get(position++);
+        while (b >= 0) {
+            value |= b << shift;
+            shift += 7;
+            b = postings.get(position++);
+        }
+        return value | ((b & 127) << shift);
+    }
+}
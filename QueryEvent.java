@@ -0,0 +1,30 @@
+// Flight recorder event for one query, so production runs can be profiled with JFR (for example java -XX:StartFlightRecording
+// SearchServer ...) without attaching a profiler. when recording is off, begin, end and shouldCommit are close to free
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("latimes.Query")
+@Label("Query")
+@Category("LA Times Search")
+@Description("Parsing, ranking and rendering of one query")
+public class QueryEvent extends jdk.jfr.Event {
+
+    @Label("Query")
+    public String query;
+
+    @Label("Retrieval Mode")
+    public String mode;
+
+    @Label("Query Terms")
+    public int terms;
+
+    @Label("Postings")
+    @Description("Postings decoded to rank the query, none for a query answered from the result cache")
+    public long postings;
+
+    @Label("Results")
+    public int results;
+}
@@ -0,0 +1,56 @@
+// Small open addressing set of the term ids of a query, so the snippet scorer tests each sentence token with
+// one hashed probe instead of a scan of the query's ArrayList. each term keeps how many times the query repeats it, and slots can
+// be stamped per sentence to count the distinct query terms a sentence has without clearing anything in between
+
+import java.util.List;
+
+public class QueryTermSet {
+
+    // slots hold term id + 1, 0 marks an empty slot, the table is kept at most half full
+    private final int[] slots;
+    private final int[] counts;
+    private final int[] stamps;
+
+    public QueryTermSet(List<Integer> termIDs) {
+        int capacity = Integer.highestOneBit(Math.max(termIDs.size(), 1) * 4 - 1) << 1;
+        slots = new int[capacity];
+        counts = new int[capacity];
+        stamps = new int[capacity];
+        for (int termID : termIDs) {
+            int slot = find(termID);
+            slots[slot] = termID + 1;
+            counts[slot]++;
+        }
+    }
+
+    // slot of a query term id, -1 if the query does not have it
+    public int slot(int termID) {
+        int slot = find(termID);
+        return slots[slot] == 0 ? -1 : slot;
+    }
+
+    // how many times the query has the term in a slot
+    public int count(int slot) {
+        return counts[slot];
+    }
+
+    // marks a slot as seen by the stamp (a sentence number starting at 1), returning true the first time it is marked with it
+    public boolean stamp(int slot, int stamp) {
+        if (stamps[slot] == stamp) {
+            return false;
+        }
+        stamps[slot] = stamp;
+        return true;
+    }
+
+    // slot holding the term id, or the empty slot where it would go
+    private int find(int termID) {
+        int mask = slots.length - 1;
+        int hash = termID * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (slots[slot] != 0 && slots[slot] != termID + 1) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,98 @@
+// Bounded LRU cache of ranked results, keyed by the query's term ids so queries that differ only in case, punctuation or word
+// order share an entry. entries hold the top k docIDs and scores, not the rendered results, and are tagged with the index
+// generation they were computed on, so opening a new index drops everything cached for the old one
+// every method is synchronized, one cache is shared by all threads of the search server
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ResultCache {
+
+    private final int capacity;
+    private final LinkedHashMap<String, Entry> entries;
+    private long generation = -1;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    public ResultCache(int capacity) {
+        this.capacity = capacity;
+        // access order makes iteration order least recently used first, removeEldestEntry evicts from that end
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > ResultCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // cache key of a query, its sorted term ids with the retrieval mode and depth
+    public static String key(ArrayList<Integer> sortedTermIDs, String mode, int depth) {
+        StringBuilder key = new StringBuilder(mode).append(':').append(depth);
+        for (int termID : sortedTermIDs) {
+            key.append(':').append(termID);
+        }
+        return key.toString();
+    }
+
+    // copies a cached result into rankedDocs and rankedScores and returns its length, or -1 on a miss
+    public synchronized int get(String key, long indexGeneration, int[] rankedDocs, double[] rankedScores) {
+        checkGeneration(indexGeneration);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return -1;
+        }
+        hits++;
+        int count = entry.docs.length;
+        System.arraycopy(entry.docs, 0, rankedDocs, 0, count);
+        System.arraycopy(entry.scores, 0, rankedScores, 0, count);
+        return count;
+    }
+
+    // caches the first count results of a query
+    public synchronized void put(String key, long indexGeneration, int[] rankedDocs, double[] rankedScores, int count) {
+        checkGeneration(indexGeneration);
+        if (capacity == 0) {
+            return;
+        }
+        entries.put(key, new Entry(Arrays.copyOf(rankedDocs, count), Arrays.copyOf(rankedScores, count)));
+    }
+
+    // hit, miss, eviction and invalidation counts
+    public synchronized String stats() {
+        long lookups = hits + misses;
+        double hitRate = lookups == 0 ? 0 : 100.0 * hits / lookups;
+        return String.format("resultCache hits=%d misses=%d hitRate=%.1f%% size=%d evictions=%d invalidations=%d", hits, misses, hitRate, entries.size(), evictions, invalidations);
+    }
+
+    // drops every entry if the index generation changed since they were cached
+    private void checkGeneration(long indexGeneration) {
+        if (indexGeneration != generation) {
+            if (!entries.isEmpty()) {
+                invalidations++;
+                entries.clear();
+            }
+            generation = indexGeneration;
+        }
+    }
+
+    // ranked docIDs and scores of one query, best first
+    private static class Entry {
+        final int[] docs;
+        final double[] scores;
+
+        Entry(int[] docs, double[] scores) {
+            this.docs = docs;
+            this.scores = scores;
+        }
+    }
+}
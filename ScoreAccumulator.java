@@ -0,0 +1,50 @@
+// Dense BM25 score accumulator indexed by docID, replaces the HashMap<Integer, Double> accumulator in bm25Retrieval
+// scores live in a double[] sized to the collection and the docs touched by a query are remembered in an int[] so reset()
+// only clears what was used, which lets one accumulator be reused across queries without allocating per posting
+
+public class ScoreAccumulator {
+
+    private final double[] scores;
+    private final boolean[] touched;
+    private final int[] docs;
+    private int size = 0;
+
+    public ScoreAccumulator(int numDocs) {
+        scores = new double[numDocs];
+        touched = new boolean[numDocs];
+        docs = new int[numDocs];
+    }
+
+    // adds a term score to a doc, remembering the doc the first time it is seen
+    public void add(int docID, double score) {
+        if (!touched[docID]) {
+            touched[docID] = true;
+            docs[size++] = docID;
+        }
+        scores[docID] += score;
+    }
+
+    // number of docs with a score for the current query
+    public int size() {
+        return size;
+    }
+
+    // docID of the i-th scored doc
+    public int doc(int i) {
+        return docs[i];
+    }
+
+    // accumulated score of a doc, 0 if it was not touched
+    public double score(int docID) {
+        return scores[docID];
+    }
+
+    // clears the docs used by the last query so the accumulator can be reused
+    public void reset() {
+        for (int i = 0; i < size; i++) {
+            scores[docs[i]] = 0;
+            touched[docs[i]] = false;
+        }
+        size = 0;
+    }
+}
@@ -0,0 +1,73 @@
+// Per stage timings of query evaluation, recorded from every thread running queries into lock free histograms (see
+// LatencyHistogram) and dumped on demand. the stages are parsing the query (tokenizing and looking terms up in the lexicon, done
+// in one pass by the Tokenizer), retrieval (decoding and scoring postings, which happen in the same loop), selecting the top k,
+// fetching each result from the sentence index and building its snippet. fetch and snippet are recorded once per result, the
+// others once per query, so the dump also gives the time each stage adds to an average query
+//
+// recording a stage is a couple of atomic adds, cheap next to even the shortest stage, so it is always on
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class SearchMetrics {
+
+    public static final int PARSE = 0;
+    public static final int RETRIEVE = 1;
+    public static final int TOP_K = 2;
+    public static final int FETCH = 3;
+    public static final int SNIPPET = 4;
+    public static final int TOTAL = 5;
+
+    private static final String[] STAGE_NAMES = {"parse", "retrieve", "topk", "fetch", "snippet", "total"};
+
+    private final LatencyHistogram[] stages = new LatencyHistogram[STAGE_NAMES.length];
+
+    // postings decoded by every ranked query and queries answered from the result cache
+    private final LongAdder postings = new LongAdder();
+    private final LongAdder cachedQueries = new LongAdder();
+
+    public SearchMetrics() {
+        for (int s = 0; s < stages.length; s++) {
+            stages[s] = new LatencyHistogram();
+        }
+    }
+
+    // records the time one stage took
+    public void record(int stage, long nanos) {
+        stages[stage].record(nanos);
+    }
+
+    // counts the postings a ranked query decoded, the blocks maxscore and galloping skip are never decoded so this is the
+    // decoding work retrieval actually did
+    public void countPostings(long numPostings) {
+        postings.add(numPostings);
+    }
+
+    // counts a query whose ranking came from the result cache, it records no retrieval or top k time
+    public void countCachedQuery() {
+        cachedQueries.increment();
+    }
+
+    // one line per stage with its count, mean, p50, p99 and max in microseconds and the milliseconds it adds to an average query,
+    // followed by the posting and result cache counts
+    public String report() {
+        long queries = stages[TOTAL].count();
+        StringBuilder report = new StringBuilder();
+        for (int s = 0; s < stages.length; s++) {
+            LatencyHistogram stage = stages[s];
+            double perQuery = queries == 0 ? 0 : stage.totalNanos() / 1e6 / queries;
+            report.append(String.format("%-8s count=%d mean=%.1fus p50=%dus p99=%dus max=%dus per_query=%.3fms%n", STAGE_NAMES[s], stage.count(), stage.mean(), stage.percentile(0.5), stage.percentile(0.99), stage.max(), perQuery));
+        }
+        long ranked = queries - cachedQueries.sum();
+        report.append(String.format("postings=%d per_ranked_query=%.0f cached_queries=%d", postings.sum(), ranked <= 0 ? 0.0 : (double) postings.sum() / ranked, cachedQueries.sum()));
+        return report.toString();
+    }
+
+    // clears every stage and counter, not atomic with respect to concurrent records
+    public void reset() {
+        for (LatencyHistogram stage : stages) {
+            stage.reset();
+        }
+        postings.reset();
+        cachedQueries.reset();
+    }
+}
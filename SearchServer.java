@@ -0,0 +1,345 @@
+// Long running BM25 search server, loads the index once and answers queries from many clients at once over a line protocol on TCP
+// every index structure is read only after loading (mapped postings and lexicon, sentence index read with positioned reads, plain
+// arrays for DOCNOs and doc lengths) so they are shared by all threads without locks. each query runs on a bounded pool of
+// worker threads that own their score accumulator and top k heap, so there is no per query allocation of those either. repeated
+// queries are answered from a shared result cache, frequent terms are read from a shared cache of scored posting lists and docs
+// that keep showing up in results are rendered from a shared cache of parsed docs
+//
+// protocol: the client sends one query per line and gets one line per result, rank TAB DOCNO TAB score TAB headline TAB date
+// TAB snippet, followed by an empty line. STATS returns one line with the number of queries, queries per second and latency
+// percentiles since the server started (or the last STATS RESET) and the cache hit rates, METRICS returns the time spent in each
+// stage of a query (see SearchMetrics) as one line per stage followed by an empty line, QUIT closes the connection
+//
+// docs added to the index while the server runs (IndexEngine on the index directory, see IncrementalIndexer) are picked up
+// without a restart: a background thread watches the generation of the increments manifest and opens the index again when it
+// changes, then swaps it in for the queries that start after that. queries already running finish on the index they started on,
+// and the last of them closes it
+//
+// TO RUN:
+// java SearchServer "/path/to/latimes-index" 8541
+// then for example: printf 'los angeles\nSTATS\nQUIT\n' | nc localhost 8541
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SearchServer {
+
+    public static final int DEFAULT_PORT = 8541;
+
+    // how often the manifest generation is checked for new increments
+    public static final long RELOAD_MILLIS = 1000;
+
+    private final String indexPath;
+    private final int numResults;
+    private final String mode;
+
+    // the index queries run on, replaced as a whole when increments are added
+    private volatile Index index;
+
+    // bounded pool running the queries, connection threads only read requests and write responses
+    private final ExecutorService queryWorkers;
+
+    // top k heap of each query worker, reused for every query that worker runs
+    private final ThreadLocal<TopK> heaps;
+
+    // result, posting and parsed document caches shared by every worker
+    private final ResultCache resultCache = new ResultCache(BM25SearchEngine.RESULT_CACHE_SIZE);
+    private final PostingCache postingCache = new PostingCache(BM25SearchEngine.POSTING_CACHE_POSTINGS, BM25SearchEngine.POSTING_CACHE_MIN_DOC_FREQUENCY);
+    private final DocumentCache documentCache = new DocumentCache(BM25SearchEngine.DOCUMENT_CACHE_BYTES);
+
+    // latency of every query from being read to its response being ready, and when the current stats window started
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private volatile long statsStart = System.nanoTime();
+
+    // time the query workers spend in each stage of a query, in the same window as the latencies
+    private final SearchMetrics metrics = new SearchMetrics();
+
+    // everything a query reads, opened together from one generation of the index and its increments
+    private static class Index {
+        final TermDictionary lexicon;
+        final InvertedIndex invertedIndex;
+        final SegmentedIndex segments;
+        final SentenceIndex sentences;
+        final ArrayList<String> docnos;
+        final double[] docNorms;
+
+        // generation of the increments manifest it was opened at
+        final long generation;
+
+        // score accumulator of each query worker, sized to this index's docs
+        final ThreadLocal<ScoreAccumulator> accumulators;
+
+        // queries running on it plus one while it is the server's current index, the files are closed once it drops to 0
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Index(TermDictionary lexicon, InvertedIndex invertedIndex, SegmentedIndex segments, SentenceIndex sentences, ArrayList<String> docnos, double[] docNorms, long generation) {
+            this.lexicon = lexicon;
+            this.invertedIndex = invertedIndex;
+            this.segments = segments;
+            this.sentences = sentences;
+            this.docnos = docnos;
+            this.docNorms = docNorms;
+            this.generation = generation;
+            this.accumulators = ThreadLocal.withInitial(() -> new ScoreAccumulator(docnos.size()));
+        }
+
+        // takes a reference for a query, false if the index was already closed
+        boolean acquire() {
+            int count = references.get();
+            while (count > 0) {
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+                count = references.get();
+            }
+            return false;
+        }
+
+        // drops a reference, the last one closes the sentence index (postings and lexicon are mapped, their mappings go once
+        // the index is collected)
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                try {
+                    sentences.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    public SearchServer(String indexPath, int numResults, String mode, int numThreads) throws IOException {
+        this.indexPath = indexPath;
+        this.numResults = numResults;
+        this.mode = mode;
+        this.index = load(indexPath, mode);
+
+        this.queryWorkers = Executors.newFixedThreadPool(numThreads);
+        this.heaps = ThreadLocal.withInitial(() -> new TopK(numResults));
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 5) {
+            System.out.println("Please provide a path to your latimes-index directory, and optionally the port (default " + DEFAULT_PORT + "), the number of query threads (default one per core), the number of results per query (default 10) and the retrieval mode, exhaustive (default), maxscore, impact or boolean.");
+            return;
+        }
+        String indexPath = args[0];
+        if (!new File(indexPath).exists()) {
+            System.out.println("Please provide the proper path to the latimes-index file. This directory does not exist.");
+            return;
+        }
+        int port = (args.length >= 2) ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        int numThreads = (args.length >= 3) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int numResults = (args.length >= 4) ? Integer.parseInt(args[3]) : 10;
+        String mode = (args.length == 5) ? args[4] : "exhaustive";
+        if (!mode.equals("maxscore") && !mode.equals("exhaustive") && !mode.equals("impact") && !mode.equals("boolean")) {
+            System.out.println("Unknown retrieval mode " + mode + ", please use maxscore, exhaustive, impact or boolean.");
+            return;
+        }
+
+        // the index is loaded once and shared by every connection, then loaded again whenever increments are added
+        SearchServer server;
+        try {
+            server = new SearchServer(indexPath, numResults, mode, numThreads);
+        } catch (IOException e) {
+            System.out.println("Could not open the index. Please re-run IndexEngine.");
+            return;
+        }
+        try {
+            server.serve(port);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // opens the index and its increments as of the current manifest generation
+    private static Index load(String indexPath, String mode) throws IOException {
+        IndexManifest manifest = IndexManifest.read(indexPath);
+        long generation = (manifest == null) ? 0 : manifest.generation;
+        TermDictionary lexicon = BM25SearchEngine.buildLexicon(indexPath, manifest);
+        InvertedIndex invertedIndex = mode.equals("impact") ? BM25SearchEngine.buildImpactIndex(indexPath, manifest) : BM25SearchEngine.buildInvertedIndex(indexPath, manifest);
+        SentenceIndex sentences = BM25SearchEngine.buildSentenceIndex(indexPath, manifest);
+        if (lexicon == null || invertedIndex == null || sentences == null) {
+            throw new IOException("could not open the index in " + indexPath);
+        }
+        ArrayList<String> docnos = BM25SearchEngine.buildDocnos(indexPath, manifest);
+        double[] docNorms = BM25SearchEngine.buildDocNorms(manifest, BM25SearchEngine.buildDocLengths(indexPath, manifest));
+
+        // date segments are split from the count index, which the impact mode does not open otherwise
+        InvertedIndex collection = mode.equals("impact") ? BM25SearchEngine.buildInvertedIndex(indexPath, manifest) : invertedIndex;
+        SegmentedIndex segments = (collection == null) ? null : BM25SearchEngine.buildSegments(indexPath, manifest, collection, docnos.size());
+        return new Index(lexicon, invertedIndex, segments, sentences, docnos, docNorms, generation);
+    }
+
+    // checks the manifest generation every RELOAD_MILLIS and swaps in the index opened again when it changed. an index whose
+    // generation changed again while it was opened (a merge may have removed increments it read) is dropped and opened once more
+    // on the next check, so queries never see a mix of two generations
+    private void watch() {
+        while (true) {
+            try {
+                Thread.sleep(RELOAD_MILLIS);
+                if (IndexManifest.generation(indexPath) != index.generation) {
+                    Index next = load(indexPath, mode);
+                    if (IndexManifest.generation(indexPath) == next.generation) {
+                        Index previous = index;
+                        index = next;
+                        previous.release();
+                        System.out.println("Serving " + next.docnos.size() + " docs at generation " + next.generation + ".");
+                    } else {
+                        next.release();
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                // keeps serving the current index, tried again on the next check
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // accepts connections on localhost until the process is stopped, each connection gets its own thread for reading and writing
+    public void serve(int port) throws IOException {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println(stats() + "\n" + metrics.report())));
+        Thread reloader = new Thread(this::watch);
+        reloader.setDaemon(true);
+        reloader.start();
+        try (ServerSocket serverSocket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress())) {
+            System.out.println("Serving " + index.docnos.size() + " docs on port " + serverSocket.getLocalPort() + ".");
+            while (true) {
+                Socket socket = serverSocket.accept();
+                Thread connection = new Thread(() -> handle(socket));
+                connection.setDaemon(true);
+                connection.start();
+            }
+        }
+    }
+
+    // reads requests from one client until it sends QUIT or disconnects
+    public void handle(Socket socket) {
+        try (Socket client = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8))) {
+            String line = in.readLine();
+            while (line != null && !line.equals("QUIT")) {
+                if (line.equals("STATS")) {
+                    out.write(stats());
+                    out.write('\n');
+                } else if (line.equals("STATS RESET")) {
+                    out.write(stats());
+                    out.write('\n');
+                    latencies.reset();
+                    metrics.reset();
+                    statsStart = System.nanoTime();
+                } else if (line.equals("METRICS")) {
+                    out.write(metrics.report());
+                    out.write("\n\n");
+                } else {
+                    String query = line;
+                    long start = System.nanoTime();
+                    Future<String> response = queryWorkers.submit(() -> search(query));
+                    String results = response.get();
+                    latencies.record(System.nanoTime() - start);
+                    out.write(results);
+                    out.write('\n');
+                }
+                out.flush();
+                line = in.readLine();
+            }
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // runs one query on the calling worker thread and formats its results, one line per result
+    public String search(String query) {
+        // the whole query runs on the index current when it started, which stays open until it is done
+        Index index = acquire();
+        try {
+            return search(query, index);
+        } finally {
+            index.release();
+        }
+    }
+
+    // the current index with a reference taken, an index swapped out and closed in between is passed over for the new one
+    private Index acquire() {
+        while (true) {
+            Index index = this.index;
+            if (index.acquire()) {
+                return index;
+            }
+        }
+    }
+
+    private String search(String query, Index index) {
+        TermDictionary lexicon = index.lexicon;
+        InvertedIndex invertedIndex = index.invertedIndex;
+        ArrayList<String> docnos = index.docnos;
+        ScoreAccumulator accum = index.accumulators.get();
+        TopK topK = heaps.get();
+
+        QueryEvent event = new QueryEvent();
+        event.begin();
+        long start = System.nanoTime();
+        Tokenizer tokenizer = new Tokenizer();
+        DateRange dates = DateRange.parse(query);
+        String words = DateRange.strip(query);
+        BooleanQuery booleanQuery = mode.equals("boolean") ? BooleanQuery.parse(words, lexicon, invertedIndex, tokenizer) : null;
+        ArrayList<Integer> tokenIDs = (booleanQuery != null) ? booleanQuery.scoredTerms() : BM25SearchEngine.queryToIDs(words, lexicon, invertedIndex, tokenizer);
+        ArrayList<PhraseQuery> phrases = PhraseQuery.parse(words, lexicon, tokenizer);
+        metrics.record(SearchMetrics.PARSE, System.nanoTime() - start);
+        int[] rankedDocs = new int[numResults];
+        double[] rankedScores = new double[numResults];
+        long[] postings = new long[1];
+        int numRanked = BM25SearchEngine.rank(tokenIDs, phrases, booleanQuery, dates, invertedIndex, index.segments, docnos.size(), index.docNorms, accum, topK, mode, resultCache, postingCache, metrics, rankedDocs, rankedScores, postings);
+
+        // results are rendered on this worker alone, the other workers are busy with other queries under load
+        String[][] summaries = BM25SearchEngine.resultSummaries(index.sentences, rankedDocs, numRanked, tokenIDs, documentCache, invertedIndex.generation(), false, metrics);
+
+        StringBuilder results = new StringBuilder();
+        for (int r = 0; r < numRanked; r++) {
+            String[] summary = summaries[r];
+            results.append(r + 1).append('\t').append(docnos.get(rankedDocs[r])).append('\t').append(rankedScores[r]);
+            results.append('\t').append(clean(summary[0])).append('\t').append(clean(summary[1])).append('\t').append(clean(summary[2])).append('\n');
+        }
+        metrics.record(SearchMetrics.TOTAL, System.nanoTime() - start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.query = query;
+            event.mode = mode;
+            event.terms = tokenIDs.size();
+            event.postings = postings[0];
+            event.results = numRanked;
+            event.commit();
+        }
+        return results.toString();
+    }
+
+    // number of queries, queries per second and latency percentiles in milliseconds since the stats window started, followed by
+    // the cache counts since the server started
+    public String stats() {
+        double seconds = (System.nanoTime() - statsStart) / 1e9;
+        long n = latencies.count();
+        return String.format("queries=%d qps=%.1f mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms ", n, n / seconds, latencies.mean() / 1000, latencies.percentile(0.5) / 1000.0, latencies.percentile(0.9) / 1000.0, latencies.percentile(0.99) / 1000.0, latencies.max() / 1000.0) + resultCache.stats() + " " + postingCache.stats() + " " + documentCache.stats();
+    }
+
+    // keeps fields on one line of the protocol
+    private static String clean(String field) {
+        return field.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+}
@@ -0,0 +1,150 @@
+// Post processing step that splits the count index written by IndexEngine into date segments, one per month of docs, so queries
+// with a date range only read the postings of the months in the range (see SegmentedIndex and DateRange)
+//
+// the month of every doc comes from its DOCNO. each term's posting list is read once and its postings are routed to the
+// segments of their docs, keeping the docIDs and term ids of the whole index, so a segment is just the part of every posting list
+// that falls in its month, encoded with the same blocks and skip tables (see EncodedPostings). each segment directory
+// segments/YYYY-MM/ gets inverted-index.bin and segment-dict.bin, which only lists the terms its docs have
+// increments added later (see IndexManifest) are split into segments/YYYY-MM/ directories of their own when they are added, or by
+// this for increments added before the index was split, so a month can have a segment in the index and in several increments
+//
+// TO RUN:
+// java SegmentIndexer "/path/to/latimes-index"
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.TreeSet;
+
+public class SegmentIndexer {
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Please provide a path to your latimes-index directory.");
+            return;
+        }
+        String indexPath = args[0];
+        if (!new File(indexPath).exists()) {
+            System.out.println("Please provide the proper path to the latimes-index file. This directory does not exist.");
+            return;
+        }
+
+        // the write lock is held for the whole run so IncrementalIndexer cannot merge away the increments being split
+        FileChannel lock;
+        try {
+            lock = IndexManifest.lock(indexPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        long start = System.currentTimeMillis();
+        int numSegments;
+        try {
+            // DOCNOs and doc lengths of the index and its increments, docIDs are shared
+            IndexManifest manifest = IndexManifest.read(indexPath);
+            ArrayList<String> docnos = BM25SearchEngine.buildDocnos(indexPath, manifest);
+            int[] docLengths = BM25SearchEngine.buildDocLengths(indexPath, manifest);
+
+            double avgLength = (manifest == null) ? BM25SearchEngine.averageLength(docLengths) : manifest.avgLength;
+            int numDocs = (manifest == null) ? docnos.size() : manifest.baseDocs;
+            numSegments = writeSegments(InvertedIndex.open(indexPath), docnos, docLengths, 0, numDocs, avgLength, indexPath);
+            for (int i = 0; manifest != null && i < manifest.size(); i++) {
+                String incrementPath = manifest.path(indexPath, i);
+                if (!new File(incrementPath, "segments").exists()) {
+                    InvertedIndex increment = InvertedIndex.openSegment(incrementPath, null);
+                    numSegments += writeSegments(increment, docnos, docLengths, manifest.firstDoc(i), manifest.numDocs(i), avgLength, incrementPath);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        } finally {
+            IndexManifest.unlock(lock);
+        }
+        System.out.println("Wrote " + numSegments + " date segments in " + (System.currentTimeMillis() - start) / 1000.0 + " seconds.");
+    }
+
+    // splits every posting list of the index or increment holding numDocs docs from firstDoc on by month and writes the segments
+    // under exportPath/segments, returning the number of segments. docnos and docLengths cover the whole collection, and block
+    // bounds are computed with avgLength, the average BM25 normalizes by
+    public static int writeSegments(InvertedIndex invertedIndex, ArrayList<String> docnos, int[] docLengths, int firstDoc, int numDocs, double avgLength, String exportPath) throws IOException {
+        // segment of every doc, segments numbered in month order
+        TreeSet<Integer> monthSet = new TreeSet<>();
+        int[] docMonths = new int[numDocs];
+        for (int d = 0; d < numDocs; d++) {
+            docMonths[d] = DateRange.month(docnos.get(firstDoc + d));
+            monthSet.add(docMonths[d]);
+        }
+        ArrayList<Integer> months = new ArrayList<>(monthSet);
+        int numSegments = months.size();
+        int[] docSegments = new int[numDocs];
+        for (int d = 0; d < numDocs; d++) {
+            docSegments[d] = months.indexOf(docMonths[d]);
+        }
+
+        // one postings file per segment, and its dictionary entries kept in memory until their number is known
+        DataOutputStream[] postings = new DataOutputStream[numSegments];
+        ByteArrayOutputStream[] entryBytes = new ByteArrayOutputStream[numSegments];
+        DataOutputStream[] entries = new DataOutputStream[numSegments];
+        int[] numEntries = new int[numSegments];
+        long[] offsets = new long[numSegments];
+        for (int s = 0; s < numSegments; s++) {
+            File directory = new File(exportPath, "segments/" + DateRange.name(months.get(s)));
+            directory.mkdirs();
+            postings[s] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, "inverted-index.bin")), 1 << 16));
+            entryBytes[s] = new ByteArrayOutputStream();
+            entries[s] = new DataOutputStream(entryBytes[s]);
+        }
+
+        // each list is read once and split, only the segments the term occurs in get a list
+        EncodedPostings[] parts = new EncodedPostings[numSegments];
+        int[] touched = new int[numSegments];
+        for (int termID : invertedIndex.entryTerms()) {
+            int numTouched = 0;
+            PostingsCursor posting = invertedIndex.getPosting(termID);
+            int docID;
+            while ((docID = posting.nextDoc()) != PostingsCursor.NO_MORE_DOCS) {
+                int s = docSegments[docID - firstDoc];
+                if (parts[s] == null) {
+                    parts[s] = new EncodedPostings();
+                    touched[numTouched++] = s;
+                }
+                parts[s].add(docID, posting.freq());
+            }
+
+            for (int t = 0; t < numTouched; t++) {
+                int s = touched[t];
+                float[] blockMaxWeights = parts[s].blockMaxWeights(docLengths, avgLength);
+                float maxTermWeight = 0;
+                for (float weight : blockMaxWeights) {
+                    maxTermWeight = Math.max(maxTermWeight, weight);
+                }
+                entries[s].writeInt(termID);
+                entries[s].writeLong(offsets[s]);
+                entries[s].writeInt(parts[s].docFrequency());
+                entries[s].writeFloat(maxTermWeight);
+                numEntries[s]++;
+
+                parts[s].writeTo(postings[s], blockMaxWeights);
+                offsets[s] += parts[s].length();
+                parts[s] = null;
+            }
+        }
+
+        // the dictionary goes last, its modification time is the segment's generation
+        for (int s = 0; s < numSegments; s++) {
+            postings[s].close();
+            File directory = new File(exportPath, "segments/" + DateRange.name(months.get(s)));
+            try (DataOutputStream dictionary = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, "segment-dict.bin")), 1 << 16))) {
+                dictionary.writeInt(numEntries[s]);
+                entryBytes[s].writeTo(dictionary);
+            }
+        }
+        return numSegments;
+    }
+}
@@ -0,0 +1,81 @@
+// The date segments of an index, one per month of docs, written by SegmentIndexer to segments/YYYY-MM/ in the index directory
+// every segment keeps the docIDs and term ids of the whole index, so the DOCNOs, doc lengths, doc store and lexicon are shared,
+// and scores docs with the idfs of the whole index, so a doc gets the same score from its segment as from the whole index
+// a query with a date range only opens cursors on the segments of the months in the range, the others are never touched, and the
+// segments are ranked in parallel, each into its own top k, then merged (see BM25SearchEngine.segmentRetrieval)
+// increments added later (see IndexManifest) have segments of their own over their docs, so a month can have several segments,
+// kept in docID order
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class SegmentedIndex {
+
+    // segments in month order and the month of each
+    private final InvertedIndex[] segments;
+    private final int[] months;
+
+    // per thread score accumulator for exhaustive ranking of a segment, sized to the whole collection since docIDs are shared
+    private final ThreadLocal<ScoreAccumulator> accumulators;
+
+    private SegmentedIndex(InvertedIndex[] segments, int[] months, int numDocs) {
+        this.segments = segments;
+        this.months = months;
+        this.accumulators = ThreadLocal.withInitial(() -> new ScoreAccumulator(numDocs));
+    }
+
+    // opens every segment in indexPath and the increments of manifest (null for none), null if SegmentIndexer has not been run.
+    // collection is the whole count index, with those increments
+    public static SegmentedIndex open(String indexPath, IndexManifest manifest, InvertedIndex collection, int numDocs) throws IOException {
+        ArrayList<File> directories = segmentDirectories(indexPath);
+        if (directories.isEmpty()) {
+            return null;
+        }
+        for (int i = 0; manifest != null && i < manifest.size(); i++) {
+            directories.addAll(segmentDirectories(manifest.path(indexPath, i)));
+        }
+
+        // by month, the index's segment of a month before those of the increments (the sort is stable)
+        directories.sort((a, b) -> Integer.compare(DateRange.parseName(a.getName()), DateRange.parseName(b.getName())));
+        InvertedIndex[] segments = new InvertedIndex[directories.size()];
+        int[] months = new int[directories.size()];
+        for (int s = 0; s < segments.length; s++) {
+            segments[s] = InvertedIndex.openSegment(directories.get(s).getPath(), collection);
+            months[s] = DateRange.parseName(directories.get(s).getName());
+        }
+        return new SegmentedIndex(segments, months, numDocs);
+    }
+
+    // segment directories in path/segments in month order, none if there are none
+    private static ArrayList<File> segmentDirectories(String path) {
+        File[] directories = new File(path, "segments").listFiles(file -> file.isDirectory() && DateRange.parseName(file.getName()) >= 0 && new File(file, "segment-dict.bin").exists());
+        if (directories == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(directories);
+        return new ArrayList<>(Arrays.asList(directories));
+    }
+
+    // segments whose month is in the range, in month order
+    public ArrayList<InvertedIndex> select(DateRange dates) {
+        ArrayList<InvertedIndex> selected = new ArrayList<>();
+        for (int s = 0; s < segments.length; s++) {
+            if (dates.contains(months[s])) {
+                selected.add(segments[s]);
+            }
+        }
+        return selected;
+    }
+
+    // number of segments
+    public int size() {
+        return segments.length;
+    }
+
+    // accumulator of the calling thread
+    public ScoreAccumulator accumulator() {
+        return accumulators.get();
+    }
+}
@@ -0,0 +1,395 @@
+// Sentence index written by IndexEngine, holding every doc as result rendering needs it so snippets are scored at query time
+// without reading, stripping, splitting or tokenizing the raw doc
+// sentences.bin holds one record per doc in docID order: the headline shown for it, its date and its snippet sentences, then the
+// word ids of the tokens of each sentence. sentences-offsets.bin holds the start offset of every record followed by the end of the
+// last one, and sentence-terms.bin maps each word id to its term id (-1 for words that are not in the lexicon, such as ones that
+// only appear in bylines), so a record can be written before the lexicon is final
+//
+// record: int byte length and UTF-8 bytes of the headline and the date, int number of sentences, length and bytes of each
+// sentence, then for each sentence a vbyte token count followed by a vbyte word id per token
+// the sentence indexes of an index and its increments (see IndexManifest) are read as one through combine, each keeping its own
+// word table
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class SentenceIndex {
+
+    private final FileChannel sentences;
+    private final long[] offsets;
+    private final int[] wordTerms;
+
+    // sentence indexes of an index and its increments read as one and the first docID of each, null for a single index
+    private final SentenceIndex[] parts;
+    private final int[] firstDocs;
+
+    private SentenceIndex(FileChannel sentences, long[] offsets, int[] wordTerms) {
+        this(sentences, offsets, wordTerms, null, null);
+    }
+
+    private SentenceIndex(FileChannel sentences, long[] offsets, int[] wordTerms, SentenceIndex[] parts, int[] firstDocs) {
+        this.sentences = sentences;
+        this.offsets = offsets;
+        this.wordTerms = wordTerms;
+        this.parts = parts;
+        this.firstDocs = firstDocs;
+    }
+
+    // opens the sentence index in the index directory, the offset table and the word to term table are read into memory
+    public static SentenceIndex open(String indexPath) throws IOException {
+        long[] offsets;
+        try (RandomAccessFile file = new RandomAccessFile(indexPath + "/sentences-offsets.bin", "r")) {
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            offsets = new long[(int) (channel.size() / Long.BYTES)];
+            table.asLongBuffer().get(offsets);
+        }
+        int[] wordTerms;
+        try (RandomAccessFile file = new RandomAccessFile(indexPath + "/sentence-terms.bin", "r")) {
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            wordTerms = new int[(int) (channel.size() / Integer.BYTES)];
+            table.asIntBuffer().get(wordTerms);
+        }
+        FileChannel sentences = new RandomAccessFile(indexPath + "/sentences.bin", "r").getChannel();
+        return new SentenceIndex(sentences, offsets, wordTerms);
+    }
+
+    // the sentence index of an index followed by those of its increments, docIDs from firstDocs[p] on are in parts[p]
+    public static SentenceIndex combine(SentenceIndex[] parts, int[] firstDocs) {
+        return new SentenceIndex(null, null, null, parts, firstDocs);
+    }
+
+    // closes the index's file, and those of every part of a combined index
+    public void close() throws IOException {
+        if (parts != null) {
+            for (SentenceIndex part : parts) {
+                part.close();
+            }
+        } else {
+            sentences.close();
+        }
+    }
+
+    // copies the records of the sentence indexes in docID order into one index in exportPath. words are merged by term id, every
+    // word that is a term gets one word id and every word that is not shares one, so record ids are rewritten and the text copied
+    public static void merge(SentenceIndex[] parts, String exportPath) throws IOException {
+        HashMap<Integer, Integer> termWords = new HashMap<>();
+        ArrayList<Integer> wordTerms = new ArrayList<>();
+        wordTerms.add(-1);
+        byte[] ids = new byte[4096];
+
+        try (DataOutputStream sentences = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/sentences.bin"), 1 << 16));
+             DataOutputStream offsets = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/sentences-offsets.bin"), 1 << 16))) {
+            long position = 0;
+            for (SentenceIndex part : parts) {
+                int[] words = new int[part.wordTerms.length];
+                for (int wordID = 0; wordID < words.length; wordID++) {
+                    int termID = part.wordTerms[wordID];
+                    if (termID < 0) {
+                        words[wordID] = 0;
+                    } else {
+                        Integer word = termWords.get(termID);
+                        if (word == null) {
+                            word = wordTerms.size();
+                            termWords.put(termID, word);
+                            wordTerms.add(termID);
+                        }
+                        words[wordID] = word;
+                    }
+                }
+
+                for (int docID = 0; docID < part.numDocs(); docID++) {
+                    ByteBuffer record = part.readRecord(docID);
+                    skipString(record);
+                    skipString(record);
+                    int numSentences = record.getInt();
+                    for (int s = 0; s < numSentences; s++) {
+                        skipString(record);
+                    }
+                    int textLength = record.position();
+
+                    int length = 0;
+                    for (int s = 0; s < numSentences; s++) {
+                        int numTokens = readVByte(record);
+                        if (length + 5 * (numTokens + 1) > ids.length) {
+                            ids = Arrays.copyOf(ids, Math.max(ids.length * 2, length + 5 * (numTokens + 1)));
+                        }
+                        length = writeVByte(ids, length, numTokens);
+                        for (int t = 0; t < numTokens; t++) {
+                            length = writeVByte(ids, length, words[readVByte(record)]);
+                        }
+                    }
+                    offsets.writeLong(position);
+                    sentences.write(record.array(), 0, textLength);
+                    sentences.write(ids, 0, length);
+                    position += textLength + length;
+                }
+            }
+            offsets.writeLong(position);
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/sentence-terms.bin"), 1 << 16))) {
+            for (int termID : wordTerms) {
+                out.writeInt(termID);
+            }
+        }
+    }
+
+    // number of docs in the index
+    public int numDocs() {
+        if (parts != null) {
+            return firstDocs[parts.length - 1] - firstDocs[0] + parts[parts.length - 1].numDocs();
+        }
+        return offsets.length - 1;
+    }
+
+    // reads the record of a doc with one positioned read, its sentences come back with term ids and words that are not terms
+    // dropped, the same ids tokenizing the sentences with the lexicon would give
+    public ParsedDocument get(int docID) throws IOException {
+        if (parts != null) {
+            int part = parts.length - 1;
+            while (part > 0 && firstDocs[part] > docID) {
+                part--;
+            }
+            return parts[part].get(docID - firstDocs[part]);
+        }
+        ByteBuffer record = readRecord(docID);
+
+        String headline = readString(record);
+        String date = readString(record);
+        String[] text = new String[record.getInt()];
+        for (int s = 0; s < text.length; s++) {
+            text[s] = readString(record);
+        }
+        int[][] sentenceIDs = new int[text.length][];
+        for (int s = 0; s < text.length; s++) {
+            int[] ids = new int[readVByte(record)];
+            int size = 0;
+            for (int t = 0; t < ids.length; t++) {
+                int termID = wordTerms[readVByte(record)];
+                if (termID >= 0) {
+                    ids[size++] = termID;
+                }
+            }
+            sentenceIDs[s] = size == ids.length ? ids : Arrays.copyOf(ids, size);
+        }
+        return new ParsedDocument(headline, date, text, sentenceIDs);
+    }
+
+    // reads the record of a doc with one positioned read
+    private ByteBuffer readRecord(int docID) throws IOException {
+        long start = offsets[docID];
+        ByteBuffer record = ByteBuffer.allocate((int) (offsets[docID + 1] - start));
+        while (record.hasRemaining()) {
+            if (sentences.read(record, start + record.position()) < 0) {
+                throw new IOException("sentences.bin ends before the record of doc " + docID);
+            }
+        }
+        record.flip();
+        return record;
+    }
+
+    // splits a doc into the headline shown for it (the first 50 chars of its text when it has none) and its snippet sentences,
+    // tokenized to ids of the given word lexicon, adding new words. called by the IndexEngine workers with a batch local lexicon
+    public static ParsedDocument parse(String rawDoc, String date, String headline, Tokenizer tokenizer, Lexicon words) {
+        ArrayList<String> sentences;
+
+        // if headline is empty string make it first 50 char of doc from text or graphic
+        if(headline.equals("")) {
+            // remove first sections if they exist
+            if(rawDoc.indexOf("</LENGTH>") != -1) {
+                rawDoc = rawDoc.substring(rawDoc.indexOf("</LENGTH>") + 9);
+            } else if(rawDoc.indexOf("</SECTION>") != -1) {
+                rawDoc = rawDoc.substring(rawDoc.indexOf("</SECTION>") + 10);
+            } else if(rawDoc.indexOf("</DATE>") != -1) {
+                rawDoc = rawDoc.substring(rawDoc.indexOf("</DATE>") + 7);
+            } else if(rawDoc.indexOf("</DOCID>") != -1) {
+                rawDoc = rawDoc.substring(rawDoc.indexOf("</DOCID>") + 9);
+            }
+
+            // remove tags and newlines
+            String outputDoc = collapseWhitespace(removeTags(rawDoc)).trim();
+
+            // output first 50 characters, these won't be included in the snippet sentences
+            headline = outputDoc.substring(0, Math.min(50, outputDoc.length()));
+            sentences = toSentences(rawDoc, true);
+        } else {
+            sentences = toSentences(rawDoc, false);
+        }
+
+        // take these sentences and tokenize, every token gets a word id so none are lost before the lexicon is final
+        int[][] sentenceIDs = new int[sentences.size()][];
+        for (int i = 0; i < sentences.size(); i++) {
+            tokenizer.reset();
+            tokenizer.tokenize(sentences.get(i), words, true);
+            sentenceIDs[i] = new int[tokenizer.size()];
+            for (int t = 0; t < tokenizer.size(); t++) {
+                sentenceIDs[i][t] = tokenizer.id(t);
+            }
+        }
+        return new ParsedDocument(headline, date, sentences.toArray(new String[0]), sentenceIDs);
+    }
+
+    // encodes the headline, date and sentences of a record, the word ids are added by SentenceIndexWriter once they are global
+    public static byte[] encodeText(ParsedDocument document) {
+        try {
+            int length = 64 + document.headline.length() + document.date.length();
+            for (String sentence : document.sentences) {
+                length += 4 + sentence.length();
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(length);
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeString(out, document.headline);
+            writeString(out, document.date);
+            out.writeInt(document.sentences.length);
+            for (String sentence : document.sentences) {
+                writeString(out, sentence);
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // only thrown by the underlying stream, which is in memory
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // removes all XML tags from a doc, but does not remove spaces or empty lines
+    public static String removeTags(String rawDoc) {
+        int index = 0;
+        StringBuilder doc = new StringBuilder(rawDoc.length());
+        if (rawDoc.indexOf("<") >= 0) {
+            // takes substrings between > and < characters to remove XML tags
+            while (index < rawDoc.length()) {
+                doc.append(rawDoc, index, rawDoc.indexOf("<", index));
+                index = rawDoc.indexOf(">", index) + 1;
+            }
+        }
+        return doc.toString();
+    }
+
+    // takes doc as input and splits into sentences, each ends after a . ! or ? and has its whitespace collapsed and trimmed
+    public static ArrayList<String> toSentences(String rawDoc, boolean noHeadline) {
+        String outputDoc = "";
+
+        if(noHeadline) {
+            // remove tags and newlines
+            outputDoc = collapseWhitespace(removeTags(rawDoc)).trim();
+
+            // remove first 50 characters as they are in headline now
+            outputDoc = outputDoc.substring(Math.min(50, outputDoc.length()));
+        } else {
+            // removing docno, date, length, and headline (if headline exists)
+            if(rawDoc.indexOf("</HEADLINE>") != -1) {
+                rawDoc = rawDoc.substring(rawDoc.indexOf("</HEADLINE>") + 11);
+
+            } else if(rawDoc.indexOf("</LENGTH>") != -1) {
+                rawDoc = rawDoc.substring(rawDoc.indexOf("</LENGTH>") + 9);
+            }
+
+            // remove tags and newlines from doc
+            outputDoc = collapseWhitespace(removeTags(rawDoc));
+        }
+
+        // one pass cutting after every sentence end, "|||" is also a cut to match the marker the old regex split inserted
+        ArrayList<String> sentenceList = new ArrayList<>();
+        int start = 0;
+        int i = 0;
+        while (i < outputDoc.length()) {
+            char c = outputDoc.charAt(i);
+            if (c == '.' || c == '!' || c == '?') {
+                addSentence(sentenceList, outputDoc, start, i + 1);
+                start = i + 1;
+                i++;
+            } else if (c == '|' && outputDoc.startsWith("|||", i)) {
+                addSentence(sentenceList, outputDoc, start, i);
+                start = i + 3;
+                i += 3;
+            } else {
+                i++;
+            }
+        }
+        addSentence(sentenceList, outputDoc, start, outputDoc.length());
+        return sentenceList;
+    }
+
+    // keeps a sentence if anything is left of it once trimmed
+    private static void addSentence(ArrayList<String> sentenceList, String doc, int start, int end) {
+        String s = doc.substring(start, end).trim();
+        if(!s.equals("")) {
+            sentenceList.add(s);
+        }
+    }
+
+    // replaces every run of whitespace with one space, the same as replaceAll("\\s+", " ") without the regex
+    private static String collapseWhitespace(String doc) {
+        char[] collapsed = new char[doc.length()];
+        int length = 0;
+        boolean inWhitespace = false;
+        for (int i = 0; i < doc.length(); i++) {
+            char c = doc.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r') {
+                if (!inWhitespace) {
+                    collapsed[length++] = ' ';
+                    inWhitespace = true;
+                }
+            } else {
+                collapsed[length++] = c;
+                inWhitespace = false;
+            }
+        }
+        return new String(collapsed, 0, length);
+    }
+
+    // variable byte ints, low 7 bits first with the high bit marking the last byte, the same as the postings
+    private static int readVByte(ByteBuffer record) {
+        int value = 0;
+        int shift = 0;
+        byte b = record.get();
+        while (b >= 0) {
+            value |= b << shift;
+            shift += 7;
+            b = record.get();
+        }
+        return value | ((b & 127) << shift);
+    }
+
+    // writes a vbyte at position in ids, which must have room for it, and returns the position after it
+    private static int writeVByte(byte[] ids, int position, int value) {
+        while (value >= 128) {
+            ids[position++] = (byte) (value & 127);
+            value >>>= 7;
+        }
+        ids[position++] = (byte) (value | 128);
+        return position;
+    }
+
+    // strings are stored as an int byte length followed by UTF-8 bytes, the same as the doc store
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void skipString(ByteBuffer record) {
+        int length = record.getInt();
+        record.position(record.position() + length);
+    }
+}
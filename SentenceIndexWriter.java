@@ -0,0 +1,81 @@
+// Appends sentence index records to sentences.bin in docID order and writes their offsets and the word to term table, see
+// SentenceIndex. the text of a record is encoded by the IndexEngine workers with batch local word ids, this only runs in the merge
+// stage, mapping them to global word ids in the order batches first saw them so writes stay in order
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.ToIntFunction;
+
+public class SentenceIndexWriter {
+
+    private final String exportPath;
+    private final DataOutputStream sentences;
+    private final DataOutputStream offsets;
+    private long position = 0;
+
+    // every word seen in a sentence, a superset of the lexicon
+    private final Lexicon words = new Lexicon();
+
+    // reused to build the id part of each record
+    private byte[] ids = new byte[4096];
+
+    public SentenceIndexWriter(String exportPath) throws IOException {
+        this.exportPath = exportPath;
+        sentences = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/sentences.bin"), 1 << 16));
+        offsets = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/sentences-offsets.bin"), 1 << 16));
+    }
+
+    // appends the records of a batch of docs, text from SentenceIndex.encodeText and sentence ids local to batchWords
+    public void appendBatch(Lexicon batchWords, ArrayList<byte[]> texts, ArrayList<int[][]> sentenceIDs) throws IOException {
+        int[] globalIDs = new int[batchWords.size()];
+        for (int localID = 0; localID < globalIDs.length; localID++) {
+            globalIDs[localID] = words.add(batchWords.term(localID));
+        }
+
+        for (int d = 0; d < texts.size(); d++) {
+            int length = 0;
+            for (int[] sentence : sentenceIDs.get(d)) {
+                length = writeVByte(length, sentence.length);
+                for (int localID : sentence) {
+                    length = writeVByte(length, globalIDs[localID]);
+                }
+            }
+            byte[] text = texts.get(d);
+            offsets.writeLong(position);
+            sentences.write(text);
+            sentences.write(ids, 0, length);
+            position += text.length + length;
+        }
+    }
+
+    // writes the end offset of the last record and the term id of every word, then closes the files. called once the lexicon is
+    // final, termIDs gives the term id of a word or -1
+    public void close(ToIntFunction<String> termIDs) throws IOException {
+        offsets.writeLong(position);
+        offsets.close();
+        sentences.close();
+
+        DataOutputStream wordTerms = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/sentence-terms.bin"), 1 << 16));
+        for (int wordID = 0; wordID < words.size(); wordID++) {
+            wordTerms.writeInt(termIDs.applyAsInt(words.term(wordID)));
+        }
+        wordTerms.close();
+    }
+
+    // writes a vbyte (see SentenceIndex) at position in the id buffer, growing it if needed, and returns the position after it
+    private int writeVByte(int position, int value) {
+        if (position + 5 > ids.length) {
+            ids = Arrays.copyOf(ids, ids.length * 2);
+        }
+        while (value >= 128) {
+            ids[position++] = (byte) (value & 127);
+            value >>>= 7;
+        }
+        ids[position++] = (byte) (value | 128);
+        return position;
+    }
+}
@@ -0,0 +1,229 @@
+// Generates a TREC collection laid out like the LA Times one (DOCNO, DOCID, DATE, SECTION, LENGTH, HEADLINE, BYLINE, GRAPHIC and
+// TEXT with <P> paragraphs), so indexing, search and the benchmarks can run without the licensed data. words follow a Zipf
+// distribution over a mix of common English words, recurring names and made up words, docs are spread over 1989 and 1990 with
+// DOCNOs numbered per day like the real ones, and about one doc in five has no headline so the fallback paths are exercised
+// the same seed always gives the same collection, and a TREC topics file of title queries drawn from the collection can be written
+// with it
+//
+// TO RUN:
+// java SyntheticCorpus "/path/to/synthetic.gz" 20000
+// java SyntheticCorpus "/path/to/synthetic.gz" 20000 "/path/to/topics.txt" 42
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.TextStyle;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+public class SyntheticCorpus {
+
+    public static final long DEFAULT_SEED = 1;
+    public static final int NUM_TOPICS = 50;
+
+    // most frequent words first, they take the top Zipf ranks
+    private static final String[] COMMON_WORDS = {"the", "of", "to", "and", "a", "in", "said", "for", "that", "is", "on", "was",
+            "he", "it", "with", "at", "by", "as", "his", "from", "be", "have", "are", "an", "but", "has", "they", "not", "will", "who",
+            "were", "been", "their", "this", "would", "had", "one", "year", "which", "new", "there", "or", "its", "about", "after",
+            "all", "more", "we", "when", "also", "city", "county", "state", "police", "school", "council", "people", "last", "two",
+            "first", "time", "years", "home", "officials", "million", "percent", "company", "government", "president", "court",
+            "week", "day", "team", "game", "season", "music", "film", "market", "water", "plan", "public", "board", "report"};
+
+    private static final String[] NAMES = {"Los Angeles", "Orange County", "San Diego", "Santa Monica", "Long Beach", "Pasadena",
+            "Tom Bradley", "George Bush", "Mikhail Gorbachev", "Pete Wilson", "Dodgers", "Lakers", "Raiders", "Kings", "UCLA", "USC",
+            "Sacramento", "Washington", "Moscow", "Beijing", "Berlin", "Magic Johnson", "Orel Hershiser", "Wayne Gretzky",
+            "Ronald Reagan", "Daryl Gates", "Supreme Court", "City Council", "Board of Supervisors", "Caltrans"};
+
+    private static final String[] SECTIONS = {"Metro", "Business", "Sports", "Calendar", "View", "Part A", "Orange County Focus",
+            "Book Review", "Opinion", "Real Estate", "Travel", "Food"};
+
+    private static final String[] EDITIONS = {"Home Edition", "Valley Edition", "Orange County Edition", "San Diego County Edition"};
+
+    // made up words after the common ones and the number of Zipf ranks in total
+    private static final int VOCABULARY_SIZE = 60000;
+
+    private final Random random;
+    private final String[] vocabulary = new String[VOCABULARY_SIZE];
+    private final double[] cumulative = new double[VOCABULARY_SIZE];
+
+    public SyntheticCorpus(long seed) {
+        random = new Random(seed);
+        double total = 0;
+        for (int rank = 0; rank < VOCABULARY_SIZE; rank++) {
+            vocabulary[rank] = rank < COMMON_WORDS.length ? COMMON_WORDS[rank] : madeUpWord(rank);
+            total += 1.0 / (rank + 1);
+            cumulative[rank] = total;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 4) {
+            System.out.println("Please provide the path of the gzipped collection to write and the number of docs, and optionally a topics file to write and the random seed (default " + DEFAULT_SEED + ").");
+            return;
+        }
+        int numDocs = Integer.parseInt(args[1]);
+        String topicsPath = (args.length >= 3) ? args[2] : null;
+        long seed = (args.length == 4) ? Long.parseLong(args[3]) : DEFAULT_SEED;
+
+        long start = System.currentTimeMillis();
+        try {
+            SyntheticCorpus corpus = new SyntheticCorpus(seed);
+            corpus.writeCollection(args[0], numDocs);
+            if (topicsPath != null) {
+                corpus.writeTopics(topicsPath, NUM_TOPICS);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        System.out.println("Wrote " + numDocs + " docs in " + (System.currentTimeMillis() - start) / 1000.0 + " seconds.");
+    }
+
+    // writes numDocs docs to a gzipped collection, in date order as in the real one
+    public void writeCollection(String path, int numDocs) throws IOException {
+        LocalDate first = LocalDate.of(1989, 1, 1);
+        int numDays = 730;
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(path), 1 << 16), StandardCharsets.UTF_8), 1 << 16)) {
+            int docOfDay = 0;
+            int previousDay = -1;
+            for (int docID = 1; docID <= numDocs; docID++) {
+                int day = (int) ((long) (docID - 1) * numDays / numDocs);
+                docOfDay = (day == previousDay) ? docOfDay + 1 : 1;
+                previousDay = day;
+                out.write(document(docID, first.plusDays(day), docOfDay));
+            }
+        }
+    }
+
+    // writes TREC topics whose titles are two to four words, some of them names, taken from the same distribution as the docs
+    public void writeTopics(String path, int numTopics) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8))) {
+            for (int t = 0; t < numTopics; t++) {
+                StringBuilder title = new StringBuilder();
+                int numWords = 2 + random.nextInt(3);
+                for (int w = 0; w < numWords; w++) {
+                    if (w > 0) {
+                        title.append(' ');
+                    }
+                    title.append(random.nextInt(4) == 0 ? NAMES[random.nextInt(NAMES.length)] : vocabulary[zipfRank(50)]);
+                }
+                out.write("<top>\n<num> Number: " + (401 + t) + "\n<title> " + title + "\n\n<desc> Description:\n\n</top>\n\n");
+            }
+        }
+    }
+
+    // one doc in the LA Times layout
+    public String document(int docID, LocalDate date, int docOfDay) {
+        String docNO = String.format("LA%02d%02d%02d-%04d", date.getMonthValue(), date.getDayOfMonth(), date.getYear() % 100, docOfDay);
+        String dayName = date.getDayOfWeek().getDisplayName(TextStyle.FULL, Locale.US);
+        String monthName = date.getMonth().getDisplayName(TextStyle.FULL, Locale.US);
+
+        StringBuilder text = new StringBuilder();
+        int numParagraphs = 3 + random.nextInt(10);
+        int numWords = 0;
+        for (int p = 0; p < numParagraphs; p++) {
+            text.append("<P>\n");
+            int numSentences = 1 + random.nextInt(4);
+            for (int s = 0; s < numSentences; s++) {
+                String sentence = sentence();
+                numWords += sentence.split(" ").length;
+                text.append(s > 0 ? " " : "").append(sentence);
+            }
+            text.append("\n</P>\n");
+        }
+
+        StringBuilder doc = new StringBuilder(text.length() + 512);
+        doc.append("<DOC>\n<DOCNO> ").append(docNO).append(" </DOCNO>\n<DOCID> ").append(docID).append(" </DOCID>\n");
+        doc.append("<DATE>\n<P>\n").append(monthName).append(' ').append(date.getDayOfMonth()).append(", ").append(date.getYear()).append(", ").append(dayName).append(", ").append(EDITIONS[random.nextInt(EDITIONS.length)]).append("\n</P>\n</DATE>\n");
+        doc.append("<SECTION>\n<P>\n").append(SECTIONS[random.nextInt(SECTIONS.length)]).append("; Page ").append(1 + random.nextInt(12)).append("; ").append("Metro Desk\n</P>\n</SECTION>\n");
+        doc.append("<LENGTH>\n<P>\n").append(numWords).append(" words\n</P>\n</LENGTH>\n");
+        if (random.nextInt(5) != 0) {
+            doc.append("<HEADLINE>\n<P>\n").append(headline()).append("\n</P>\n</HEADLINE>\n");
+        }
+        if (random.nextInt(3) == 0) {
+            doc.append("<BYLINE>\n<P>\nBy ").append(capitalize(vocabulary[zipfRank(VOCABULARY_SIZE)])).append(' ').append(capitalize(vocabulary[zipfRank(VOCABULARY_SIZE)])).append(", Times Staff Writer\n</P>\n</BYLINE>\n");
+        }
+        doc.append("<TEXT>\n").append(text).append("</TEXT>\n");
+        if (random.nextInt(5) == 0) {
+            doc.append("<GRAPHIC>\n<P>\nPHOTO: ").append(sentence()).append("\n</P>\n</GRAPHIC>\n");
+        }
+        doc.append("</DOC>\n");
+        return doc.toString();
+    }
+
+    // headlines are short and upper case, as in the collection
+    private String headline() {
+        StringBuilder headline = new StringBuilder();
+        int numWords = 3 + random.nextInt(8);
+        for (int w = 0; w < numWords; w++) {
+            headline.append(w > 0 ? " " : "").append(word());
+        }
+        return headline.toString().toUpperCase(Locale.US);
+    }
+
+    // a sentence of 4 to 30 words ending in a period, question mark or exclamation mark
+    private String sentence() {
+        StringBuilder sentence = new StringBuilder();
+        int numWords = 4 + random.nextInt(27);
+        for (int w = 0; w < numWords; w++) {
+            String word = word();
+            sentence.append(w > 0 ? " " : "").append(w == 0 ? capitalize(word) : word);
+            if (w + 1 < numWords && random.nextInt(12) == 0) {
+                sentence.append(',');
+            }
+        }
+        int end = random.nextInt(20);
+        return sentence.append(end == 0 ? '?' : end == 1 ? '!' : '.').toString();
+    }
+
+    // a word of the Zipf vocabulary, or now and then a name or a number
+    private String word() {
+        int kind = random.nextInt(40);
+        if (kind == 0) {
+            return NAMES[random.nextInt(NAMES.length)];
+        } else if (kind == 1) {
+            return Integer.toString(random.nextInt(2000));
+        }
+        return vocabulary[zipfRank(VOCABULARY_SIZE)];
+    }
+
+    // rank among the first limit ranks with probability proportional to 1 / (rank + 1)
+    private int zipfRank(int limit) {
+        double target = random.nextDouble() * cumulative[limit - 1];
+        int low = 0;
+        int high = limit - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cumulative[middle] < target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // pronounceable word that only depends on its rank, longer for rarer words
+    private static String madeUpWord(int rank) {
+        String consonants = "bcdfghklmnprstvwz";
+        String vowels = "aeiou";
+        StringBuilder word = new StringBuilder();
+        int value = rank;
+        do {
+            word.append(consonants.charAt(value % consonants.length()));
+            value /= consonants.length();
+            word.append(vowels.charAt(value % vowels.length()));
+            value /= vowels.length();
+        } while (value > 0);
+        return word.append(consonants.charAt(rank % 7)).toString();
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+}
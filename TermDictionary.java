@@ -0,0 +1,315 @@
+// Compact immutable term dictionary written by IndexEngine (lexicon.bin), replacing lexicon.txt and the HashMap built from it
+// terms are sorted by their UTF-8 bytes and front coded in blocks of BLOCK_SIZE: the first term of a block is stored whole and
+// every other term as the number of bytes it shares with the previous term plus the rest. the file is memory mapped, so opening
+// it reads nothing but the header, and a lookup is a binary search over block first terms and a scan of one block
+// each entry maps the term to its term id, the doc frequency, postings offset and score bound are in InvertedIndex by that id
+// an increment (see IndexManifest) has a lexicon delta in the same layout holding only the terms first seen in its docs, with ids
+// after every term before it, and the dictionary searchers use looks a term up in the index's lexicon and then in each delta
+//
+// layout: int numTerms, int numBlocks, numBlocks int offsets of each block relative to the data, then the blocks
+// entry: vbyte shared prefix length, vbyte suffix length, suffix bytes, vbyte term id
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class TermDictionary {
+
+    // terms per front coded block, a lookup scans at most this many entries
+    public static final int BLOCK_SIZE = 16;
+
+    private final ByteBuffer dictionary;
+    private final int numTerms;
+    private final int numBlocks;
+    private final int dataOffset;
+
+    // lexicon deltas of the increments in docID order, looked up after this dictionary, empty if there are none
+    private final TermDictionary[] deltas;
+
+    private TermDictionary(ByteBuffer dictionary, TermDictionary[] deltas) {
+        this.dictionary = dictionary;
+        this.deltas = deltas;
+        this.numTerms = dictionary.getInt(0);
+        this.numBlocks = dictionary.getInt(4);
+        this.dataOffset = 8 + numBlocks * 4;
+    }
+
+    // maps lexicon.bin from the index directory
+    public static TermDictionary open(String indexPath) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(indexPath + "/lexicon.bin", "r")) {
+            FileChannel channel = file.getChannel();
+            return new TermDictionary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), new TermDictionary[0]);
+        }
+    }
+
+    // the same dictionary followed by the lexicon deltas of the increments, in docID order
+    public TermDictionary withDeltas(TermDictionary[] deltas) {
+        return new TermDictionary(dictionary, deltas);
+    }
+
+    // writes the terms of a lexicon to lexicon.bin, sorted and front coded
+    public static void write(Lexicon lexicon, String exportPath) throws IOException {
+        write(lexicon, 0, exportPath);
+    }
+
+    // writes the terms of a lexicon to lexicon.bin with ids starting at firstTermID, the lexicon delta of an increment
+    public static void write(Lexicon lexicon, int firstTermID, String exportPath) throws IOException {
+        byte[][] terms = new byte[lexicon.size()][];
+        Integer[] sorted = new Integer[lexicon.size()];
+        for (int termID = 0; termID < terms.length; termID++) {
+            terms[termID] = lexicon.term(termID).getBytes(StandardCharsets.UTF_8);
+            sorted[termID] = termID;
+        }
+        Arrays.sort(sorted, (a, b) -> Arrays.compareUnsigned(terms[a], terms[b]));
+
+        int numBlocks = (terms.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] blockOffsets = new int[numBlocks];
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] previous = new byte[0];
+        for (int i = 0; i < sorted.length; i++) {
+            byte[] term = terms[sorted[i]];
+            int shared = 0;
+            if (i % BLOCK_SIZE == 0) {
+                blockOffsets[i / BLOCK_SIZE] = data.size();
+            } else {
+                int max = Math.min(previous.length, term.length);
+                while (shared < max && previous[shared] == term[shared]) {
+                    shared++;
+                }
+            }
+            writeVByte(data, shared);
+            writeVByte(data, term.length - shared);
+            data.write(term, shared, term.length - shared);
+            writeVByte(data, firstTermID + sorted[i]);
+            previous = term;
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(exportPath + "/lexicon.bin"), 1 << 16));
+        out.writeInt(terms.length);
+        out.writeInt(numBlocks);
+        for (int offset : blockOffsets) {
+            out.writeInt(offset);
+        }
+        data.writeTo(out);
+        out.close();
+    }
+
+    // number of terms, the deltas included
+    public int size() {
+        int size = numTerms;
+        for (TermDictionary delta : deltas) {
+            size += delta.size();
+        }
+        return size;
+    }
+
+    // id of a term, -1 if it is not in the dictionary
+    public int get(String term) {
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+        return get(key, key.length);
+    }
+
+    // id of the term whose UTF-8 bytes are key[0, length), -1 if it is not in the dictionary or any of its deltas
+    public int get(byte[] key, int length) {
+        int termID = find(key, length);
+        for (int d = 0; termID < 0 && d < deltas.length; d++) {
+            termID = deltas[d].get(key, length);
+        }
+        return termID;
+    }
+
+    // id of the term whose UTF-8 bytes are key[0, length) in this dictionary alone, -1 if it is not in it
+    private int find(byte[] key, int length) {
+        int block = findBlock(key, length);
+        if (block < 0) {
+            return -1;
+        }
+
+        // walk the block keeping how many leading bytes the current term shares with the key, terms are sorted so once an entry
+        // shares less with its predecessor than the predecessor shared with the key, every later term is past the key
+        int position = dataOffset + dictionary.getInt(8 + block * 4);
+        int entries = Math.min(BLOCK_SIZE, numTerms - block * BLOCK_SIZE);
+        int matched = 0;
+        for (int e = 0; e < entries; e++) {
+            long entry = readVByte(position);
+            int shared = value(entry);
+            entry = readVByte(nextPosition(entry));
+            int suffixLength = value(entry);
+            int suffixStart = nextPosition(entry);
+            entry = readVByte(suffixStart + suffixLength);
+            int termID = value(entry);
+            position = nextPosition(entry);
+
+            if (shared < matched) {
+                return -1;
+            }
+            if (shared > matched) {
+                continue;
+            }
+            int termLength = shared + suffixLength;
+            int i = 0;
+            while (matched < length && i < suffixLength && dictionary.get(suffixStart + i) == key[matched]) {
+                matched++;
+                i++;
+            }
+            if (matched == length && matched == termLength) {
+                return termID;
+            }
+            if (matched == termLength) {
+                // the term is a prefix of the key, so a longer term may still match
+                continue;
+            }
+            if (matched == length || Byte.toUnsignedInt(dictionary.get(suffixStart + i)) > Byte.toUnsignedInt(key[matched])) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    // ids of every term starting with prefix, in term order within this dictionary and then within each delta
+    public ArrayList<Integer> expandPrefix(String prefix) {
+        ArrayList<Integer> termIDs = new ArrayList<>();
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        expand(key, termIDs);
+        for (TermDictionary delta : deltas) {
+            delta.expand(key, termIDs);
+        }
+        return termIDs;
+    }
+
+    // every term of this dictionary, the deltas left out, by term id - firstTermID. used to merge the lexicon deltas of
+    // increments whose ids start at firstTermID
+    public String[] terms(int firstTermID) {
+        String[] terms = new String[numTerms];
+        byte[] term = new byte[64];
+        for (int block = 0; block < numBlocks; block++) {
+            int position = dataOffset + dictionary.getInt(8 + block * 4);
+            int entries = Math.min(BLOCK_SIZE, numTerms - block * BLOCK_SIZE);
+            for (int e = 0; e < entries; e++) {
+                long entry = readVByte(position);
+                int shared = value(entry);
+                entry = readVByte(nextPosition(entry));
+                int suffixLength = value(entry);
+                position = nextPosition(entry);
+                if (shared + suffixLength > term.length) {
+                    term = Arrays.copyOf(term, (shared + suffixLength) * 2);
+                }
+                for (int i = 0; i < suffixLength; i++) {
+                    term[shared + i] = dictionary.get(position + i);
+                }
+                entry = readVByte(position + suffixLength);
+                position = nextPosition(entry);
+                terms[value(entry) - firstTermID] = new String(term, 0, shared + suffixLength, StandardCharsets.UTF_8);
+            }
+        }
+        return terms;
+    }
+
+    // adds the ids of every term of this dictionary alone that starts with key, in term order
+    private void expand(byte[] key, ArrayList<Integer> termIDs) {
+        int block = Math.max(findBlock(key, key.length), 0);
+
+        byte[] term = new byte[64];
+        for (; block < numBlocks; block++) {
+            int position = dataOffset + dictionary.getInt(8 + block * 4);
+            int entries = Math.min(BLOCK_SIZE, numTerms - block * BLOCK_SIZE);
+            for (int e = 0; e < entries; e++) {
+                long entry = readVByte(position);
+                int shared = value(entry);
+                entry = readVByte(nextPosition(entry));
+                int suffixLength = value(entry);
+                position = nextPosition(entry);
+                if (shared + suffixLength > term.length) {
+                    term = Arrays.copyOf(term, (shared + suffixLength) * 2);
+                }
+                for (int i = 0; i < suffixLength; i++) {
+                    term[shared + i] = dictionary.get(position + i);
+                }
+                entry = readVByte(position + suffixLength);
+                int termID = value(entry);
+                position = nextPosition(entry);
+
+                int termLength = shared + suffixLength;
+                int compare = Arrays.compareUnsigned(term, 0, Math.min(termLength, key.length), key, 0, key.length);
+                if (compare == 0 && termLength >= key.length) {
+                    termIDs.add(termID);
+                } else if (compare > 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // last block whose first term is at or before the key, -1 if the key is before every term
+    private int findBlock(byte[] key, int length) {
+        int low = 0;
+        int high = numBlocks - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (compareFirstTerm(middle, key, length) <= 0) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    // compares the first term of a block with the key, unsigned byte order
+    private int compareFirstTerm(int block, byte[] key, int length) {
+        int position = dataOffset + dictionary.getInt(8 + block * 4);
+        long entry = readVByte(nextPosition(readVByte(position)));
+        int termLength = value(entry);
+        int start = nextPosition(entry);
+        int max = Math.min(termLength, length);
+        for (int i = 0; i < max; i++) {
+            int difference = Byte.toUnsignedInt(dictionary.get(start + i)) - Byte.toUnsignedInt(key[i]);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return termLength - length;
+    }
+
+    // variable byte ints, low 7 bits first with the high bit marking the last byte, the same as the postings
+    private static void writeVByte(ByteArrayOutputStream out, int value) {
+        while (value >= 128) {
+            out.write(value & 127);
+            value >>>= 7;
+        }
+        out.write(value | 128);
+    }
+
+    // reads a vbyte at position, returning the value in the high half and the position after it in the low half so lookups
+    // need no cursor object and stay safe to run from many threads
+    private long readVByte(int position) {
+        int value = 0;
+        int shift = 0;
+        byte b = dictionary.get(position++);
+        while (b >= 0) {
+            value |= b << shift;
+            shift += 7;
+            b = dictionary.get(position++);
+        }
+        value |= (b & 127) << shift;
+        return ((long) value << 32) | position;
+    }
+
+    private static int value(long vByte) {
+        return (int) (vByte >>> 32);
+    }
+
+    private static int nextPosition(long vByte) {
+        return (int) vByte;
+    }
+}
@@ -0,0 +1,109 @@
+// Single pass tokenizer that resolves tokens to term ids without creating a String per token
+// a token is a run of letters or digits, lower cased char by char into a reusable buffer while its hash is computed, then looked
+// up in the Lexicon by that char range (or in the TermDictionary by its UTF-8 bytes). one instance is reused for every doc of a worker or every sentence of a snippet,
+// it is not safe to share between threads
+
+import java.util.Arrays;
+
+public class Tokenizer {
+
+    private char[] token = new char[64];
+    private byte[] utf8 = new byte[192];
+    private int[] ids = new int[256];
+    private int size = 0;
+    private int numTokens = 0;
+
+    // clears the ids collected so far
+    public void reset() {
+        size = 0;
+        numTokens = 0;
+    }
+
+    // tokenizes text and appends the id of each token, with addNewTerms unseen tokens are added to the lexicon, otherwise they
+    // are counted but skipped (the same as looking a query up in a fixed lexicon)
+    public void tokenize(CharSequence text, Lexicon lexicon, boolean addNewTerms) {
+        scan(text, lexicon, addNewTerms, null);
+    }
+
+    // tokenizes text and appends the id of each token found in the dictionary, other tokens are counted but skipped
+    public void tokenize(CharSequence text, TermDictionary dictionary) {
+        scan(text, null, false, dictionary);
+    }
+
+    private void scan(CharSequence text, Lexicon lexicon, boolean addNewTerms, TermDictionary dictionary) {
+        int length = 0;
+        int hash = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            if (Character.isLetterOrDigit(c)) {
+                if (length == token.length) {
+                    token = Arrays.copyOf(token, length * 2);
+                }
+                token[length++] = c;
+                hash = 31 * hash + c;
+            } else if (length > 0) {
+                resolve(length, hash, lexicon, addNewTerms, dictionary);
+                length = 0;
+                hash = 0;
+            }
+        }
+        if (length > 0) {
+            resolve(length, hash, lexicon, addNewTerms, dictionary);
+        }
+    }
+
+    // number of ids collected since the last reset
+    public int size() {
+        return size;
+    }
+
+    // number of tokens seen since the last reset, including ones skipped as unknown
+    public int numTokens() {
+        return numTokens;
+    }
+
+    // id of the i-th collected token
+    public int id(int i) {
+        return ids[i];
+    }
+
+    private void resolve(int length, int hash, Lexicon lexicon, boolean addNewTerms, TermDictionary dictionary) {
+        numTokens++;
+        int termID;
+        if (dictionary != null) {
+            termID = dictionary.get(utf8, encode(length));
+        } else {
+            termID = addNewTerms ? lexicon.add(token, 0, length, hash) : lexicon.get(token, 0, length, hash);
+        }
+        if (termID < 0) {
+            return;
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        ids[size++] = termID;
+    }
+
+    // UTF-8 encodes the token into the byte buffer and returns its length, letters and digits are never surrogates so every char
+    // takes one to three bytes
+    private int encode(int length) {
+        if (utf8.length < length * 3) {
+            utf8 = new byte[length * 3];
+        }
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            char c = token[i];
+            if (c < 0x80) {
+                utf8[n++] = (byte) c;
+            } else if (c < 0x800) {
+                utf8[n++] = (byte) (0xC0 | (c >> 6));
+                utf8[n++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                utf8[n++] = (byte) (0xE0 | (c >> 12));
+                utf8[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                utf8[n++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,131 @@
+// Bounded min-heap of the k best (docID, score) pairs, used for ranking instead of sorting every accumulated score
+// the heap root is the worst result kept so far, so each offer is O(log k) and ranking n scored docs is O(n log k)
+// ties on score are broken by the lower docID, the same order the old full sort produced
+
+public class TopK {
+
+    private final int k;
+    private final int[] docs;
+    private final double[] scores;
+    private int size = 0;
+
+    public TopK(int k) {
+        this.k = k;
+        docs = new int[k];
+        scores = new double[k];
+    }
+
+    // maximum number of results kept
+    public int capacity() {
+        return k;
+    }
+
+    // number of results currently kept
+    public int size() {
+        return size;
+    }
+
+    // true once k results are kept, after which a doc has to beat the root to get in
+    public boolean isFull() {
+        return size == k;
+    }
+
+    // score of the worst kept result, negative infinity until the heap is full
+    public double threshold() {
+        return isFull() ? scores[0] : Double.NEGATIVE_INFINITY;
+    }
+
+    // offers a scored doc, returns true if it was kept
+    public boolean offer(int docID, double score) {
+        if (k == 0) {
+            return false;
+        }
+        if (size < k) {
+            docs[size] = docID;
+            scores[size] = score;
+            siftUp(size++);
+            return true;
+        }
+        if (!better(docID, score, docs[0], scores[0])) {
+            return false;
+        }
+        docs[0] = docID;
+        scores[0] = score;
+        siftDown(0);
+        return true;
+    }
+
+    // offers every doc scored in the accumulator
+    public void offerAll(ScoreAccumulator accum) {
+        for (int i = 0; i < accum.size(); i++) {
+            int docID = accum.doc(i);
+            offer(docID, accum.score(docID));
+        }
+    }
+
+    // empties the heap so it can be reused for the next query
+    public void clear() {
+        size = 0;
+    }
+
+    // drains the heap into rank order (best first), filling docIDs and scores, and returns the number of results
+    // the heap is empty afterwards
+    public int drain(int[] rankedDocs, double[] rankedScores) {
+        int count = size;
+        for (int i = count - 1; i >= 0; i--) {
+            rankedDocs[i] = docs[0];
+            rankedScores[i] = scores[0];
+            size--;
+            if (size > 0) {
+                docs[0] = docs[size];
+                scores[0] = scores[size];
+                siftDown(0);
+            }
+        }
+        return count;
+    }
+
+    // true if doc a ranks ahead of doc b
+    private static boolean better(int docA, double scoreA, int docB, double scoreB) {
+        return scoreA > scoreB || (scoreA == scoreB && docA < docB);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!better(docs[parent], scores[parent], docs[i], scores[i])) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                break;
+            }
+            int worst = left;
+            int right = left + 1;
+            if (right < size && better(docs[left], scores[left], docs[right], scores[right])) {
+                worst = right;
+            }
+            if (!better(docs[i], scores[i], docs[worst], scores[worst])) {
+                break;
+            }
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int doc = docs[i];
+        docs[i] = docs[j];
+        docs[j] = doc;
+        double score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+}
@@ -0,0 +1,105 @@
+// One pass parser for a single TREC doc, finds the DOCNO, HEADLINE, GRAPHIC and TEXT boundaries with one scan over the tags
+// sections are handed out as CharSequence views over the doc string, nothing is copied until a section is cleaned
+// only the first occurrence of each tag counts, the same as the indexOf based extraction this replaces
+
+import java.nio.CharBuffer;
+
+public class TrecDocument {
+
+    private static final String[] SECTIONS = {"DOCNO", "HEADLINE", "GRAPHIC", "TEXT"};
+    private static final int DOCNO = 0;
+    private static final int HEADLINE = 1;
+    private static final int GRAPHIC = 2;
+    private static final int TEXT = 3;
+
+    private final String doc;
+
+    // start (just after the open tag) and end (the close tag) of each section, -1 if it was not found
+    private final int[] starts = {-1, -1, -1, -1};
+    private final int[] ends = {-1, -1, -1, -1};
+
+    private TrecDocument(String doc) {
+        this.doc = doc;
+    }
+
+    // scans the tags of a doc once, recording where each section starts and ends
+    public static TrecDocument parse(String doc) {
+        TrecDocument parsed = new TrecDocument(doc);
+        int i = doc.indexOf('<');
+        while (i >= 0) {
+            int close = doc.indexOf('>', i);
+            if (close < 0) {
+                break;
+            }
+            boolean endTag = i + 1 < close && doc.charAt(i + 1) == '/';
+            int nameStart = endTag ? i + 2 : i + 1;
+            for (int s = 0; s < SECTIONS.length; s++) {
+                String name = SECTIONS[s];
+                if (close - nameStart == name.length() && doc.regionMatches(nameStart, name, 0, name.length())) {
+                    if (!endTag && parsed.starts[s] < 0) {
+                        parsed.starts[s] = close + 1;
+                    } else if (endTag && parsed.ends[s] < 0) {
+                        parsed.ends[s] = i;
+                    }
+                    break;
+                }
+            }
+            i = doc.indexOf('<', close + 1);
+        }
+        return parsed;
+    }
+
+    // DOCNO with surrounding whitespace removed
+    public String docNO() {
+        return section(DOCNO).toString().trim();
+    }
+
+    // raw headline, graphic and text slices, tags included, empty if the doc has no such section
+    public CharSequence headline() {
+        return section(HEADLINE);
+    }
+
+    public CharSequence graphic() {
+        return section(GRAPHIC);
+    }
+
+    public CharSequence text() {
+        return section(TEXT);
+    }
+
+    // whole doc, as stored in the doc store
+    public String doc() {
+        return doc;
+    }
+
+    // removes XML tags from a section and collapses each run of whitespace into one space, trimming both ends
+    public static String clean(CharSequence section) {
+        StringBuilder result = new StringBuilder(section.length());
+        boolean inTag = false;
+        boolean pendingSpace = false;
+        for (int i = 0; i < section.length(); i++) {
+            char c = section.charAt(i);
+            if (inTag) {
+                inTag = c != '>';
+            } else if (c == '<') {
+                inTag = true;
+            } else if (c <= ' ') {
+                pendingSpace = result.length() > 0;
+            } else {
+                if (pendingSpace) {
+                    result.append(' ');
+                    pendingSpace = false;
+                }
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private CharSequence section(int s) {
+        if (starts[s] < 0 || ends[s] < starts[s]) {
+            return "";
+        }
+        return CharBuffer.wrap(doc, starts[s], ends[s]);
+    }
+}
@@ -0,0 +1,106 @@
+// Streaming reader that splits a TREC/SGML collection into <DOC> ... </DOC> strings, replacing line by line concatenation
+// the decoded text is read in large chunks into one reusable char buffer and each doc is copied out of it exactly once,
+// so reading is linear in the size of the collection no matter how long the docs are
+
+import java.io.IOException;
+import java.io.Reader;
+
+public class TrecReader {
+
+    private static final char[] DOC_START = "<DOC>".toCharArray();
+    private static final char[] DOC_END = "</DOC>".toCharArray();
+
+    private final Reader input;
+    private char[] buffer;
+    private int position = 0;
+    private int limit = 0;
+    private boolean endOfInput = false;
+
+    // chars decoded from the input so far, for reporting throughput
+    private long charsRead = 0;
+
+    public TrecReader(Reader input, int bufferSize) {
+        this.input = input;
+        this.buffer = new char[bufferSize];
+    }
+
+    // returns the next doc from <DOC> through </DOC>, or null at the end of the collection
+    public String nextDoc() throws IOException {
+        int start = find(DOC_START, position);
+        if (start < 0) {
+            return null;
+        }
+        // find may have moved the buffer contents while refilling, so searching for the end restarts from the doc start
+        position = start;
+        int end = find(DOC_END, position + DOC_START.length);
+        if (end < 0) {
+            return null;
+        }
+        end += DOC_END.length;
+        String doc = new String(buffer, position, end - position);
+        position = end;
+        return doc;
+    }
+
+    // number of chars decoded from the input so far
+    public long charsRead() {
+        return charsRead;
+    }
+
+    public void close() throws IOException {
+        input.close();
+    }
+
+    // index in the buffer where pattern next occurs at or after from, refilling the buffer as needed, -1 if the input ends first
+    // chars before position are dropped on refill, so from and the returned index are only valid until the next call
+    private int find(char[] pattern, int from) throws IOException {
+        while (true) {
+            for (int i = from; i <= limit - pattern.length; i++) {
+                if (buffer[i] == pattern[0] && matches(pattern, i)) {
+                    return i;
+                }
+            }
+            if (endOfInput) {
+                return -1;
+            }
+            // keep the tail that could still start a match, then read more
+            int keep = Math.max(from, limit - pattern.length + 1);
+            int shift = fill();
+            from = Math.max(keep - shift, 0);
+        }
+    }
+
+    private boolean matches(char[] pattern, int at) {
+        for (int j = 1; j < pattern.length; j++) {
+            if (buffer[at + j] != pattern[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // moves the unread chars from position to the front of the buffer (growing it if a doc fills it) and reads more input
+    // returns how far the buffer contents moved back
+    private int fill() throws IOException {
+        int shift = position;
+        int remaining = limit - position;
+        if (remaining == buffer.length) {
+            char[] grown = new char[buffer.length * 2];
+            System.arraycopy(buffer, position, grown, 0, remaining);
+            buffer = grown;
+        } else {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        }
+        position = 0;
+        limit = remaining;
+
+        int read = input.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            endOfInput = true;
+        } else {
+            limit += read;
+            charsRead += read;
+        }
+        return shift;
+    }
+}